@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A threshold that adjusts itself so that about a target number of values per minute is above it.
+ * <p>
+ * Recent values are counted in a histogram with sixteen buckets per power of two. Every 30 seconds
+ * the threshold is set to the quantile where the target number of values is above it, interpolated
+ * within the bucket, and all counts are halved. With this decay, the histogram holds about one minute of values.
+ * The threshold never goes below the minimum threshold.
+ */
+public class AdaptiveThreshold {
+
+    private static final Logger log = Logger.getLogger(AdaptiveThreshold.class);
+
+    private static final long windowMs = 30_000;
+    private static final int subBucketBits = 4;
+    private static final int subBuckets = 1 << subBucketBits;
+    private static final int bucketCount = subBuckets + (63 - subBucketBits) * subBuckets;
+
+    private final String name;
+    private final long minimumThreshold;
+    private final int targetPerMinute;
+    private final LongSupplier clock;
+
+    private final double[] counts = new double[bucketCount];
+    // highest value per bucket in the current window, to interpolate near the highest values
+    private final long[] maxValues = new long[bucketCount];
+    private volatile long threshold;
+    private long windowEnd;
+
+    public AdaptiveThreshold(String name, long initialThreshold, long minimumThreshold, int targetPerMinute) {
+        this(name, initialThreshold, minimumThreshold, targetPerMinute, System::currentTimeMillis);
+    }
+
+    AdaptiveThreshold(String name, long initialThreshold, long minimumThreshold, int targetPerMinute, LongSupplier clock) {
+        if (targetPerMinute <= 0) throw new IllegalArgumentException("targetPerMinute must be positive: " + targetPerMinute);
+        this.name = name;
+        this.minimumThreshold = minimumThreshold;
+        this.targetPerMinute = targetPerMinute;
+        this.clock = clock;
+        this.threshold = Math.max(initialThreshold, minimumThreshold);
+        this.windowEnd = clock.getAsLong() + windowMs;
+    }
+
+    /**
+     * Counts the value and returns true when it is above the current threshold.
+     */
+    public synchronized boolean isAbove(long value) {
+        long now = clock.getAsLong();
+        if (now >= windowEnd) {
+            updateThreshold();
+            windowEnd = now + windowMs;
+        }
+        int bucket = bucket(value);
+        counts[bucket]++;
+        maxValues[bucket] = Math.max(maxValues[bucket], value);
+        return value > threshold;
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    private void updateThreshold() {
+        double above = 0;
+        long newThreshold = minimumThreshold;
+        for (int i = bucketCount - 1; i >= 0; i--) {
+            if (above + counts[i] > targetPerMinute) {
+                // assume the values are spread evenly in this bucket
+                long lower = lowerBound(i);
+                long upper = maxValues[i] > 0 ? maxValues[i] + 1 : lowerBound(i + 1);
+                double fractionAbove = (targetPerMinute - above) / counts[i];
+                newThreshold = Math.max(minimumThreshold, upper - (long) ((upper - lower) * fractionAbove) - 1);
+                break;
+            }
+            above += counts[i];
+        }
+        for (int i = 0; i < bucketCount; i++) {
+            counts[i] = counts[i] / 2;
+            maxValues[i] = 0;
+        }
+        if (newThreshold != threshold) {
+            log.debug("Adaptive threshold %s changed from %d to %d for %d per minute", name, threshold, newThreshold, targetPerMinute);
+            threshold = newThreshold;
+        }
+    }
+
+    static int bucket(long value) {
+        if (value < subBuckets) {
+            return (int) Math.max(0, value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - subBucketBits)) & (subBuckets - 1));
+        return subBuckets + (exponent - subBucketBits) * subBuckets + subBucket;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < subBuckets) {
+            return bucket;
+        }
+        if (bucket >= bucketCount) {
+            return Long.MAX_VALUE;
+        }
+        int exponent = (bucket - subBuckets) / subBuckets + subBucketBits;
+        int subBucket = (bucket - subBuckets) % subBuckets;
+        return ((long) subBuckets + subBucket) << (exponent - subBucketBits);
+    }
+}
@@ -15,8 +15,13 @@
  */
 package io.perfana.jfr;
 
+import io.perfana.jfr.influx.InfluxApiVersion;
+import io.perfana.jfr.influx.InfluxOutagePolicy;
+
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
+import java.util.regex.Pattern;
 
 public class Arguments {
     private Integer processId = null;
@@ -28,9 +33,42 @@ public class Arguments {
     private boolean debug = false;
     private Duration duration = null;
     private String influxRetentionPolicy = "autogen";
+    private InfluxApiVersion influxApiVersion = InfluxApiVersion.V1;
+    private String influxOrg = null;
+    private String influxBucket = null;
+    private String influxToken = null;
+    private InfluxOutagePolicy influxOutagePolicy = InfluxOutagePolicy.BUFFER;
     private long bigObjectThresholdBytes = 256_000L;
     private long bigObjectSampleWeightThresholdBytes = 48_000_000L;
     private boolean enableStackTraces = true;
+    private int topThreads = 10;
+    private boolean enableExceptionThrowSites = false;
+    private Duration classLoaderStatisticsPeriod = Duration.ofSeconds(30);
+    private Duration directBufferStatisticsPeriod = Duration.ofSeconds(5);
+    private Duration oldObjectSampleInterval = null;
+    private Duration oldObjectSampleCutoff = Duration.ofMillis(100);
+    private Path eventMappingsFile = null;
+    private Set<String> enabledProviders = new HashSet<>();
+    private Set<String> disabledProviders = new HashSet<>();
+    private List<String> eventProcessors = new ArrayList<>();
+    private int prometheusPort = 9464;
+    private String otlpEndpoint = "http://localhost:4318";
+    private String statsdHost = "localhost";
+    private int statsdPort = 8125;
+    private boolean statsdTags = true;
+    private Path fileDirectory = Path.of("jfr-exporter-data");
+    private long fileMaxSizeBytes = 64L * 1024 * 1024;
+    private Duration fileMaxAge = Duration.ofHours(1);
+    private boolean fileCompression = true;
+    private OverheadProfile profile = OverheadProfile.DEFAULT;
+    private Double overheadBudget = null;
+    private int adaptiveEventsPerMinute = 0;
+    private Path eventSettingsFile = null;
+    private Path jfrFiles = null;
+    private boolean discoverJvms = false;
+    private Pattern discoverInclude = null;
+    private Pattern discoverExclude = null;
+    private int influxBatchSize = 1_000;
 
     public static String usage() {
         return "Usage: java JfrExporter " +
@@ -40,9 +78,29 @@ public class Arguments {
                 " --tags, -t <comma separated list of tag-name=tag-value pairs>" +
                 " --bigObjectThreshold <bytes>" +
                 " --bigObjectSampleWeightThreshold <bytes>" +
+                " --topThreads <count>" +
+                " --exceptionThrowSites" +
+                " --classLoaderStatisticsPeriod <ISO-duration>" +
+                " --directBufferStatisticsPeriod <ISO-duration>" +
+                " --oldObjectSampleInterval <ISO-duration> --oldObjectSampleCutoff <ISO-duration>" +
+                " --eventMappings <properties-file>" +
+                " --eventSettings <properties-file>" +
+                " --jfrFiles <file-or-directory>" +
+                " --discoverJvms --discoverInclude <regex> --discoverExclude <regex>" +
+                " --profile <minimal|default|diagnostic>" +
+                " --overheadBudget <cores>" +
+                " --adaptiveThresholds <events-per-minute>" +
+                " --enableProvider <name> --disableProvider <name>" +
+                " --eventProcessor <name>" +
+                " --prometheusPort <port>" +
+                " --otlpEndpoint <url>" +
+                " --statsdHost <host> --statsdPort <port> --statsdNoTags" +
+                " --fileDirectory <directory> --fileMaxSize <bytes> --fileMaxAge <ISO-duration> --fileCompression <gzip|none>" +
                 " --disableStackTraces" +
                 " --influxUrl <influxUrl> --influxDatabase <influxDatabase>" +
-                " --influxUser <influxUser> --influxPassword <influxPassword>";
+                " --influxUser <influxUser> --influxPassword <influxPassword>" +
+                " --influxApiVersion <v1|v2|v3> --influxOrg <org> --influxBucket <bucket> --influxToken <token>" +
+                " --influxOutagePolicy <buffer|drop> --influxBatchSize <lines>";
     }
 
     public static void print(String message) {
@@ -55,6 +113,9 @@ public class Arguments {
 
         Arguments arguments = new Arguments();
 
+        // apply the profile first, so the other options override the profile defaults
+        arguments.applyProfile(findProfile(args));
+
         while (!options.isEmpty()) {
             String arg = options.remove();
 
@@ -73,6 +134,11 @@ public class Arguments {
                 continue;
             }
 
+            if (matches(arg, "--exceptionThrowSites", "exceptionThrowSites")) {
+                arguments.enableExceptionThrowSites = true;
+                continue;
+            }
+
             if (matches(arg, "-p", "--processId", "processId")) {
                 String processId = options.remove();
                 arguments.processId = Integer.parseInt(processId);
@@ -111,6 +177,36 @@ public class Arguments {
                 continue;
             }
 
+            if (matches(arg, "", "--influxApiVersion", "influxApiVersion")) {
+                arguments.influxApiVersion = InfluxApiVersion.parse(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--influxOrg", "influxOrg")) {
+                arguments.influxOrg = options.remove();
+                continue;
+            }
+
+            if (matches(arg, "", "--influxBucket", "influxBucket")) {
+                arguments.influxBucket = options.remove();
+                continue;
+            }
+
+            if (matches(arg, "", "--influxToken", "influxToken")) {
+                arguments.influxToken = options.remove();
+                continue;
+            }
+
+            if (matches(arg, "", "--influxOutagePolicy", "influxOutagePolicy")) {
+                arguments.influxOutagePolicy = InfluxOutagePolicy.parse(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--influxBatchSize", "influxBatchSize")) {
+                arguments.influxBatchSize = Integer.parseInt(options.remove());
+                continue;
+            }
+
             if (matches(arg, "", "--duration", "duration")) {
                 arguments.duration = Duration.parse(options.remove());
                 continue;
@@ -126,6 +222,144 @@ public class Arguments {
                 continue;
             }
 
+            if (matches(arg, "", "--topThreads", "topThreads")) {
+                arguments.topThreads = Integer.parseInt(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--classLoaderStatisticsPeriod", "classLoaderStatisticsPeriod")) {
+                arguments.classLoaderStatisticsPeriod = Duration.parse(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--directBufferStatisticsPeriod", "directBufferStatisticsPeriod")) {
+                arguments.directBufferStatisticsPeriod = Duration.parse(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--oldObjectSampleInterval", "oldObjectSampleInterval")) {
+                arguments.oldObjectSampleInterval = Duration.parse(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--oldObjectSampleCutoff", "oldObjectSampleCutoff")) {
+                arguments.oldObjectSampleCutoff = Duration.parse(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--eventMappings", "eventMappings")) {
+                arguments.eventMappingsFile = Path.of(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--profile", "profile")) {
+                // already applied
+                options.remove();
+                continue;
+            }
+
+            if (matches(arg, "", "--adaptiveThresholds", "adaptiveThresholds")) {
+                arguments.adaptiveEventsPerMinute = Integer.parseInt(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--overheadBudget", "overheadBudget")) {
+                arguments.overheadBudget = Double.parseDouble(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--eventSettings", "eventSettings")) {
+                arguments.eventSettingsFile = Path.of(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--jfrFiles", "jfrFiles")) {
+                arguments.jfrFiles = Path.of(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--discoverJvms", "discoverJvms")) {
+                arguments.discoverJvms = true;
+                continue;
+            }
+
+            if (matches(arg, "", "--discoverInclude", "discoverInclude")) {
+                arguments.discoverInclude = Pattern.compile(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--discoverExclude", "discoverExclude")) {
+                arguments.discoverExclude = Pattern.compile(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--enableProvider", "enableProvider")) {
+                arguments.enabledProviders.add(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--disableProvider", "disableProvider")) {
+                arguments.disabledProviders.add(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--eventProcessor", "eventProcessor")) {
+                String eventProcessor = options.remove();
+                if (!arguments.eventProcessors.contains(eventProcessor)) {
+                    arguments.eventProcessors.add(eventProcessor);
+                }
+                continue;
+            }
+
+            if (matches(arg, "", "--prometheusPort", "prometheusPort")) {
+                arguments.prometheusPort = Integer.parseInt(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--otlpEndpoint", "otlpEndpoint")) {
+                arguments.otlpEndpoint = options.remove();
+                continue;
+            }
+
+            if (matches(arg, "", "--statsdHost", "statsdHost")) {
+                arguments.statsdHost = options.remove();
+                continue;
+            }
+
+            if (matches(arg, "", "--statsdPort", "statsdPort")) {
+                arguments.statsdPort = Integer.parseInt(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--statsdNoTags", "statsdNoTags")) {
+                arguments.statsdTags = false;
+                continue;
+            }
+
+            if (matches(arg, "", "--fileDirectory", "fileDirectory")) {
+                arguments.fileDirectory = Path.of(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--fileMaxSize", "fileMaxSize")) {
+                arguments.fileMaxSizeBytes = Long.parseLong(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--fileMaxAge", "fileMaxAge")) {
+                arguments.fileMaxAge = Duration.parse(options.remove());
+                continue;
+            }
+
+            if (matches(arg, "", "--fileCompression", "fileCompression")) {
+                String compression = options.remove();
+                if (!matches(compression, "gzip", "none")) {
+                    throw new JfrExporterException("Unknown file compression '" + compression + "', use gzip or none");
+                }
+                arguments.fileCompression = "gzip".equals(compression);
+                continue;
+            }
+
             print("WARN: unknown option: " + arg);
 
         }
@@ -133,6 +367,47 @@ public class Arguments {
         return arguments;
     }
 
+    private static OverheadProfile findProfile(String[] args) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (matches(args[i], "--profile", "profile")) {
+                return OverheadProfile.parse(args[i + 1]);
+            }
+        }
+        return OverheadProfile.DEFAULT;
+    }
+
+    private void applyProfile(OverheadProfile profile) {
+        this.profile = profile;
+        disabledProviders.addAll(profile.getDisabledProviders());
+        if (profile == OverheadProfile.MINIMAL) {
+            enableStackTraces = false;
+            bigObjectThresholdBytes = bigObjectThresholdBytes * 4;
+            bigObjectSampleWeightThresholdBytes = bigObjectSampleWeightThresholdBytes * 4;
+            classLoaderStatisticsPeriod = Duration.ofMinutes(5);
+            directBufferStatisticsPeriod = Duration.ofSeconds(30);
+        }
+        else if (profile == OverheadProfile.DIAGNOSTIC) {
+            enableExceptionThrowSites = true;
+            oldObjectSampleInterval = Duration.ofMinutes(5);
+            bigObjectThresholdBytes = bigObjectThresholdBytes / 4;
+            bigObjectSampleWeightThresholdBytes = bigObjectSampleWeightThresholdBytes / 4;
+            topThreads = 20;
+        }
+    }
+
+    /**
+     * Parse a comma separated list of name/value tags, e.g. {@code service/afterburner,team/perf}.
+     */
+    static Map<String, String> parseTags(String tags) {
+        Map<String, String> map = new HashMap<>();
+        for (String tag : tags.split(",")) {
+            if (!tag.isBlank()) {
+                addTagToMap(tag.trim(), map);
+            }
+        }
+        return map;
+    }
+
     private static void addTagToMap(String tagWithSlash, Map<String, String> map) {
         String[] keyValue = tagWithSlash.split("/");
         if (keyValue.length == 2) {
@@ -162,6 +437,125 @@ public class Arguments {
         return bigObjectSampleWeightThresholdBytes;
     }
 
+    public int getTopThreads() {
+        return topThreads;
+    }
+
+    public Duration getClassLoaderStatisticsPeriod() {
+        return classLoaderStatisticsPeriod;
+    }
+
+    public Duration getDirectBufferStatisticsPeriod() {
+        return directBufferStatisticsPeriod;
+    }
+
+    public Duration getOldObjectSampleInterval() {
+        return oldObjectSampleInterval;
+    }
+
+    public Duration getOldObjectSampleCutoff() {
+        return oldObjectSampleCutoff;
+    }
+
+    public Path getEventMappingsFile() {
+        return eventMappingsFile;
+    }
+
+    public OverheadProfile getProfile() {
+        return profile;
+    }
+
+    public Double getOverheadBudget() {
+        return overheadBudget;
+    }
+
+    /**
+     * Target events per minute for the adaptive thresholds, 0 for the fixed thresholds.
+     */
+    public int getAdaptiveEventsPerMinute() {
+        return adaptiveEventsPerMinute;
+    }
+
+    public Path getEventSettingsFile() {
+        return eventSettingsFile;
+    }
+
+    /**
+     * The recording file or directory with recording files to read instead of connecting to a JVM, or null.
+     */
+    public Path getJfrFiles() {
+        return jfrFiles;
+    }
+
+    /**
+     * Monitor all JVMs on the host that match the include and exclude patterns, instead of one process id.
+     */
+    public boolean isDiscoverJvms() {
+        return discoverJvms;
+    }
+
+    public Pattern getDiscoverInclude() {
+        return discoverInclude;
+    }
+
+    public Pattern getDiscoverExclude() {
+        return discoverExclude;
+    }
+
+    public Set<String> getEnabledProviders() {
+        return Collections.unmodifiableSet(enabledProviders);
+    }
+
+    public Set<String> getDisabledProviders() {
+        return Collections.unmodifiableSet(disabledProviders);
+    }
+
+    /**
+     * The selected event processors, in the order given, empty for the default.
+     */
+    public List<String> getEventProcessors() {
+        return Collections.unmodifiableList(eventProcessors);
+    }
+
+    public int getPrometheusPort() {
+        return prometheusPort;
+    }
+
+    public String getOtlpEndpoint() {
+        return otlpEndpoint;
+    }
+
+    public String getStatsdHost() {
+        return statsdHost;
+    }
+
+    public int getStatsdPort() {
+        return statsdPort;
+    }
+
+    /**
+     * Send the tags in DogStatsD format, false for plain StatsD agents.
+     */
+    public boolean isStatsdTags() {
+        return statsdTags;
+    }
+
+    public Path getFileDirectory() {
+        return fileDirectory;
+    }
+
+    public long getFileMaxSizeBytes() {
+        return fileMaxSizeBytes;
+    }
+
+    public Duration getFileMaxAge() {
+        return fileMaxAge;
+    }
+
+    public boolean isFileCompression() {
+        return fileCompression;
+    }
+
     public String getInfluxUrl() {
         return influxUrl;
     }
@@ -178,6 +572,33 @@ public class Arguments {
         return influxPassword;
     }
 
+    public InfluxApiVersion getInfluxApiVersion() {
+        return influxApiVersion;
+    }
+
+    public String getInfluxOrg() {
+        return influxOrg;
+    }
+
+    /**
+     * The bucket for the v2 API, null to use the database name.
+     */
+    public String getInfluxBucket() {
+        return influxBucket;
+    }
+
+    public String getInfluxToken() {
+        return influxToken;
+    }
+
+    public InfluxOutagePolicy getInfluxOutagePolicy() {
+        return influxOutagePolicy;
+    }
+
+    public int getInfluxBatchSize() {
+        return influxBatchSize;
+    }
+
     public boolean isDebug() {
         return debug;
     }
@@ -196,9 +617,42 @@ public class Arguments {
                 ", influxDatabase='" + influxDatabase + '\'' +
                 ", influxUser='" + influxUser + '\'' +
                 ", influxPassword='" + influxPassword + '\'' +
+                ", influxApiVersion=" + influxApiVersion +
+                ", influxOrg='" + influxOrg + '\'' +
+                ", influxBucket='" + influxBucket + '\'' +
+                ", influxToken=" + (influxToken == null ? "null" : "'***'") +
+                ", influxOutagePolicy=" + influxOutagePolicy +
+                ", influxBatchSize=" + influxBatchSize +
                 ", debug=" + debug +
                 ", duration=" + duration +
                 ", enableStackTraces=" + enableStackTraces +
+                ", topThreads=" + topThreads +
+                ", enableExceptionThrowSites=" + enableExceptionThrowSites +
+                ", classLoaderStatisticsPeriod=" + classLoaderStatisticsPeriod +
+                ", directBufferStatisticsPeriod=" + directBufferStatisticsPeriod +
+                ", oldObjectSampleInterval=" + oldObjectSampleInterval +
+                ", oldObjectSampleCutoff=" + oldObjectSampleCutoff +
+                ", eventMappingsFile=" + eventMappingsFile +
+                ", profile=" + profile +
+                ", overheadBudget=" + overheadBudget +
+                ", adaptiveEventsPerMinute=" + adaptiveEventsPerMinute +
+                ", eventSettingsFile=" + eventSettingsFile +
+                ", jfrFiles=" + jfrFiles +
+                ", discoverJvms=" + discoverJvms +
+                ", discoverInclude=" + discoverInclude +
+                ", discoverExclude=" + discoverExclude +
+                ", enabledProviders=" + enabledProviders +
+                ", disabledProviders=" + disabledProviders +
+                ", eventProcessors=" + eventProcessors +
+                ", prometheusPort=" + prometheusPort +
+                ", otlpEndpoint=" + otlpEndpoint +
+                ", statsdHost=" + statsdHost +
+                ", statsdPort=" + statsdPort +
+                ", statsdTags=" + statsdTags +
+                ", fileDirectory=" + fileDirectory +
+                ", fileMaxSizeBytes=" + fileMaxSizeBytes +
+                ", fileMaxAge=" + fileMaxAge +
+                ", fileCompression=" + fileCompression +
                 '}';
     }
 
@@ -209,5 +663,9 @@ public class Arguments {
     public boolean isEnableStackTraces() {
         return enableStackTraces;
     }
+
+    public boolean isEnableExceptionThrowSites() {
+        return enableExceptionThrowSites;
+    }
 }
 
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Changes the period, threshold and enabled state of events at runtime, via JMX
+ * ({@value #OBJECT_NAME}) or a watched properties file with lines such as:
+ * <pre>
+ * jdk.JavaMonitorEnter.threshold=PT0.02S
+ * jdk.CPULoad.period=PT5S
+ * jdk.SocketRead.enabled=false
+ * </pre>
+ * All changes for one event are applied at once, see {@link JfrEventHandler#reconfigure(JfrEventSettings)}.
+ */
+public class EventSettingsControl implements EventSettingsControlMXBean, AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(EventSettingsControl.class);
+
+    public static final String OBJECT_NAME = "io.perfana.jfr:type=EventSettings";
+
+    private static final Set<String> knownProperties = Set.of("period", "threshold", "enabled");
+
+    private final JfrEventHandler eventHandler;
+
+    private ScheduledExecutorService watcher;
+    private FileTime lastModified;
+    private ObjectName registeredName;
+
+    public EventSettingsControl(JfrEventHandler eventHandler) {
+        if (eventHandler == null) throw new IllegalArgumentException("eventHandler must not be null");
+        this.eventHandler = eventHandler;
+    }
+
+    public synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                log.info("Replacing existing MBean %s", OBJECT_NAME);
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException e) {
+            log.error("Cannot register MBean %s: %s", OBJECT_NAME, e.getMessage());
+        }
+    }
+
+    public synchronized void watchFile(Path file, Duration interval) {
+        watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("jfr-exporter-settings");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(() -> {
+            try {
+                reloadWhenModified(file);
+            } catch (Exception e) {
+                log.error("Cannot apply event settings from %s: %s", file, e.getMessage());
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void reloadWhenModified(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        FileTime modified = Files.getLastModifiedTime(file);
+        if (modified.equals(lastModified)) {
+            return;
+        }
+        lastModified = modified;
+        log.info("Apply event settings from %s", file);
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        apply(properties);
+    }
+
+    /**
+     * Applies the properties, grouped per event so each event is reconfigured once.
+     */
+    void apply(Properties properties) {
+        Map<String, JfrEventSettings> changed = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            String property = key.substring(dot + 1);
+            if (dot <= 0 || !knownProperties.contains(property)) {
+                log.error("Ignoring event setting '%s', expected <event-name>.<%s>", key, String.join("|", knownProperties));
+                continue;
+            }
+            String eventName = key.substring(0, dot);
+            JfrEventSettings current = eventHandler.getSettings(eventName);
+            if (current == null) {
+                log.error("Ignoring event setting '%s', event is not registered", key);
+                continue;
+            }
+            JfrEventSettings settings = changed.computeIfAbsent(eventName, name -> current.copy());
+            String value = properties.getProperty(key).trim();
+            try {
+                switch (property) {
+                    case "period" -> settings.withPeriod(Duration.parse(value));
+                    case "threshold" -> settings.withThreshold(Duration.parse(value));
+                    default -> settings.withEnabled(Boolean.parseBoolean(value));
+                }
+            } catch (Exception e) {
+                log.error("Ignoring event setting '%s': %s", key, e.getMessage());
+            }
+        }
+        changed.values().forEach(eventHandler::reconfigure);
+    }
+
+    @Override
+    public String[] getEventNames() {
+        return eventHandler.getEventNames().toArray(new String[0]);
+    }
+
+    @Override
+    public String getSettings(String eventName) {
+        return String.valueOf(eventHandler.getSettings(eventName));
+    }
+
+    @Override
+    public void setPeriod(String eventName, String period) {
+        eventHandler.reconfigure(settingsToChange(eventName).withPeriod(Duration.parse(period)));
+    }
+
+    @Override
+    public void setThreshold(String eventName, String threshold) {
+        eventHandler.reconfigure(settingsToChange(eventName).withThreshold(Duration.parse(threshold)));
+    }
+
+    @Override
+    public void setEnabled(String eventName, boolean enabled) {
+        eventHandler.reconfigure(settingsToChange(eventName).withEnabled(enabled));
+    }
+
+    private JfrEventSettings settingsToChange(String eventName) {
+        JfrEventSettings current = eventHandler.getSettings(eventName);
+        if (current == null) {
+            throw new IllegalArgumentException("Event is not registered: " + eventName);
+        }
+        return current.copy();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+        }
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                log.debug("Cannot unregister MBean %s: %s", OBJECT_NAME, e.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+}
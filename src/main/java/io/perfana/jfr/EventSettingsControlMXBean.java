@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+/**
+ * JMX operations to change the event settings at runtime. Durations are ISO-8601, e.g. PT0.02S.
+ */
+public interface EventSettingsControlMXBean {
+
+    String[] getEventNames();
+
+    String getSettings(String eventName);
+
+    void setPeriod(String eventName, String period);
+
+    void setThreshold(String eventName, String threshold);
+
+    void setEnabled(String eventName, boolean enabled);
+}
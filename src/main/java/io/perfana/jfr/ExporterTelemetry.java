@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures whether the exporter keeps up: the events received per type, the points written, batch sizes,
+ * write latency, write errors, dropped points, buffered bytes and the lag between the JFR event and the write.
+ * <p>
+ * The writers record into striped counters, so recording is cheap on any thread. Every 10 seconds the counts
+ * of the interval are sent to the event processor as the {@code exporter-telemetry} and {@code exporter-events}
+ * measurements. The totals are also available via JMX ({@value #OBJECT_NAME}).
+ * <p>
+ * There is one instance per exporter process, see {@link #global()}, because the writers are created by plugins.
+ */
+public class ExporterTelemetry implements ExporterTelemetryMXBean, AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(ExporterTelemetry.class);
+
+    public static final String OBJECT_NAME = "io.perfana.jfr:type=ExporterTelemetry";
+
+    private static final Duration reportInterval = Duration.ofSeconds(10);
+
+    private static final ExporterTelemetry global = new ExporterTelemetry();
+
+    private final Map<String, LongAdder> eventsReceived = new ConcurrentHashMap<>();
+    private final LongAdder pointsWritten = new LongAdder();
+    private final LongAdder droppedPoints = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final LongAdder bufferBytes = new LongAdder();
+
+    private final StripedHistogram batchSize = new StripedHistogram();
+    private final StripedHistogram writeLatencyMicros = new StripedHistogram();
+    private final StripedHistogram lagMs = new StripedHistogram();
+
+    // previous totals, only used by the reporting thread
+    private final Map<String, Long> reportedEvents = new HashMap<>();
+    private long reportedPoints;
+    private long reportedDropped;
+    private long reportedErrors;
+
+    private volatile StripedHistogram.Snapshot lastBatchSize = new StripedHistogram.Snapshot(0, 0, 0, 0, 0);
+    private volatile StripedHistogram.Snapshot lastWriteLatency = lastBatchSize;
+    private volatile StripedHistogram.Snapshot lastLag = lastBatchSize;
+
+    private ScheduledExecutorService executor;
+    private JfrEventProcessor eventProcessor;
+    private ObjectName registeredName;
+
+    ExporterTelemetry() {
+    }
+
+    public static ExporterTelemetry global() {
+        return global;
+    }
+
+    /**
+     * Wraps the event processor to count the received events per measurement.
+     */
+    public JfrEventProcessor countEvents(JfrEventProcessor processor) {
+        return event -> {
+            LongAdder counter = eventsReceived.get(event.measurementName());
+            if (counter == null) {
+                counter = eventsReceived.computeIfAbsent(event.measurementName(), name -> new LongAdder());
+            }
+            counter.increment();
+            processor.processEvent(event);
+        };
+    }
+
+    /**
+     * Record a written batch.
+     *
+     * @param points the number of points in the batch
+     * @param latencyNanos the time it took to write the batch
+     * @param oldestEventMillis the epoch millis of the oldest event in the batch, or 0 when unknown
+     */
+    public void recordBatch(int points, long latencyNanos, long oldestEventMillis) {
+        pointsWritten.add(points);
+        batchSize.record(points);
+        writeLatencyMicros.record(latencyNanos / 1_000);
+        if (oldestEventMillis > 0) {
+            lagMs.record(System.currentTimeMillis() - oldestEventMillis);
+        }
+    }
+
+    /**
+     * Record a failed write, the points of the failed batch are dropped.
+     */
+    public void recordWriteError(int droppedPoints) {
+        writeErrors.increment();
+        this.droppedPoints.add(droppedPoints);
+    }
+
+    /**
+     * Record points that are dropped without a write, e.g. because a queue is full.
+     */
+    public void recordDropped(long points) {
+        droppedPoints.add(points);
+    }
+
+    /**
+     * Add (or subtract when negative) the bytes waiting in the write buffers.
+     */
+    public void addBufferBytes(long bytes) {
+        bufferBytes.add(bytes);
+    }
+
+    public synchronized void start(JfrEventProcessor eventProcessor) {
+        if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        this.eventProcessor = eventProcessor;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("jfr-exporter-telemetry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMs = reportInterval.toMillis();
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                report(eventProcessor);
+            } catch (Exception e) {
+                log.error("Cannot report exporter telemetry: %s", e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registeredName = name;
+        } catch (JMException e) {
+            log.error("Cannot register MBean %s: %s", OBJECT_NAME, e.getMessage());
+        }
+    }
+
+    synchronized void report(JfrEventProcessor eventProcessor) {
+        Instant timestamp = Instant.now();
+        List<ProcessedJfrEvent> reports = new ArrayList<>();
+
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(eventsReceived).entrySet()) {
+            long total = entry.getValue().sum();
+            long previous = reportedEvents.getOrDefault(entry.getKey(), 0L);
+            if (total > previous) {
+                reportedEvents.put(entry.getKey(), total);
+                reports.add(ProcessedJfrEvent.of(timestamp, "exporter-events", Map.of("event", entry.getKey()), "received", total - previous));
+            }
+        }
+
+        long points = pointsWritten.sum();
+        long dropped = droppedPoints.sum();
+        long errors = writeErrors.sum();
+        lastBatchSize = batchSize.snapshotAndReset();
+        lastWriteLatency = writeLatencyMicros.snapshotAndReset();
+        lastLag = lagMs.snapshotAndReset();
+
+        Map<String, Object> extraFields = new LinkedHashMap<>();
+        extraFields.put("dropped-points", dropped - reportedDropped);
+        extraFields.put("write-errors", errors - reportedErrors);
+        extraFields.put("buffer-bytes", bufferBytes.sum());
+        extraFields.put("batches", lastBatchSize.count());
+        if (lastBatchSize.count() > 0) {
+            extraFields.put("batch-size-mean", lastBatchSize.mean());
+            extraFields.put("batch-size-p99", lastBatchSize.p99());
+            extraFields.put("batch-size-max", lastBatchSize.max());
+            extraFields.put("write-latency-ms-p50", lastWriteLatency.p50() / 1_000.0);
+            extraFields.put("write-latency-ms-p99", lastWriteLatency.p99() / 1_000.0);
+            extraFields.put("write-latency-ms-max", lastWriteLatency.max() / 1_000.0);
+        }
+        if (lastLag.count() > 0) {
+            extraFields.put("lag-ms-p50", lastLag.p50());
+            extraFields.put("lag-ms-p99", lastLag.p99());
+            extraFields.put("lag-ms-max", lastLag.max());
+        }
+        reports.add(ProcessedJfrEvent.of(timestamp, "exporter-telemetry", "points-written", points - reportedPoints, extraFields));
+
+        if (dropped > reportedDropped) {
+            log.info("Exporter dropped %d points in the last %d seconds", dropped - reportedDropped, reportInterval.toSeconds());
+        }
+        reportedPoints = points;
+        reportedDropped = dropped;
+        reportedErrors = errors;
+
+        reports.forEach(eventProcessor::processEvent);
+    }
+
+    @Override
+    public Map<String, Long> getEventsReceived() {
+        Map<String, Long> received = new TreeMap<>();
+        eventsReceived.forEach((name, counter) -> received.put(name, counter.sum()));
+        return received;
+    }
+
+    @Override
+    public long getPointsWritten() {
+        return pointsWritten.sum();
+    }
+
+    @Override
+    public long getDroppedPoints() {
+        return droppedPoints.sum();
+    }
+
+    @Override
+    public long getWriteErrors() {
+        return writeErrors.sum();
+    }
+
+    @Override
+    public long getBufferBytes() {
+        return bufferBytes.sum();
+    }
+
+    @Override
+    public long getBatchSizeP99() {
+        return lastBatchSize.p99();
+    }
+
+    @Override
+    public double getWriteLatencyMsP99() {
+        return lastWriteLatency.p99() / 1_000.0;
+    }
+
+    @Override
+    public long getLagMsP99() {
+        return lastLag.p99();
+    }
+
+    /**
+     * Sends the last report and stops reporting. The totals are kept.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            try {
+                report(eventProcessor);
+            } catch (Exception e) {
+                log.error("Cannot report exporter telemetry: %s", e.getMessage());
+            }
+            eventProcessor = null;
+        }
+        if (registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            } catch (JMException e) {
+                log.debug("Cannot unregister MBean %s: %s", OBJECT_NAME, e.getMessage());
+            }
+            registeredName = null;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import java.util.Map;
+
+/**
+ * JMX view of the exporter telemetry. Totals are counted since the start, percentiles cover the last report interval.
+ */
+public interface ExporterTelemetryMXBean {
+
+    Map<String, Long> getEventsReceived();
+
+    long getPointsWritten();
+
+    long getDroppedPoints();
+
+    long getWriteErrors();
+
+    long getBufferBytes();
+
+    long getBatchSizeP99();
+
+    double getWriteLatencyMsP99();
+
+    long getLagMsP99();
+}
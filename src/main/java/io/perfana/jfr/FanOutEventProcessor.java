@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends each event to several event processors (sinks), each with its own bounded queue and worker thread.
+ * <p>
+ * The event thread only offers the event to the queues: when a sink is slow or down, its queue fills up
+ * and its events are dropped, without slowing down the event thread or the other sinks.
+ * Every 10 seconds the queue size, the processed, dropped and failed events and the maximum lag between
+ * queueing and processing are sent per sink as the {@code exporter-sink} measurement.
+ */
+public class FanOutEventProcessor implements JfrEventProcessor, AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(FanOutEventProcessor.class);
+
+    private static final int defaultQueueCapacity = 10_000;
+    private static final long reportIntervalMs = 10_000;
+    private static final long closeTimeoutMs = 10_000;
+
+    private final List<Sink> sinks = new ArrayList<>();
+    private final int queueCapacity;
+
+    private final AtomicLong lastReportTimestamp = new AtomicLong(System.currentTimeMillis());
+
+    private volatile boolean running = true;
+
+    private record QueuedEvent(ProcessedJfrEvent event, long queuedNanos) {}
+
+    private class Sink implements Runnable {
+        private final String name;
+        private final JfrEventProcessor processor;
+        private final BlockingQueue<QueuedEvent> queue = new ArrayBlockingQueue<>(queueCapacity);
+        private final Thread worker;
+
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final AtomicLong maxLagNanos = new AtomicLong();
+
+        Sink(String name, JfrEventProcessor processor) {
+            this.name = name;
+            this.processor = processor;
+            this.worker = new Thread(this, "jfr-exporter-sink-" + name);
+            worker.setDaemon(true);
+        }
+
+        void offer(QueuedEvent queuedEvent) {
+            if (!queue.offer(queuedEvent)) {
+                dropped.increment();
+                ExporterTelemetry.global().recordDropped(1);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                try {
+                    QueuedEvent queuedEvent = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (queuedEvent != null) {
+                        process(queuedEvent);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private void process(QueuedEvent queuedEvent) {
+            maxLagNanos.accumulateAndGet(System.nanoTime() - queuedEvent.queuedNanos(), Math::max);
+            try {
+                processor.processEvent(queuedEvent.event());
+                processed.increment();
+            } catch (RuntimeException e) {
+                // the first failures are logged, later ones are only counted
+                if (failed.sum() < 10) {
+                    log.error("Event processor %s failed: (%s) %s", name, e.getClass().getSimpleName(), e.getMessage());
+                }
+                failed.increment();
+            }
+        }
+    }
+
+    /**
+     * @param processors the event processors by name, in the order to start and close them
+     */
+    public FanOutEventProcessor(Map<String, JfrEventProcessor> processors) {
+        this(processors, defaultQueueCapacity);
+    }
+
+    FanOutEventProcessor(Map<String, JfrEventProcessor> processors, int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        if (processors == null || processors.isEmpty()) throw new IllegalArgumentException("processors must not be empty");
+        processors.forEach((name, processor) -> sinks.add(new Sink(name, processor)));
+        sinks.forEach(sink -> sink.worker.start());
+    }
+
+    @Override
+    public void processEvent(ProcessedJfrEvent event) {
+        QueuedEvent queuedEvent = new QueuedEvent(event, System.nanoTime());
+        for (Sink sink : sinks) {
+            sink.offer(queuedEvent);
+        }
+        reportWhenIntervalPassed();
+    }
+
+    private void reportWhenIntervalPassed() {
+        long now = System.currentTimeMillis();
+        long lastReport = lastReportTimestamp.get();
+        if (now - lastReport <= reportIntervalMs || !lastReportTimestamp.compareAndSet(lastReport, now)) {
+            return;
+        }
+        report();
+    }
+
+    void report() {
+        Instant timestamp = Instant.now();
+        List<ProcessedJfrEvent> reports = new ArrayList<>();
+        for (Sink sink : sinks) {
+            long dropped = sink.dropped.sumThenReset();
+            long failed = sink.failed.sumThenReset();
+            if (dropped > 0) {
+                log.info("Event processor %s is not keeping up, dropped %d events", sink.name, dropped);
+            }
+            Map<String, Object> extraFields = Map.of(
+                    "processed", sink.processed.sumThenReset(),
+                    "dropped", dropped,
+                    "failed", failed,
+                    "lag-ms", sink.maxLagNanos.getAndSet(0) / 1_000_000.0);
+            reports.add(ProcessedJfrEvent.of(timestamp, "exporter-sink", Map.of("sink", sink.name), "queued", sink.queue.size(), extraFields));
+        }
+        for (ProcessedJfrEvent report : reports) {
+            QueuedEvent queuedReport = new QueuedEvent(report, System.nanoTime());
+            sinks.forEach(sink -> sink.offer(queuedReport));
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        long deadline = System.currentTimeMillis() + closeTimeoutMs;
+        for (Sink sink : sinks) {
+            try {
+                sink.worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (sink.worker.isAlive()) {
+                log.error("Event processor %s did not finish in time, %d events are not sent", sink.name, sink.queue.size());
+                sink.worker.interrupt();
+            }
+            if (sink.processor instanceof AutoCloseable autoCloseable) {
+                try {
+                    autoCloseable.close();
+                } catch (Exception e) {
+                    log.error("Error closing event processor %s: %s", sink.name, e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -44,6 +44,8 @@ public class JfrConnector {
         try (RecordingStream stream = new RecordingStream()) {
             eventHandler.enableEvents(stream);
             processEventStream(stream, duration);
+        } finally {
+            eventHandler.close();
         }
     }
 
@@ -60,6 +62,8 @@ public class JfrConnector {
             processEventStream(stream, duration);
         } catch (IOException e) {
             throw new JfrExporterException("Error while opening jfr repository: " + jfrRepositoryDir, e);
+        } finally {
+            eventHandler.close();
         }
 
     }
@@ -87,26 +91,38 @@ public class JfrConnector {
     }
 
     public Path findJfrRepository(int processId) {
-        checkVirtualMachineAttach();
-
         // see: https://openjdk.org/jeps/349
-        try {
-            VirtualMachine vm = VirtualMachine.attach(String.valueOf(processId));
+        String jfrRepositoryDir = systemProperties(String.valueOf(processId)).getProperty("jdk.jfr.repository");
 
-            Properties systemProperties = vm.getSystemProperties();
-            String jfrRepositoryDir = (String) systemProperties.get("jdk.jfr.repository");
+        if (jfrRepositoryDir == null) {
+            throw new JfrExporterException("Cannot find 'jdk.jfr.repository' property in remote jvm using processId: " + processId +
+                    ". Please make sure you are using a JDK with JEP 349 (JDK 14+) or later and use '-XX:StartFlightRecording'.");
+        }
+        return Path.of(jfrRepositoryDir);
+    }
 
-            if (jfrRepositoryDir == null) {
-                throw new JfrExporterException("Cannot find 'jdk.jfr.repository' property in remote jvm using processId: " + processId +
-                        ". Please make sure you are using a JDK with JEP 349 (JDK 14+) or later and use '-XX:StartFlightRecording'.");
-            }
-            return Path.of(jfrRepositoryDir);
+    static Properties systemProperties(String processId) {
+        checkVirtualMachineAttach();
 
+        VirtualMachine vm;
+        try {
+            vm = VirtualMachine.attach(processId);
         } catch (AttachNotSupportedException e) {
             throw new JfrExporterException("Cannot attach to remote jvm using processId: " + processId, e);
         } catch (IOException e) {
             throw new JfrExporterException("Issues connecting to remote jvm using processId: " + processId, e);
         }
+        try {
+            return vm.getSystemProperties();
+        } catch (IOException e) {
+            throw new JfrExporterException("Issues connecting to remote jvm using processId: " + processId, e);
+        } finally {
+            try {
+                vm.detach();
+            } catch (IOException e) {
+                log.debug("Cannot detach from remote jvm using processId %s: %s", processId, e.getMessage());
+            }
+        }
     }
 
     private static void checkVirtualMachineAttach() {
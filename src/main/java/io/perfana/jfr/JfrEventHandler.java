@@ -15,12 +15,20 @@
  */
 package io.perfana.jfr;
 
+import io.perfana.jfr.event.OnRecordingStream;
+import io.perfana.jfr.event.OnStreamClose;
 import jdk.jfr.EventSettings;
 import jdk.jfr.consumer.EventStream;
 import jdk.jfr.consumer.RecordedEvent;
 import jdk.jfr.consumer.RecordingStream;
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class JfrEventHandler {
 
@@ -28,13 +36,34 @@ public class JfrEventHandler {
 
     private final ConcurrentHashMap<String, JfrEventSettings> events = new ConcurrentHashMap<>();
 
+    private final List<OnRecordingStream> recordingStreamListeners = new CopyOnWriteArrayList<>();
+
+    private final List<OnStreamClose> streamCloseListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private volatile RecordingStream recordingStream;
+
+    private volatile long scaleFactor = 1;
+
     public void register(JfrEventSettings jfrEventSettings) {
         events.put(jfrEventSettings.getName(), jfrEventSettings);
     }
 
+    public void registerRecordingStreamListener(OnRecordingStream listener) {
+        recordingStreamListeners.add(listener);
+    }
+
+    public void registerStreamCloseListener(OnStreamClose listener) {
+        streamCloseListeners.add(listener);
+    }
+
     void handle(String eventName, RecordedEvent event) {
         JfrEventSettings jfrEventSettings = events.get(eventName);
-        if (jfrEventSettings != null) {
+        if (jfrEventSettings != null && !jfrEventSettings.isEnabled()) {
+            log.trace("Skip handle event: event %s is disabled", eventName);
+        }
+        else if (jfrEventSettings != null) {
             try {
                 jfrEventSettings.getOnJfrEvent().onEvent(event);
             } catch (Throwable e) {
@@ -52,28 +81,96 @@ public class JfrEventHandler {
             log.debug("Subscribe to event %s", name);
             stream.onEvent(name, event -> handle(name, event)) ;
         }
+        stream.onClose(this::close);
+    }
+
+    /**
+     * Tells the stream close listeners that no more events follow, only the first call has effect.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        for (OnStreamClose listener : streamCloseListeners) {
+            try {
+                listener.onStreamClose();
+            } catch (Exception e) {
+                log.error("Error closing %s: %s", listener.getClass().getSimpleName(), e.getMessage());
+            }
+        }
     }
 
     public void enableEvents(RecordingStream stream) {
+        this.recordingStream = stream;
+        updateSettings(stream, 1);
+        for (OnRecordingStream listener : recordingStreamListeners) {
+            listener.onRecordingStream(stream);
+        }
+    }
+
+    /**
+     * Enables the events with the registered period and threshold multiplied by scaleFactor.
+     * Can also be called on a running stream to change the settings.
+     */
+    public synchronized void updateSettings(RecordingStream stream, long scaleFactor) {
+        this.scaleFactor = scaleFactor;
         for (JfrEventSettings jfrEventSettings : events.values()) {
+            applySettings(stream, jfrEventSettings, scaleFactor);
+        }
+    }
 
-            EventSettings settings = stream.enable(jfrEventSettings.getName());
+    /**
+     * Replaces the settings of a registered event. The new settings are used for the next event that
+     * is handled, and applied to the running recording stream of the local JVM.
+     * For a remote JVM, only disabling an event has effect: its events are skipped.
+     */
+    public synchronized void reconfigure(JfrEventSettings newSettings) {
+        String name = newSettings.getName();
+        if (!events.containsKey(name)) {
+            throw new IllegalArgumentException("Event is not registered: " + name);
+        }
+        events.put(name, newSettings);
+        log.info("Reconfigured %s", newSettings);
 
-            StringBuilder debugInfo = new StringBuilder(512);
-            if (jfrEventSettings.hasPeriod()) {
-                settings.withPeriod(jfrEventSettings.getPeriod());
-                debugInfo.append(" with period ").append(jfrEventSettings.getPeriod());
-            }
-            if (jfrEventSettings.hasThreshold()) {
-                settings.withThreshold(jfrEventSettings.getThreshold());
-                debugInfo.append(" with threshold ").append(jfrEventSettings.getThreshold());
-            }
-            if (jfrEventSettings.hasOtherThreshold()) {
-                ThresholdPair otherThreshold = jfrEventSettings.getOtherThreshold();
-                settings.with(otherThreshold.name(), otherThreshold.value());
-                debugInfo.append(" with ").append(otherThreshold.name()).append(" ").append(otherThreshold.value());
-            }
-            log.debug("Enable event %s%s", jfrEventSettings.getName(), debugInfo.toString());
+        RecordingStream stream = recordingStream;
+        if (stream != null) {
+            applySettings(stream, newSettings, scaleFactor);
+        }
+    }
+
+    public JfrEventSettings getSettings(String name) {
+        return events.get(name);
+    }
+
+    public Set<String> getEventNames() {
+        return new TreeSet<>(events.keySet());
+    }
+
+    private static void applySettings(RecordingStream stream, JfrEventSettings jfrEventSettings, long scaleFactor) {
+        if (!jfrEventSettings.isEnabled()) {
+            stream.disable(jfrEventSettings.getName());
+            log.debug("Disable event %s", jfrEventSettings.getName());
+            return;
+        }
+
+        EventSettings settings = stream.enable(jfrEventSettings.getName());
+
+        StringBuilder debugInfo = new StringBuilder(512);
+        if (jfrEventSettings.hasPeriod()) {
+            Duration period = jfrEventSettings.getPeriod().multipliedBy(scaleFactor);
+            settings.withPeriod(period);
+            debugInfo.append(" with period ").append(period);
+        }
+        if (jfrEventSettings.hasThreshold()) {
+            Duration threshold = jfrEventSettings.getThreshold().multipliedBy(scaleFactor);
+            settings.withThreshold(threshold);
+            debugInfo.append(" with threshold ").append(threshold);
+        }
+        if (jfrEventSettings.hasOtherThreshold()) {
+            ThresholdPair otherThreshold = jfrEventSettings.getOtherThreshold();
+            settings.with(otherThreshold.name(), otherThreshold.value());
+            debugInfo.append(" with ").append(otherThreshold.name()).append(" ").append(otherThreshold.value());
         }
+        log.debug("Enable event %s%s", jfrEventSettings.getName(), debugInfo.toString());
     }
 }
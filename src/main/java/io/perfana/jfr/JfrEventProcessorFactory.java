@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+/**
+ * Service provider interface to add event processors (sinks) without changing the exporter.
+ * <p>
+ * Implementations are found with {@link java.util.ServiceLoader} via
+ * {@code META-INF/services/io.perfana.jfr.JfrEventProcessorFactory} and selected by name.
+ */
+public interface JfrEventProcessorFactory {
+
+    /**
+     * Unique name, used to select the processor.
+     */
+    String name();
+
+    JfrEventProcessor create(Arguments arguments);
+}
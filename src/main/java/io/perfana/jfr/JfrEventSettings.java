@@ -31,6 +31,10 @@ public class JfrEventSettings {
 
     private ThresholdPair otherThreshold;
 
+    private boolean enabled = true;
+
+    private boolean scaledByProfile = true;
+
     private JfrEventSettings(String name, OnJfrEvent onJfrEvent) {
         this.name = name;
         this.onJfrEvent = onJfrEvent;
@@ -55,6 +59,33 @@ public class JfrEventSettings {
         return this;
     }
 
+    public JfrEventSettings withEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    /**
+     * Settings that come from explicit options or mappings are not scaled by the profile:
+     * their defaults are already set by the profile in {@link Arguments}.
+     */
+    public JfrEventSettings withScaledByProfile(boolean scaledByProfile) {
+        this.scaledByProfile = scaledByProfile;
+        return this;
+    }
+
+    /**
+     * A copy to change, so settings that are in use are never changed.
+     */
+    public JfrEventSettings copy() {
+        JfrEventSettings copy = new JfrEventSettings(name, onJfrEvent);
+        copy.period = period;
+        copy.threshold = threshold;
+        copy.otherThreshold = otherThreshold;
+        copy.enabled = enabled;
+        copy.scaledByProfile = scaledByProfile;
+        return copy;
+    }
+
     public String getName() {
         return name;
     }
@@ -86,4 +117,24 @@ public class JfrEventSettings {
         return threshold;
     }
 
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isScaledByProfile() {
+        return scaledByProfile;
+    }
+
+    @Override
+    public String toString() {
+        return "JfrEventSettings{" +
+                "name='" + name + '\'' +
+                ", period=" + period +
+                ", threshold=" + threshold +
+                ", otherThreshold=" + otherThreshold +
+                ", enabled=" + enabled +
+                ", scaledByProfile=" + scaledByProfile +
+                '}';
+    }
+
 }
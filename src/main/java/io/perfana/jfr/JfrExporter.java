@@ -15,14 +15,18 @@
  */
 package io.perfana.jfr;
 
-import io.perfana.jfr.event.*;
-import io.perfana.jfr.influx.InfluxEventProcessor;
-import io.perfana.jfr.influx.InfluxWriter;
+import io.perfana.jfr.event.JfrEventProvider;
+import io.perfana.jfr.event.JfrEventProviderFactory;
+import io.perfana.jfr.event.OnRecordingStream;
+import io.perfana.jfr.event.OnStreamClose;
+import io.perfana.jfr.influx.InfluxImporter;
 import io.perfana.jfr.influx.InfluxWriterConfig;
-import io.perfana.jfr.influx.InfluxWriterNative;
-import org.jetbrains.annotations.NotNull;
 
+import javax.annotation.Nonnull;
 import java.lang.instrument.Instrumentation;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -33,6 +37,11 @@ public class JfrExporter {
 
     public static void main(String[] args) {
 
+        if (args.length > 0 && "import".equals(args[0])) {
+            importFiles(Arguments.parseArgs(Arrays.copyOfRange(args, 1, args.length)));
+            return;
+        }
+
         Arguments arguments = Arguments.parseArgs(args);
 
         if (arguments.isDebug()) {
@@ -54,55 +63,113 @@ public class JfrExporter {
 
         JfrEventHandler eventHandler = new JfrEventHandler();
 
-        JfrEventProcessor eventProcessor = args.getInfluxUrl() == null
-                ? new NoopEventProcessor()
-                : createInfluxEventProcessor(args);
-
-            try {
-                CpuLoadEvent cpuLoadEvent = new CpuLoadEvent(eventProcessor);
-                cpuLoadEvent.getEventSettings().forEach(eventHandler::register);
+        JfrPlugins plugins = new JfrPlugins();
 
-                SafepointEvent safepointEvent = new SafepointEvent(eventProcessor);
-                safepointEvent.getEventSettings().forEach(eventHandler::register);
+        JfrEventProcessor eventProcessor = plugins.createEventProcessor(args);
 
-                ObjectAllocationSampleEvent objectAllocationSampleEvent =
-                        new ObjectAllocationSampleEvent(eventProcessor, args.getBigObjectSampleWeigthThresholdBytes());
-                objectAllocationSampleEvent.getEventSettings().forEach(eventHandler::register);
+        OverheadGovernor overheadGovernor = args.getOverheadBudget() == null
+                ? null
+                : new OverheadGovernor(eventHandler, eventProcessor, args.getOverheadBudget());
 
-                ObjectAllocationEvent objectAllocationEvent =
-                        new ObjectAllocationEvent(eventProcessor, args.getBigObjectThresholdBytes());
-                objectAllocationEvent.getEventSettings().forEach(eventHandler::register);
+        ExporterTelemetry telemetry = ExporterTelemetry.global();
 
-                GCHeapEvent gcHeapEvent = new GCHeapEvent(eventProcessor);
-                gcHeapEvent.getEventSettings().forEach(eventHandler::register);
+        JfrEventProcessor providerEventProcessor = telemetry.countEvents(overheadGovernor == null
+                ? eventProcessor
+                : overheadGovernor.wrap(eventProcessor));
 
-                JavaStatisticsEvent javaStatisticsEvent = new JavaStatisticsEvent(eventProcessor);
-                javaStatisticsEvent.getEventSettings().forEach(eventHandler::register);
+        EventSettingsControl eventSettingsControl = new EventSettingsControl(eventHandler);
 
-                MonitorEvent monitorEvent = new MonitorEvent(eventProcessor);
-                monitorEvent.getEventSettings().forEach(eventHandler::register);
+            try {
+                List<JfrEventProviderFactory> factories = plugins.enabledProviderFactories(args);
 
-                SocketEvent socketEvent = new SocketEvent(eventProcessor);
-                socketEvent.getEventSettings().forEach(eventHandler::register);
+                // recording files and discovered JVMs have an event handler per recording or JVM
+                boolean singleStream = args.getJfrFiles() == null && !args.isDiscoverJvms();
+                if (singleStream) {
+                    registerProviders(factories, eventHandler, providerEventProcessor, args);
+                }
 
-                NativeMemoryEvent nativeMemoryEvent = new NativeMemoryEvent(eventProcessor);
-                nativeMemoryEvent.getEventSettings().forEach(eventHandler::register);
+                if (overheadGovernor != null) {
+                    if (!singleStream) {
+                        log.info("Overhead budget only drops stack traces, periods and thresholds of recording files and other JVMs cannot be changed");
+                    }
+                    eventHandler.registerRecordingStreamListener(overheadGovernor);
+                    overheadGovernor.start();
+                }
 
-                ContainerEvent containerEvent = new ContainerEvent(eventProcessor);
-                containerEvent.getEventSettings().forEach(eventHandler::register);
+                if (singleStream) {
+                    eventSettingsControl.registerMBean();
+                    if (args.getEventSettingsFile() != null) {
+                        eventSettingsControl.watchFile(args.getEventSettingsFile(), Duration.ofSeconds(5));
+                    }
+                } else {
+                    log.info("Runtime event settings are disabled for recording files and discovered JVMs%s",
+                            args.getEventSettingsFile() == null ? "" : ", ignoring " + args.getEventSettingsFile());
+                }
+                telemetry.registerMBean();
+                telemetry.start(eventProcessor);
 
                 JfrConnector jfrConnector = new JfrConnector(eventHandler);
 
-                if (args.getProcessId() == null) {
+                if (args.getJfrFiles() != null) {
+                    // each recording gets its own providers, they keep state between events
+                    new JfrFileReader(() -> newEventHandler(factories, providerEventProcessor, args)).read(args.getJfrFiles());
+                } else if (args.isDiscoverJvms()) {
+                    discoverJvms(factories, providerEventProcessor, args);
+                } else if (args.getProcessId() == null) {
                     jfrConnector.connectInternalJVM(args.getDuration());
                 } else {
                     jfrConnector.connectRemoteJvm(args.getProcessId(), args.getDuration());
                 }
             } finally {
+                eventSettingsControl.close();
+                telemetry.close();
+                if (overheadGovernor != null) {
+                    overheadGovernor.close();
+                }
                 autoClose(eventProcessor);
             }
         }
 
+    private static void registerProviders(List<JfrEventProviderFactory> factories, JfrEventHandler eventHandler, JfrEventProcessor eventProcessor, Arguments args) {
+        for (JfrEventProviderFactory factory : factories) {
+            JfrEventProvider provider = factory.create(eventProcessor, args);
+            provider.getEventSettings().forEach(settings -> eventHandler.register(args.getProfile().scale(settings)));
+            if (provider instanceof OnRecordingStream onRecordingStream) {
+                eventHandler.registerRecordingStreamListener(onRecordingStream);
+            }
+            if (provider instanceof OnStreamClose onStreamClose) {
+                eventHandler.registerStreamCloseListener(onStreamClose);
+            }
+        }
+    }
+
+    private static JfrEventHandler newEventHandler(List<JfrEventProviderFactory> factories, JfrEventProcessor eventProcessor, Arguments args) {
+        JfrEventHandler eventHandler = new JfrEventHandler();
+        registerProviders(factories, eventHandler, eventProcessor, args);
+        return eventHandler;
+    }
+
+    private static void discoverJvms(List<JfrEventProviderFactory> factories, JfrEventProcessor eventProcessor, Arguments args) {
+        // each JVM gets its own providers, they keep state per event stream
+        try (JvmDiscovery jvmDiscovery = new JvmDiscovery(args.getDiscoverInclude(), args.getDiscoverExclude(),
+                tags -> newEventHandler(factories, JvmDiscovery.tagging(eventProcessor, tags), args))) {
+            jvmDiscovery.run(args.getDuration());
+        }
+    }
+
+    private static void importFiles(Arguments arguments) {
+        if (arguments.isDebug()) {
+            Logger.enabledDebug();
+        }
+        if (arguments.getInfluxUrl() == null) {
+            throw new JfrExporterException("The import command needs an influx url");
+        }
+        InfluxImporter.Result result = new InfluxImporter(InfluxWriterConfig.of(arguments)).importPath(arguments.getFileDirectory());
+        if (result.failedLines() > 0) {
+            System.exit(1);
+        }
+    }
+
     private static void autoClose(JfrEventProcessor eventProcessor) {
         try {
             if (eventProcessor instanceof AutoCloseable autoCloseable) {
@@ -113,19 +180,6 @@ public class JfrExporter {
         }
     }
 
-    private JfrEventProcessor createInfluxEventProcessor(Arguments args) {
-        InfluxWriterConfig config = new InfluxWriterConfig(
-                args.getInfluxUrl(),
-                args.getInfluxDatabase(),
-                args.getInfluxUser(),
-                args.getInfluxPassword(),
-                args.getInfluxRetentionPolicy(),
-                args.getTags(),
-                args.isEnableStackTraces());
-        InfluxWriter writer = new InfluxWriterNative(config);
-        return new InfluxEventProcessor(writer);
-    }
-
     public static void premain(String args, Instrumentation instrumentation){
         log.info("premain: %s", (args == null ? "<no args>" : args));
         JfrExporter jfrExporter = new JfrExporter();
@@ -143,7 +197,7 @@ public class JfrExporter {
         );
     }
 
-    @NotNull
+    @Nonnull
     static String[] splitAgentArgs(String args) {
         return args == null ? new String[]{} : args.split("[=,]");
     }
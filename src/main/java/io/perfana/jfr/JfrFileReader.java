@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads the events of JFR recording files, e.g. recordings that were dumped elsewhere, and hands them to the
+ * event providers as if they were streamed, so the events keep their original timestamps.
+ * <p>
+ * A directory is searched for {@code .jfr} files, e.g. a JFR repository with a file per chunk. The files in one
+ * directory are one recording: they are read in order of their start time on one thread, with their own event
+ * handler and providers, because providers keep state between events, e.g. to calculate rates. The recordings
+ * in different directories are read in parallel on a fork-join pool. Providers that report aggregates per
+ * interval, such as the exception throw sites, use the time of reading for these reports.
+ */
+public class JfrFileReader {
+
+    private static final Logger log = Logger.getLogger(JfrFileReader.class);
+
+    public static final String FILE_SUFFIX = ".jfr";
+
+    // chunk header: magic, version, chunk size, constant pool and metadata offsets, then the start time
+    private static final int chunkMagic = 0x464c5200;
+    private static final int chunkStartNanosOffset = 32;
+
+    private final Supplier<JfrEventHandler> eventHandlers;
+    private final int parallelism;
+
+    public record Result(int files, long events, int failedFiles) {}
+
+    private record FileResult(long events, int failedFiles) {}
+
+    /**
+     * @param eventHandlers creates an event handler, with its own providers, for each recording
+     */
+    public JfrFileReader(Supplier<JfrEventHandler> eventHandlers) {
+        this(eventHandlers, Runtime.getRuntime().availableProcessors());
+    }
+
+    JfrFileReader(Supplier<JfrEventHandler> eventHandlers, int parallelism) {
+        if (eventHandlers == null) throw new IllegalArgumentException("eventHandlers must not be null");
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        this.eventHandlers = eventHandlers;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param path a recording file, or a directory with recording files
+     */
+    public Result read(Path path) {
+        if (!Files.exists(path)) {
+            throw new JfrExporterException("Cannot find recording files: " + path);
+        }
+        List<Path> files = findFiles(path);
+        if (files.isEmpty()) {
+            throw new JfrExporterException("No recording files found in " + path);
+        }
+        Collection<List<Path>> recordings = recordings(files);
+        int threads = Math.min(parallelism, recordings.size());
+        log.info("Reading %d recording files of %d recordings from %s with %d threads", files.size(), recordings.size(), path, threads);
+
+        long startNanos = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads, JfrFileReader::newWorkerThread, null, false);
+        long events = 0;
+        int failedFiles = 0;
+        try {
+            List<ForkJoinTask<FileResult>> tasks = new ArrayList<>();
+            for (List<Path> recording : recordings) {
+                tasks.add(pool.submit(() -> readRecording(recording)));
+            }
+            for (ForkJoinTask<FileResult> task : tasks) {
+                FileResult recordingResult = task.join();
+                events += recordingResult.events();
+                failedFiles += recordingResult.failedFiles();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        double seconds = Math.max(1, System.nanoTime() - startNanos) / 1_000_000_000.0;
+        Result result = new Result(files.size(), events, failedFiles);
+        log.info("Read %d events from %d recording files in %.1f seconds (%.0f events/s), %d files failed",
+                events, files.size(), seconds, events / seconds, failedFiles);
+        return result;
+    }
+
+    private FileResult readRecording(List<Path> files) {
+        JfrEventHandler eventHandler = eventHandlers.get();
+        long events = 0;
+        int failedFiles = 0;
+        try {
+            for (Path file : files) {
+                long fileEvents = readFile(eventHandler, file);
+                if (fileEvents < 0) {
+                    failedFiles++;
+                } else {
+                    events += fileEvents;
+                }
+            }
+        } finally {
+            eventHandler.close();
+        }
+        return new FileResult(events, failedFiles);
+    }
+
+    /**
+     * @return the number of events read, or -1 when the file cannot be read
+     */
+    private static long readFile(JfrEventHandler eventHandler, Path file) {
+        log.debug("Reading %s", file);
+        long events = 0;
+        try (RecordingFile recording = new RecordingFile(file)) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                eventHandler.handle(event.getEventType().getName(), event);
+                events++;
+            }
+        } catch (IOException e) {
+            log.error("Cannot read recording file %s after %d events: (%s) %s", file, events, e.getClass().getSimpleName(), e.getMessage());
+            return events == 0 ? -1 : events;
+        }
+        return events;
+    }
+
+    static List<Path> findFiles(Path path) {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            return files
+                    .filter(file -> Files.isRegularFile(file) && file.getFileName().toString().endsWith(FILE_SUFFIX))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new JfrExporterException("Cannot list files in " + path, e);
+        }
+    }
+
+    /**
+     * The files grouped per directory, each group in order of start time.
+     */
+    static Collection<List<Path>> recordings(List<Path> files) {
+        Map<Path, List<Path>> recordings = files.stream()
+                .collect(Collectors.groupingBy(file -> Objects.requireNonNullElse(file.toAbsolutePath().getParent(), file),
+                        TreeMap::new, Collectors.toList()));
+        recordings.values().forEach(recording -> recording.sort(Comparator
+                .comparingLong(JfrFileReader::startNanos)
+                .thenComparing(Comparator.naturalOrder())));
+        return recordings.values();
+    }
+
+    /**
+     * @return the start time of the first chunk in the file, or Long.MAX_VALUE when it cannot be read
+     */
+    static long startNanos(Path file) {
+        try (InputStream in = Files.newInputStream(file); DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != chunkMagic) {
+                return Long.MAX_VALUE;
+            }
+            data.skipNBytes(chunkStartNanosOffset - Integer.BYTES);
+            return data.readLong();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static ForkJoinWorkerThread newWorkerThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("jfr-exporter-reader-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import io.perfana.jfr.event.JfrEventProviderFactory;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the event provider and event processor factories with {@link ServiceLoader}.
+ * Only the factories are instantiated here, providers are created for the enabled factories only.
+ */
+public class JfrPlugins {
+
+    private static final Logger log = Logger.getLogger(JfrPlugins.class);
+
+    private final ClassLoader classLoader;
+
+    public JfrPlugins() {
+        this(JfrPlugins.class.getClassLoader());
+    }
+
+    public JfrPlugins(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * The enabled provider factories, in registration order.
+     * Explicitly enabled or disabled names take precedence over the profile and the default of the factory,
+     * but a provider enabled by name still needs the options it requires.
+     */
+    public List<JfrEventProviderFactory> enabledProviderFactories(Arguments arguments) {
+        Map<String, JfrEventProviderFactory> factories = new HashMap<>();
+        ServiceLoader.load(JfrEventProviderFactory.class, classLoader).stream()
+                .map(ServiceLoader.Provider::get)
+                .forEach(factory -> {
+                    JfrEventProviderFactory existing = factories.putIfAbsent(factory.name(), factory);
+                    if (existing != null) {
+                        log.error("Duplicate event provider name '%s', ignoring %s", factory.name(), factory.getClass().getName());
+                    }
+                });
+
+        warnUnknownNames(arguments.getEnabledProviders(), factories.keySet());
+        warnUnknownNames(arguments.getDisabledProviders(), factories.keySet());
+
+        List<JfrEventProviderFactory> enabled = factories.values().stream()
+                .filter(factory -> isEnabled(factory, arguments))
+                .sorted(Comparator.comparingInt(JfrEventProviderFactory::order).thenComparing(JfrEventProviderFactory::name))
+                .toList();
+
+        log.info("Enabled event providers: %s", enabled.stream().map(JfrEventProviderFactory::name).collect(Collectors.joining(", ")));
+        return enabled;
+    }
+
+    private static boolean isEnabled(JfrEventProviderFactory factory, Arguments arguments) {
+        if (arguments.getEnabledProviders().contains(factory.name())) {
+            if (!factory.isEnabled(arguments)) {
+                throw new JfrExporterException("Event provider '" + factory.name() + "' is enabled, but needs "
+                        + (factory.requiredOption() == null ? "options that are missing" : "option " + factory.requiredOption()));
+            }
+            return true;
+        }
+        if (arguments.getDisabledProviders().contains(factory.name())) {
+            return false;
+        }
+        return factory.isEnabled(arguments);
+    }
+
+    private static void warnUnknownNames(Set<String> names, Set<String> knownNames) {
+        for (String name : names) {
+            if (!knownNames.contains(name)) {
+                log.error("Unknown event provider '%s', known providers: %s", name, new TreeSet<>(knownNames));
+            }
+        }
+    }
+
+    /**
+     * Creates the selected event processor. Without a selection, influx is used when an influx url is set.
+     * When more than one event processor is selected, they are combined in a {@link FanOutEventProcessor}.
+     */
+    public JfrEventProcessor createEventProcessor(Arguments arguments) {
+        List<String> names = arguments.getEventProcessors();
+        if (names.isEmpty()) {
+            names = List.of(arguments.getInfluxUrl() == null ? NoopEventProcessor.NAME : "influx");
+        }
+
+        Map<String, JfrEventProcessorFactory> factories = new TreeMap<>();
+        ServiceLoader.load(JfrEventProcessorFactory.class, classLoader).stream()
+                .map(ServiceLoader.Provider::get)
+                .forEach(factory -> factories.putIfAbsent(factory.name(), factory));
+        for (String name : names) {
+            if (!factories.containsKey(name)) {
+                throw new JfrExporterException("Unknown event processor '" + name + "', known event processors: " + factories.keySet());
+            }
+        }
+
+        log.info("Using event processors: %s", String.join(", ", names));
+        if (names.size() == 1) {
+            return factories.get(names.get(0)).create(arguments);
+        }
+
+        Map<String, JfrEventProcessor> processors = new LinkedHashMap<>();
+        try {
+            for (String name : names) {
+                processors.put(name, factories.get(name).create(arguments));
+            }
+        } catch (RuntimeException e) {
+            processors.values().forEach(JfrPlugins::closeQuietly);
+            throw e;
+        }
+        return new FanOutEventProcessor(processors);
+    }
+
+    private static void closeQuietly(JfrEventProcessor processor) {
+        if (processor instanceof AutoCloseable autoCloseable) {
+            try {
+                autoCloseable.close();
+            } catch (Exception e) {
+                log.error("Error closing event processor: %s", e.getMessage());
+            }
+        }
+    }
+}
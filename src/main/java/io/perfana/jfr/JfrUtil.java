@@ -17,11 +17,11 @@ package io.perfana.jfr;
 
 import jdk.jfr.consumer.RecordedEvent;
 import jdk.jfr.consumer.RecordedThread;
-import org.jetbrains.annotations.NotNull;
 
+import javax.annotation.Nonnull;
 import javax.management.*;
 import java.lang.management.ManagementFactory;
-import java.util.List;
+import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -70,13 +70,69 @@ public class JfrUtil {
         return remainder.substring(1, end);
     }
 
-    @NotNull
+    @Nonnull
     public static List<String> translateStacktrace(RecordedEvent event) {
         return  event.getStackTrace().getFrames().stream()
                 .map(f -> f.getMethod().getType().getName() + "." + f.getMethod().getName() + " (line: " + f.getLineNumber() + ")")
                 .toList();
     }
 
+    /**
+     * Replace each run of digits with a single 'N', e.g. "pool-3-thread-17" becomes "pool-N-thread-N".
+     * Use to keep the cardinality of tag values bounded.
+     */
+    public static String replaceDigits(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder result = null;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (result == null) {
+                    result = new StringBuilder(length).append(text, 0, i);
+                }
+                result.append('N');
+                while (i + 1 < length && text.charAt(i + 1) >= '0' && text.charAt(i + 1) <= '9') {
+                    i++;
+                }
+            }
+            else if (result != null) {
+                result.append(c);
+            }
+        }
+        return result == null ? text : result.toString();
+    }
+
+    /**
+     * Select the n largest items according to the comparator, largest first.
+     * Uses a heap of at most n + 1 items, independent of the number of items.
+     */
+    public static <T> List<T> topN(Iterable<T> items, int n, Comparator<T> comparator) {
+        if (n <= 0) {
+            return List.of();
+        }
+        PriorityQueue<T> heap = new PriorityQueue<>(n + 1, comparator);
+        for (T item : items) {
+            heap.add(item);
+            if (heap.size() > n) {
+                heap.poll();
+            }
+        }
+        List<T> top = new ArrayList<>(heap);
+        top.sort(comparator.reversed());
+        return top;
+    }
+
+    /**
+     * True for a field with the duration of a single event, such as "duration-ms", which sinks can put in a histogram.
+     * Totals and maximums of a reporting interval, "duration-ms-total" and "duration-ms-max", are not.
+     */
+    public static boolean isSingleEventDuration(String field) {
+        return field.startsWith("duration") && !field.endsWith("-total") && !field.endsWith("-max");
+    }
+
     public static String nullSafeGetThreadJavaName(RecordedEvent event) {
         RecordedThread thread = event.getThread();
         return thread == null ? THREAD_NULL_NAME : thread.getJavaName();
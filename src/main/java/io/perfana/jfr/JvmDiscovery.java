@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import com.sun.tools.attach.VirtualMachine;
+import jdk.jfr.consumer.EventStream;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Monitors all JVMs on the host that match the include and exclude patterns, instead of one process id.
+ * <p>
+ * Every 10 seconds the JVMs are listed with the attach API. For each new JVM the JFR repository is streamed
+ * with its own event providers, and the events are tagged with the {@code pid} and {@code mainClass} of the JVM,
+ * and the tags in its {@value #TAGS_PROPERTY} system property, e.g. {@code -Djfr.exporter.tags=service/afterburner}.
+ * The streams run on a shared thread pool and send to the same event processor. JVMs that exited are released.
+ * <p>
+ * The patterns are matched against the process id and the display name, the main class or jar and the arguments.
+ * JVMs that cannot be connected, e.g. not started with {@code -XX:StartFlightRecording} or still starting up,
+ * are retried with a backoff from 10 seconds up to 5 minutes.
+ */
+public class JvmDiscovery implements AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(JvmDiscovery.class);
+
+    public static final String TAGS_PROPERTY = "jfr.exporter.tags";
+
+    private static final Duration discoverInterval = Duration.ofSeconds(10);
+    private static final long maxRetryBackoffMs = Duration.ofMinutes(5).toMillis();
+
+    private record Retry(long retryAtMs, long backoffMs) {}
+
+    record Jvm(String pid, String displayName) {
+        /**
+         * @return the main class or jar file name, the first word of the display name
+         */
+        String mainClass() {
+            String name = displayName == null ? "" : displayName.trim();
+            int space = name.indexOf(' ');
+            String main = space < 0 ? name : name.substring(0, space);
+            if (main.endsWith(".jar")) {
+                main = Path.of(main).getFileName().toString();
+            }
+            return main.isEmpty() ? "unknown" : main;
+        }
+    }
+
+    private final Supplier<List<Jvm>> jvmLister;
+    private final Function<Jvm, AutoCloseable> jvmConnector;
+    private final LongSupplier clock;
+    private final Pattern include;
+    private final Pattern exclude;
+    private final String ownPid = String.valueOf(ProcessHandle.current().pid());
+
+    private final Map<String, AutoCloseable> targets = new TreeMap<>();
+    private final Map<String, Retry> skipped = new HashMap<>();
+
+    private final ExecutorService streamExecutor;
+
+    /**
+     * @param include pattern to find in the JVM description, or null for all JVMs
+     * @param exclude pattern to find in the JVM description, or null to exclude none
+     * @param eventHandlers creates the event handler, with its providers, for the tags of a discovered JVM
+     */
+    public JvmDiscovery(Pattern include, Pattern exclude, Function<Map<String, String>, JfrEventHandler> eventHandlers) {
+        this.include = include;
+        this.exclude = exclude;
+        this.jvmLister = JvmDiscovery::listJvms;
+        this.clock = System::currentTimeMillis;
+        this.streamExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "jfr-exporter-jvm");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.jvmConnector = jvm -> connect(jvm, eventHandlers);
+    }
+
+    JvmDiscovery(Pattern include, Pattern exclude, Supplier<List<Jvm>> jvmLister, Function<Jvm, AutoCloseable> jvmConnector, LongSupplier clock) {
+        this.include = include;
+        this.exclude = exclude;
+        this.jvmLister = jvmLister;
+        this.jvmConnector = jvmConnector;
+        this.clock = clock;
+        this.streamExecutor = null;
+    }
+
+    public void run(Duration duration) {
+        long endTimestamp = duration == null
+                ? Long.MAX_VALUE
+                : System.currentTimeMillis() + duration.toMillis();
+        log.info("Discover JVMs every %d seconds for %s seconds", discoverInterval.toSeconds(), duration == null ? "unlimited" : duration.getSeconds());
+
+        long nextDiscover = 0;
+        while (System.currentTimeMillis() < endTimestamp && !Thread.currentThread().isInterrupted()) {
+            if (System.currentTimeMillis() >= nextDiscover) {
+                discover();
+                nextDiscover = System.currentTimeMillis() + discoverInterval.toMillis();
+            }
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    synchronized void discover() {
+        Set<String> running = new HashSet<>();
+        for (Jvm jvm : jvmLister.get()) {
+            if (jvm.pid().equals(ownPid) || !matches(jvm)) {
+                continue;
+            }
+            running.add(jvm.pid());
+            Retry retry = skipped.get(jvm.pid());
+            if (targets.containsKey(jvm.pid()) || (retry != null && clock.getAsLong() < retry.retryAtMs())) {
+                continue;
+            }
+            try {
+                targets.put(jvm.pid(), jvmConnector.apply(jvm));
+                skipped.remove(jvm.pid());
+                log.info("Monitor JVM %s: %s", jvm.pid(), jvm.displayName());
+            } catch (RuntimeException e) {
+                // e.g. the attach listener or JFR is not started yet, retry later
+                long backoffMs = retry == null ? discoverInterval.toMillis() : Math.min(retry.backoffMs() * 2, maxRetryBackoffMs);
+                skipped.put(jvm.pid(), new Retry(clock.getAsLong() + backoffMs, backoffMs));
+                if (retry == null) {
+                    log.info("Skip JVM %s (%s) for %d seconds: %s", jvm.pid(), jvm.mainClass(), backoffMs / 1000, e.getMessage());
+                } else {
+                    log.debug("Skip JVM %s (%s) for %d seconds: %s", jvm.pid(), jvm.mainClass(), backoffMs / 1000, e.getMessage());
+                }
+            }
+        }
+
+        Iterator<Map.Entry<String, AutoCloseable>> iterator = targets.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, AutoCloseable> target = iterator.next();
+            if (!running.contains(target.getKey())) {
+                log.info("Release JVM %s, it is no longer running", target.getKey());
+                closeQuietly(target.getKey(), target.getValue());
+                iterator.remove();
+            }
+        }
+        skipped.keySet().retainAll(running);
+    }
+
+    boolean matches(Jvm jvm) {
+        String description = jvm.pid() + " " + jvm.displayName();
+        return (include == null || include.matcher(description).find())
+                && (exclude == null || !exclude.matcher(description).find());
+    }
+
+    synchronized Set<String> getTargets() {
+        return new TreeSet<>(targets.keySet());
+    }
+
+    private AutoCloseable connect(Jvm jvm, Function<Map<String, String>, JfrEventHandler> eventHandlers) {
+        Properties systemProperties = JfrConnector.systemProperties(jvm.pid());
+        String repository = systemProperties.getProperty("jdk.jfr.repository");
+        if (repository == null) {
+            throw new JfrExporterException("no JFR repository, start the JVM with -XX:StartFlightRecording");
+        }
+
+        Map<String, String> tags = new HashMap<>(Arguments.parseTags(systemProperties.getProperty(TAGS_PROPERTY, "")));
+        tags.put("pid", jvm.pid());
+        tags.put("mainClass", jvm.mainClass());
+        JfrEventHandler eventHandler = eventHandlers.apply(Collections.unmodifiableMap(tags));
+
+        EventStream stream;
+        try {
+            stream = EventStream.openRepository(Path.of(repository));
+        } catch (IOException e) {
+            throw new JfrExporterException("cannot open JFR repository " + repository, e);
+        }
+        eventHandler.subscribe(stream);
+        streamExecutor.execute(() -> {
+            Thread.currentThread().setName("jfr-exporter-jvm-" + jvm.pid());
+            try {
+                stream.start();
+            } catch (Exception e) {
+                log.debug("Event stream of JVM %s stopped: %s", jvm.pid(), e.getMessage());
+            } finally {
+                Thread.currentThread().setName("jfr-exporter-jvm");
+            }
+        });
+        return () -> {
+            stream.close();
+            // report what the providers have left, also when the stream did not run its close actions yet
+            eventHandler.close();
+        };
+    }
+
+    /**
+     * Adds the tags of a JVM to its events, the tags of the event itself take precedence.
+     */
+    public static JfrEventProcessor tagging(JfrEventProcessor processor, Map<String, String> tags) {
+        return event -> {
+            Map<String, String> eventTags = new HashMap<>(tags);
+            eventTags.putAll(event.tags());
+            processor.processEvent(new ProcessedJfrEvent(event.timestamp(), event.measurementName(), eventTags,
+                    event.field(), event.value(), event.extraFields(), event.stacktrace()));
+        };
+    }
+
+    private static List<Jvm> listJvms() {
+        return VirtualMachine.list().stream()
+                .map(descriptor -> new Jvm(descriptor.id(), descriptor.displayName()))
+                .toList();
+    }
+
+    private static void closeQuietly(String pid, AutoCloseable target) {
+        try {
+            target.close();
+        } catch (Exception e) {
+            log.debug("Error closing event stream of JVM %s: %s", pid, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        targets.forEach(JvmDiscovery::closeQuietly);
+        targets.clear();
+        if (streamExecutor != null) {
+            streamExecutor.shutdownNow();
+        }
+    }
+}
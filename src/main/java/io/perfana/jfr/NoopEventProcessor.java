@@ -19,8 +19,22 @@ public class NoopEventProcessor implements JfrEventProcessor {
 
     private static final Logger log = Logger.getLogger(NoopEventProcessor.class);
 
+    public static final String NAME = "noop";
+
     @Override
     public void processEvent(ProcessedJfrEvent event) {
         log.info("Received JFR event: %s", event);
     }
+
+    public static class Factory implements JfrEventProcessorFactory {
+        @Override
+        public String name() {
+            return NAME;
+        }
+
+        @Override
+        public JfrEventProcessor create(Arguments arguments) {
+            return new NoopEventProcessor();
+        }
+    }
 }
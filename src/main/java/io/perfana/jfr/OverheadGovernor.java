@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import io.perfana.jfr.event.OnRecordingStream;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the CPU usage of the exporter within a budget.
+ * <p>
+ * Measures the CPU time and allocations of the exporter threads and the JFR event stream threads.
+ * When the CPU usage is over budget, the level goes up: stack traces are dropped and the periods and
+ * thresholds of the events are doubled per level. When the CPU usage is below half the budget, the level goes down.
+ * Periods and thresholds can only be changed for the local JVM.
+ */
+public class OverheadGovernor implements OnRecordingStream, AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(OverheadGovernor.class);
+
+    private static final List<String> threadNamePrefixes = List.of("jfr-exporter", "JFR Event Stream");
+    private static final int maxLevel = 3;
+    private static final Duration checkInterval = Duration.ofSeconds(10);
+
+    private final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final JfrEventHandler eventHandler;
+    private final JfrEventProcessor eventProcessor;
+    private final double budgetCores;
+
+    private final AtomicInteger level = new AtomicInteger(0);
+    private final Map<Long, ThreadUsage> previousUsage = new HashMap<>();
+    private long previousCheckNs = System.nanoTime();
+
+    private volatile RecordingStream stream;
+    private ScheduledExecutorService executor;
+
+    private record ThreadUsage(long cpuTimeNs, long allocatedBytes) {}
+
+    public OverheadGovernor(JfrEventHandler eventHandler, JfrEventProcessor eventProcessor, double budgetCores) {
+        if (eventHandler == null) throw new IllegalArgumentException("eventHandler must not be null");
+        if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
+        if (budgetCores <= 0) throw new IllegalArgumentException("budgetCores must be positive: " + budgetCores);
+        this.eventHandler = eventHandler;
+        this.eventProcessor = eventProcessor;
+        this.budgetCores = budgetCores;
+    }
+
+    /**
+     * Wraps the event processor to drop the stack traces when over budget.
+     */
+    public JfrEventProcessor wrap(JfrEventProcessor processor) {
+        return event -> {
+            if (level.get() > 0 && !event.stacktrace().isEmpty()) {
+                processor.processEvent(new ProcessedJfrEvent(event.timestamp(), event.measurementName(), event.tags(),
+                        event.field(), event.value(), event.extraFields(), List.of()));
+            } else {
+                processor.processEvent(event);
+            }
+        };
+    }
+
+    public synchronized void start() {
+        if (!threadMXBean.isThreadCpuTimeSupported()) {
+            log.error("Thread CPU time is not supported, overhead budget is not used");
+            return;
+        }
+        if (!threadMXBean.isThreadCpuTimeEnabled()) {
+            threadMXBean.setThreadCpuTimeEnabled(true);
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("jfr-exporter-governor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMs = checkInterval.toMillis();
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                check();
+            } catch (Exception e) {
+                log.error("Cannot check overhead: %s", e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onRecordingStream(RecordingStream stream) {
+        this.stream = stream;
+    }
+
+    private void check() {
+        long nowNs = System.nanoTime();
+        double seconds = (nowNs - previousCheckNs) / 1_000_000_000.0;
+        previousCheckNs = nowNs;
+
+        long cpuTimeNs = 0;
+        long allocatedBytes = 0;
+        Map<Long, ThreadUsage> currentUsage = measureExporterThreads();
+        for (Map.Entry<Long, ThreadUsage> entry : currentUsage.entrySet()) {
+            ThreadUsage previous = previousUsage.getOrDefault(entry.getKey(), new ThreadUsage(0, 0));
+            cpuTimeNs += Math.max(0, entry.getValue().cpuTimeNs() - previous.cpuTimeNs());
+            allocatedBytes += Math.max(0, entry.getValue().allocatedBytes() - previous.allocatedBytes());
+        }
+        previousUsage.clear();
+        previousUsage.putAll(currentUsage);
+
+        double cores = cpuTimeNs / 1_000_000_000.0 / seconds;
+        int newLevel = adjustLevel(cores);
+
+        Map<String, Object> extraFields = Map.of(
+                "allocation-rate-bytes", (long) (allocatedBytes / seconds),
+                "level", newLevel,
+                "budget-cores", budgetCores,
+                "threads", currentUsage.size());
+        eventProcessor.processEvent(ProcessedJfrEvent.of(Instant.now(), "exporter-overhead", "cpu-cores", cores, extraFields));
+    }
+
+    /**
+     * One level up when over budget, one level down when below half the budget.
+     * @return the new level
+     */
+    int adjustLevel(double cores) {
+        int previousLevel = level.get();
+        int newLevel = previousLevel;
+        if (cores > budgetCores && previousLevel < maxLevel) {
+            newLevel = previousLevel + 1;
+        } else if (cores < budgetCores / 2 && previousLevel > 0) {
+            newLevel = previousLevel - 1;
+        }
+        if (newLevel != previousLevel) {
+            applyLevel(newLevel, cores);
+        }
+        return newLevel;
+    }
+
+    private void applyLevel(int newLevel, double cores) {
+        level.set(newLevel);
+        long scaleFactor = 1L << newLevel;
+        log.info("Exporter uses %.4f cores with budget %.4f: overhead level %d, periods and thresholds x%d%s",
+                cores, budgetCores, newLevel, scaleFactor, newLevel > 0 ? ", no stack traces" : "");
+        RecordingStream current = stream;
+        if (current != null) {
+            eventHandler.updateSettings(current, scaleFactor);
+        }
+    }
+
+    private Map<Long, ThreadUsage> measureExporterThreads() {
+        List<Long> threadIds = new ArrayList<>();
+        for (ThreadInfo threadInfo : threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), 0)) {
+            if (threadInfo != null && isExporterThread(threadInfo.getThreadName())) {
+                threadIds.add(threadInfo.getThreadId());
+            }
+        }
+        long[] ids = threadIds.stream().mapToLong(Long::longValue).toArray();
+        long[] cpuTimes = threadMXBean.getThreadCpuTime(ids);
+        long[] allocated = threadMXBean.isThreadAllocatedMemorySupported()
+                ? threadMXBean.getThreadAllocatedBytes(ids)
+                : new long[ids.length];
+
+        Map<Long, ThreadUsage> usage = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            // -1 when the thread is no longer alive
+            if (cpuTimes[i] >= 0) {
+                usage.put(ids[i], new ThreadUsage(cpuTimes[i], Math.max(0, allocated[i])));
+            }
+        }
+        return usage;
+    }
+
+    static boolean isExporterThread(String threadName) {
+        return threadName != null && threadNamePrefixes.stream().anyMatch(threadName::startsWith);
+    }
+
+    int getLevel() {
+        return level.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Named overhead profiles. A profile sets defaults for the arguments and scales the periods
+ * and thresholds of the event providers. Explicit arguments override the profile defaults.
+ * <ul>
+ *     <li>minimal: fewer providers, no full stack traces, five times longer periods and thresholds</li>
+ *     <li>default: all regular providers with their own periods and thresholds</li>
+ *     <li>diagnostic: also exception throw sites and memory leak candidates, lower allocation thresholds, more threads</li>
+ * </ul>
+ */
+public enum OverheadProfile {
+
+    MINIMAL(5, 5, Set.of("object-allocation", "socket", "file-io", "monitor", "compilation", "thread")),
+    DEFAULT(1, 1, Set.of()),
+    DIAGNOSTIC(1, 1, Set.of());
+
+    private final int periodFactor;
+    private final int thresholdFactor;
+    private final Set<String> disabledProviders;
+
+    OverheadProfile(int periodFactor, int thresholdFactor, Set<String> disabledProviders) {
+        this.periodFactor = periodFactor;
+        this.thresholdFactor = thresholdFactor;
+        this.disabledProviders = disabledProviders;
+    }
+
+    public static OverheadProfile parse(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new JfrExporterException("Unknown profile '" + name + "', use one of " + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    public Set<String> getDisabledProviders() {
+        return disabledProviders;
+    }
+
+    /**
+     * Scales period and threshold of the event settings for this profile, unless they are not scaled by profile.
+     */
+    public JfrEventSettings scale(JfrEventSettings settings) {
+        if (!settings.isScaledByProfile()) {
+            return settings;
+        }
+        if (periodFactor != 1 && settings.hasPeriod()) {
+            settings.withPeriod(settings.getPeriod().multipliedBy(periodFactor));
+        }
+        if (thresholdFactor != 1 && settings.hasThreshold()) {
+            settings.withThreshold(settings.getThreshold().multipliedBy(thresholdFactor));
+        }
+        return settings;
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative long values in striped counters, so recording from many threads does not contend.
+ * <p>
+ * Each power of two is split in four buckets, so a percentile is at most 25% above the recorded value.
+ * A snapshot resets the counters one by one: a value recorded during the snapshot can end up in the next interval.
+ */
+final class StripedHistogram {
+
+    private static final int subBucketBits = 2;
+    private static final int subBuckets = 1 << subBucketBits;
+    private static final int bucketCount = (64 - subBucketBits + 1) * subBuckets;
+
+    private final LongAdder[] buckets = new LongAdder[bucketCount];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    record Snapshot(long count, long sum, long max, long p50, long p99) {
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+    }
+
+    StripedHistogram() {
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long value) {
+        long positive = Math.max(0, value);
+        buckets[bucketIndex(positive)].increment();
+        count.increment();
+        sum.add(positive);
+        if (positive > max.get()) {
+            max.accumulateAndGet(positive, Math::max);
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < subBuckets) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - subBucketBits)) & (subBuckets - 1);
+        return (exponent - subBucketBits + 1) * subBuckets + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < subBuckets) {
+            return index;
+        }
+        int shift = index / subBuckets - 1;
+        long lower = (long) (subBuckets + index % subBuckets) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    Snapshot snapshotAndReset() {
+        long[] counts = new long[bucketCount];
+        long total = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            counts[i] = buckets[i].sumThenReset();
+            total += counts[i];
+        }
+        count.reset();
+        long snapshotSum = sum.sumThenReset();
+        long snapshotMax = max.getAndSet(0);
+        return new Snapshot(total, snapshotSum, snapshotMax,
+                percentile(counts, total, 0.50, snapshotMax), percentile(counts, total, 0.99, snapshotMax));
+    }
+
+    private static long percentile(long[] counts, long total, double quantile, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+}
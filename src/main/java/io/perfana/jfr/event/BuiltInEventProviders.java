@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.Arguments;
+import io.perfana.jfr.JfrEventProcessor;
+
+import java.util.List;
+
+/**
+ * The factories of the built-in event providers, registered in
+ * {@code META-INF/services/io.perfana.jfr.event.JfrEventProviderFactory}.
+ * Each factory only refers to its provider class in {@code create}, so disabled providers are not loaded.
+ */
+public final class BuiltInEventProviders {
+
+    private BuiltInEventProviders() {}
+
+    public static class CpuLoad implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "cpu-load";
+        }
+
+        @Override
+        public int order() {
+            return 10;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new CpuLoadEvent(eventProcessor);
+        }
+    }
+
+    public static class Safepoint implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "safepoint";
+        }
+
+        @Override
+        public int order() {
+            return 20;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new SafepointEvent(eventProcessor);
+        }
+    }
+
+    public static class ObjectAllocationSample implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "object-allocation-sample";
+        }
+
+        @Override
+        public int order() {
+            return 30;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new ObjectAllocationSampleEvent(eventProcessor,
+                    arguments.getBigObjectSampleWeigthThresholdBytes(), arguments.getAdaptiveEventsPerMinute());
+        }
+    }
+
+    public static class ObjectAllocation implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "object-allocation";
+        }
+
+        @Override
+        public int order() {
+            return 40;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new ObjectAllocationEvent(eventProcessor,
+                    arguments.getBigObjectThresholdBytes(), arguments.getAdaptiveEventsPerMinute());
+        }
+    }
+
+    public static class GCHeap implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "gc-heap";
+        }
+
+        @Override
+        public int order() {
+            return 50;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new GCHeapEvent(eventProcessor);
+        }
+    }
+
+    public static class JavaStatistics implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "java-statistics";
+        }
+
+        @Override
+        public int order() {
+            return 60;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new JavaStatisticsEvent(eventProcessor);
+        }
+    }
+
+    public static class Monitor implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "monitor";
+        }
+
+        @Override
+        public int order() {
+            return 70;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new MonitorEvent(eventProcessor, arguments.getAdaptiveEventsPerMinute());
+        }
+    }
+
+    public static class Socket implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "socket";
+        }
+
+        @Override
+        public int order() {
+            return 80;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new SocketEvent(eventProcessor);
+        }
+    }
+
+    public static class FileIo implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "file-io";
+        }
+
+        @Override
+        public int order() {
+            return 90;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new FileIoEvent(eventProcessor);
+        }
+    }
+
+    public static class NativeMemory implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "native-memory";
+        }
+
+        @Override
+        public int order() {
+            return 100;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new NativeMemoryEvent(eventProcessor);
+        }
+    }
+
+    public static class Container implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "container";
+        }
+
+        @Override
+        public int order() {
+            return 110;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new ContainerEvent(eventProcessor);
+        }
+    }
+
+    public static class Compilation implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "compilation";
+        }
+
+        @Override
+        public int order() {
+            return 120;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new CompilationEvent(eventProcessor);
+        }
+    }
+
+    public static class Threads implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "thread";
+        }
+
+        @Override
+        public int order() {
+            return 130;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new ThreadEvent(eventProcessor, arguments.getTopThreads());
+        }
+    }
+
+    public static class Exceptions implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "exception";
+        }
+
+        @Override
+        public int order() {
+            return 140;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new ExceptionEvent(eventProcessor, arguments.isEnableExceptionThrowSites());
+        }
+    }
+
+    public static class Metaspace implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "metaspace";
+        }
+
+        @Override
+        public int order() {
+            return 150;
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new MetaspaceEvent(eventProcessor,
+                    arguments.getClassLoaderStatisticsPeriod(), arguments.getDirectBufferStatisticsPeriod());
+        }
+    }
+
+    public static class OldObjectSample implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "old-object-sample";
+        }
+
+        @Override
+        public int order() {
+            return 160;
+        }
+
+        @Override
+        public boolean isEnabled(Arguments arguments) {
+            return arguments.getOldObjectSampleInterval() != null;
+        }
+
+        @Override
+        public String requiredOption() {
+            return "--oldObjectSampleInterval";
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            return new OldObjectSampleEvent(eventProcessor,
+                    arguments.getOldObjectSampleInterval(), arguments.getOldObjectSampleCutoff());
+        }
+    }
+
+    /**
+     * Registered last, so a mapping for a built-in event replaces the built-in handling.
+     */
+    public static class EventMappings implements JfrEventProviderFactory {
+        @Override
+        public String name() {
+            return "event-mappings";
+        }
+
+        @Override
+        public int order() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public boolean isEnabled(Arguments arguments) {
+            return arguments.getEventMappingsFile() != null;
+        }
+
+        @Override
+        public String requiredOption() {
+            return "--eventMappings";
+        }
+
+        @Override
+        public JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments) {
+            List<MappedEvent> mappedEvents = EventMapping.load(arguments.getEventMappingsFile()).stream()
+                    .map(mapping -> new MappedEvent(eventProcessor, mapping))
+                    .toList();
+            return () -> mappedEvents.stream()
+                    .flatMap(mappedEvent -> mappedEvent.getEventSettings().stream())
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.JfrEventProcessor;
+import io.perfana.jfr.JfrEventSettings;
+import io.perfana.jfr.Logger;
+import io.perfana.jfr.ProcessedJfrEvent;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedMethod;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * JIT compiler health: compile time and code size per tier, deoptimizations per reason and method,
+ * code cache fill and compiler statistics.
+ */
+public class CompilationEvent implements OnJfrEvent, JfrEventProvider {
+
+    private static final Logger log = Logger.getLogger(CompilationEvent.class);
+
+    public static final String JDK_COMPILATION = "jdk.Compilation";
+    public static final String JDK_DEOPTIMIZATION = "jdk.Deoptimization";
+    public static final String JDK_CODE_CACHE_STATISTICS = "jdk.CodeCacheStatistics";
+    public static final String JDK_CODE_CACHE_FULL = "jdk.CodeCacheFull";
+    public static final String JDK_COMPILER_STATISTICS = "jdk.CompilerStatistics";
+
+    static final String OTHER_METHODS = "<other>";
+
+    private static final long reportIntervalMs = 2000;
+    private static final int maxDeoptimizationKeys = 64;
+
+    private final JfrEventProcessor eventProcessor;
+
+    private final AtomicLong lastReportTimestamp = new AtomicLong(System.currentTimeMillis());
+
+    private final Map<Integer, CompilationStats> compilationsPerTier = new ConcurrentHashMap<>();
+    private final Map<DeoptimizationKey, LongAdder> deoptimizations = new ConcurrentHashMap<>();
+
+    public CompilationEvent(JfrEventProcessor eventProcessor) {
+        if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
+        this.eventProcessor = eventProcessor;
+    }
+
+    private record DeoptimizationKey(@Nonnull String reason, @Nonnull String action, @Nonnull String method) {}
+
+    private static class CompilationStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder osr = new LongAdder();
+        private final LongAdder durationNs = new LongAdder();
+        private final AtomicLong maxDurationNs = new AtomicLong();
+        private final LongAdder codeSize = new LongAdder();
+        private final LongAdder inlinedBytes = new LongAdder();
+    }
+
+    @Override
+    public void onEvent(RecordedEvent event) {
+
+        String name = event.getEventType().getName();
+
+        if (JDK_COMPILATION.equals(name)) {
+            processCompilation(event);
+        } else if (JDK_DEOPTIMIZATION.equals(name)) {
+            processDeoptimization(event);
+        } else if (JDK_CODE_CACHE_STATISTICS.equals(name)) {
+            processCodeCacheStatistics(event);
+        } else if (JDK_CODE_CACHE_FULL.equals(name)) {
+            processCodeCacheFull(event);
+        } else if (JDK_COMPILER_STATISTICS.equals(name)) {
+            processCompilerStatistics(event);
+        } else {
+            log.debug("Ignoring unknown event: %s", name);
+            return;
+        }
+
+        // periodic events make sure the aggregates are also reported when no compilations happen
+        reportWhenIntervalPassed();
+    }
+
+    private void processCompilation(RecordedEvent event) {
+        int tier = event.getShort("compileLevel");
+        long durationNs = event.getDuration().toNanos();
+
+        CompilationStats stats = compilationsPerTier.computeIfAbsent(tier, k -> new CompilationStats());
+        stats.count.increment();
+        stats.durationNs.add(durationNs);
+        stats.maxDurationNs.accumulateAndGet(durationNs, Math::max);
+        stats.codeSize.add(event.getLong("codeSize"));
+        stats.inlinedBytes.add(event.getLong("inlinedBytes"));
+        if (!event.getBoolean("succeded")) {
+            stats.failed.increment();
+        }
+        if (event.getBoolean("isOsr")) {
+            stats.osr.increment();
+        }
+    }
+
+    private void processDeoptimization(RecordedEvent event) {
+        String reason = String.valueOf(event.getString("reason"));
+        String action = String.valueOf(event.getString("action"));
+        String method = methodName(event.getValue("method"));
+
+        DeoptimizationKey key = new DeoptimizationKey(reason, action, method);
+        LongAdder count = deoptimizations.get(key);
+        if (count == null) {
+            DeoptimizationKey boundedKey = deoptimizations.size() < maxDeoptimizationKeys
+                    ? key
+                    : new DeoptimizationKey(reason, action, OTHER_METHODS);
+            count = deoptimizations.computeIfAbsent(boundedKey, k -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    private void processCodeCacheStatistics(RecordedEvent event) {
+        String codeHeap = String.valueOf(event.getString("codeBlobType"));
+        long reserved = event.getLong("reservedTopAddress") - event.getLong("startAddress");
+        long unallocated = event.getLong("unallocatedCapacity");
+        long used = reserved - unallocated;
+
+        Map<String, Object> extraFields = new HashMap<>();
+        extraFields.put("reserved", reserved);
+        extraFields.put("unallocated", unallocated);
+        extraFields.put("fill-percentage", reserved > 0 ? used * 100.0 / reserved : 0.0);
+        extraFields.put("entryCount", event.getInt("entryCount"));
+        extraFields.put("methodCount", event.getInt("methodCount"));
+        extraFields.put("fullCount", event.getInt("fullCount"));
+
+        eventProcessor.processEvent(ProcessedJfrEvent.of(event.getStartTime(), "code-cache", Map.of("codeHeap", codeHeap), "used", used, extraFields));
+    }
+
+    private void processCodeCacheFull(RecordedEvent event) {
+        String codeHeap = String.valueOf(event.getString("codeBlobType"));
+        int fullCount = event.getInt("fullCount");
+        log.info("Code cache '%s' is full (full count: %d)", codeHeap, fullCount);
+
+        Map<String, Object> extraFields = Map.of(
+                "unallocated", event.getLong("unallocatedCapacity"),
+                "codeCacheMaxCapacity", event.getLong("codeCacheMaxCapacity"));
+
+        eventProcessor.processEvent(ProcessedJfrEvent.of(event.getStartTime(), "code-cache-full", Map.of("codeHeap", codeHeap), "fullCount", fullCount, extraFields));
+    }
+
+    private void processCompilerStatistics(RecordedEvent event) {
+        Map<String, Object> extraFields = new HashMap<>();
+        extraFields.put("bailoutCount", event.getInt("bailoutCount"));
+        extraFields.put("invalidatedCount", event.getInt("invalidatedCount"));
+        extraFields.put("osrCompileCount", event.getInt("osrCompileCount"));
+        extraFields.put("nmethodCodeSize", event.getLong("nmethodCodeSize"));
+        extraFields.put("peakTimeSpent", event.getLong("peakTimeSpent"));
+        extraFields.put("totalTimeSpent", event.getLong("totalTimeSpent"));
+
+        eventProcessor.processEvent(ProcessedJfrEvent.of(event.getStartTime(), "compiler-statistics", "compileCount", event.getInt("compileCount"), extraFields));
+    }
+
+    private void reportWhenIntervalPassed() {
+        long now = System.currentTimeMillis();
+        long lastReport = lastReportTimestamp.get();
+        long timePeriodMs = now - lastReport;
+
+        if (timePeriodMs > reportIntervalMs && lastReportTimestamp.compareAndSet(lastReport, now)) {
+            Instant timestampNow = Instant.now();
+            reportCompilations(timestampNow, timePeriodMs);
+            reportDeoptimizations(timestampNow);
+        }
+    }
+
+    private void reportCompilations(Instant timestamp, long timePeriodMs) {
+        double periodSeconds = timePeriodMs / 1000.0;
+
+        compilationsPerTier.forEach((tier, stats) -> {
+            long count = stats.count.sumThenReset();
+            if (count == 0) {
+                return;
+            }
+            double durationMs = stats.durationNs.sumThenReset() / 1_000_000.0;
+
+            Map<String, Object> extraFields = new HashMap<>();
+            extraFields.put("count", count);
+            extraFields.put("failed", stats.failed.sumThenReset());
+            extraFields.put("osr", stats.osr.sumThenReset());
+            extraFields.put("duration-ms-total", durationMs);
+            extraFields.put("duration-ms-max", stats.maxDurationNs.getAndSet(0) / 1_000_000.0);
+            extraFields.put("codeSize", stats.codeSize.sumThenReset());
+            extraFields.put("inlinedBytes", stats.inlinedBytes.sumThenReset());
+
+            log.debug("Compilations tier %d: %d in %.1f ms", tier, count, durationMs);
+
+            // compile time per second of wall clock time, can be compared with CPU usage
+            eventProcessor.processEvent(ProcessedJfrEvent.of(
+                    timestamp,
+                    "compilation",
+                    Map.of("tier", String.valueOf(tier)),
+                    "compile-ms-per-second",
+                    durationMs / periodSeconds,
+                    extraFields));
+        });
+    }
+
+    void reportDeoptimizations(Instant timestamp) {
+        deoptimizations.forEach((key, value) -> {
+            long count = value.sumThenReset();
+            if (count == 0) {
+                deoptimizations.remove(key, value);
+                return;
+            }
+            // method is a tag, bounded by maxDeoptimizationKeys, so each method is a separate series
+            eventProcessor.processEvent(ProcessedJfrEvent.of(
+                    timestamp,
+                    "deoptimization",
+                    Map.of("reason", key.reason(), "action", key.action(), "method", key.method()),
+                    "count",
+                    count));
+        });
+    }
+
+    static String methodName(RecordedMethod method) {
+        if (method == null) {
+            return "<unknown>";
+        }
+        return method.getType().getName() + "." + method.getName();
+    }
+
+    @Override
+    public List<JfrEventSettings> getEventSettings() {
+        Duration statisticsPeriod = Duration.ofSeconds(10);
+        return List.of(
+                JfrEventSettings.of(JDK_COMPILATION, this).withThreshold(Duration.ZERO),
+                JfrEventSettings.of(JDK_DEOPTIMIZATION, this),
+                JfrEventSettings.of(JDK_CODE_CACHE_STATISTICS, this).withPeriod(statisticsPeriod),
+                JfrEventSettings.of(JDK_CODE_CACHE_FULL, this),
+                JfrEventSettings.of(JDK_COMPILER_STATISTICS, this).withPeriod(statisticsPeriod)
+        );
+    }
+}
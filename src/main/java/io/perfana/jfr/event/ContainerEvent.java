@@ -26,21 +26,46 @@ import java.time.Instant;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Container CPU, memory and I/O usage. The cumulative cgroup counters are turned into deltas and
+ * rates in-process, such as the ratio of throttled CPU slices. The container configuration is
+ * reported at startup and when it changes.
+ */
 public class ContainerEvent implements OnJfrEvent, JfrEventProvider {
 
     private static final Logger log = Logger.getLogger(ContainerEvent.class);
 
     public static final String JDK_CONTAINER_CPU_THROTTLING = "jdk.ContainerCPUThrottling";
+    public static final String JDK_CONTAINER_CPU_USAGE = "jdk.ContainerCPUUsage";
     public static final String JDK_CONTAINER_MEMORY_USAGE = "jdk.ContainerMemoryUsage";
+    public static final String JDK_CONTAINER_IO_USAGE = "jdk.ContainerIOUsage";
+    public static final String JDK_CONTAINER_CONFIGURATION = "jdk.ContainerConfiguration";
+
+    private static final String[] cpuThrottlingFields = { "cpuElapsedSlices", "cpuThrottledSlices", "cpuThrottledTime" };
+    private static final String[] cpuUsageFields = { "cpuTime", "cpuUserTime", "cpuSystemTime" };
+    private static final String[] ioUsageFields = { "serviceRequests", "dataTransferred" };
+    private static final String[] configurationFields = {
+            "cpuSlicePeriod", "cpuQuota", "cpuShares", "effectiveCpuCount", "memorySoftLimit", "memoryLimit", "swapMemoryLimit" };
 
     private final JfrEventProcessor eventProcessor;
 
+    // the container counters are cumulative, keep the previous values to calculate deltas
+    private final Map<String, CounterSnapshot> previousCounters = new ConcurrentHashMap<>();
+
+    private final AtomicReference<Map<String, Object>> previousConfiguration = new AtomicReference<>();
+
     public ContainerEvent(JfrEventProcessor eventProcessor) {
         if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
         this.eventProcessor = eventProcessor;
     }
 
+    private record CounterSnapshot(Instant timestamp, long[] values) {}
+
+    private record CounterDeltas(double seconds, long[] deltas) {}
+
     @Override
     public void onEvent(RecordedEvent event) {
 
@@ -48,17 +73,39 @@ public class ContainerEvent implements OnJfrEvent, JfrEventProvider {
         Instant timestamp = event.getStartTime();
 
         if (JDK_CONTAINER_CPU_THROTTLING.equals(name)) {
-            String measurementNameSlices = "container-cpu-throttling-slices";
-            String measurementNameTime = "container-cpu-throttling-time";
-
-            long cpuElapsedSlices = event.getLong("cpuElapsedSlices");
-            long cpuThrottledSlices = event.getLong("cpuThrottledSlices");
-
-            Map<String, Object> extraFields = Map.of("cpuThrottledSlices", cpuThrottledSlices);
-            eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, measurementNameSlices, "cpuElapsedSlices", cpuElapsedSlices, extraFields));
-
-            long cpuThrottledTime = event.getLong("cpuThrottledTime");
-            eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, measurementNameTime, "cpuThrottledTime", cpuThrottledTime));
+            CounterDeltas deltas = calculateDeltas(name, event, cpuThrottlingFields);
+            if (deltas == null) {
+                return;
+            }
+            long elapsedSlices = deltas.deltas()[0];
+            long throttledSlices = deltas.deltas()[1];
+            double throttledRatio = elapsedSlices > 0 ? (double) throttledSlices / elapsedSlices : 0.0;
+
+            Map<String, Object> extraFields = new HashMap<>();
+            extraFields.put("cpuElapsedSlices", elapsedSlices);
+            extraFields.put("cpuThrottledSlices", throttledSlices);
+            extraFields.put("cpuThrottledTime-ms", deltas.deltas()[2] / 1_000_000.0);
+            eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, "container-cpu-throttling", "throttledRatio", throttledRatio, extraFields));
+        }
+        else if (JDK_CONTAINER_CPU_USAGE.equals(name)) {
+            CounterDeltas deltas = calculateDeltas(name, event, cpuUsageFields);
+            if (deltas == null) {
+                return;
+            }
+            // cpu time in nanoseconds per second of elapsed time is the number of cores in use
+            double elapsedNs = deltas.seconds() * 1_000_000_000.0;
+            Map<String, Object> extraFields = Map.of(
+                    "userCores", deltas.deltas()[1] / elapsedNs,
+                    "systemCores", deltas.deltas()[2] / elapsedNs);
+            eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, "container-cpu-usage", "cores", deltas.deltas()[0] / elapsedNs, extraFields));
+        }
+        else if (JDK_CONTAINER_IO_USAGE.equals(name)) {
+            CounterDeltas deltas = calculateDeltas(name, event, ioUsageFields);
+            if (deltas == null) {
+                return;
+            }
+            Map<String, Object> extraFields = Map.of("serviceRequests-rate", deltas.deltas()[0] / deltas.seconds());
+            eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, "container-io-usage", "bytes-rate", deltas.deltas()[1] / deltas.seconds(), extraFields));
         }
         else if (JDK_CONTAINER_MEMORY_USAGE.equals(name)) {
             String measurementName = "container-memory-usage";
@@ -71,19 +118,72 @@ public class ContainerEvent implements OnJfrEvent, JfrEventProvider {
             long memoryFailCount = event.getLong("memoryFailCount");
             eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, measurementNameFailures, "memoryFailCount", memoryFailCount));
         }
+        else if (JDK_CONTAINER_CONFIGURATION.equals(name)) {
+            processContainerConfiguration(event, timestamp);
+        }
         else {
             log.debug("Ignoring unknown event: %s", name);
         }
     }
 
+    private CounterDeltas calculateDeltas(String name, RecordedEvent event, String[] fields) {
+        long[] values = new long[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = event.getLong(fields[i]);
+        }
+        CounterSnapshot previous = previousCounters.put(name, new CounterSnapshot(event.getStartTime(), values));
+        if (previous == null) {
+            return null;
+        }
+        double seconds = Duration.between(previous.timestamp(), event.getStartTime()).toNanos() / 1_000_000_000.0;
+        if (seconds <= 0) {
+            return null;
+        }
+        long[] deltas = new long[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            // counters can be reset, e.g. on container restart or cgroup change
+            deltas[i] = Math.max(0, values[i] - previous.values()[i]);
+        }
+        return new CounterDeltas(seconds, deltas);
+    }
+
+    private void processContainerConfiguration(RecordedEvent event, Instant timestamp) {
+        Map<String, Object> configuration = new HashMap<>();
+        configuration.put("containerType", String.valueOf(event.getString("containerType")));
+        for (String field : configurationFields) {
+            configuration.put(field, event.getLong(field));
+        }
+
+        // only report at startup and when the configuration changes
+        Map<String, Object> previous = previousConfiguration.getAndSet(configuration);
+        if (configuration.equals(previous)) {
+            return;
+        }
+        log.info("Container configuration: %s", configuration);
+
+        long cpuQuota = event.getLong("cpuQuota");
+        long cpuSlicePeriod = event.getLong("cpuSlicePeriod");
+        // cpu limit in cores, -1 when there is no quota
+        double cpuLimit = cpuQuota > 0 && cpuSlicePeriod > 0 ? (double) cpuQuota / cpuSlicePeriod : -1.0;
+
+        eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, "container-configuration", "cpuLimit", cpuLimit, configuration));
+    }
+
     @Override
     public List<JfrEventSettings> getEventSettings() {
+        Duration oneSecond = Duration.ofSeconds(1);
 
         JfrEventSettings containerCpuThrottling = JfrEventSettings.of(JDK_CONTAINER_CPU_THROTTLING, this)
-                .withPeriod(Duration.ofSeconds(1));
+                .withPeriod(oneSecond);
+        JfrEventSettings containerCpuUsage = JfrEventSettings.of(JDK_CONTAINER_CPU_USAGE, this)
+                .withPeriod(oneSecond);
         JfrEventSettings containerMemoryUsage = JfrEventSettings.of(JDK_CONTAINER_MEMORY_USAGE, this)
-                .withPeriod(Duration.ofSeconds(1));
+                .withPeriod(oneSecond);
+        JfrEventSettings containerIoUsage = JfrEventSettings.of(JDK_CONTAINER_IO_USAGE, this)
+                .withPeriod(oneSecond);
+        JfrEventSettings containerConfiguration = JfrEventSettings.of(JDK_CONTAINER_CONFIGURATION, this)
+                .withPeriod(Duration.ofSeconds(30));
 
-        return List.of(containerMemoryUsage, containerCpuThrottling);
+        return List.of(containerMemoryUsage, containerCpuThrottling, containerCpuUsage, containerIoUsage, containerConfiguration);
     }
 }
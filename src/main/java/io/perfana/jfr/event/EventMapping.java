@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.JfrExporterException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Declarative mapping of a JFR event to a measurement, read from a properties file.
+ * Each mapping has an id, and the properties of a mapping are prefixed with that id:
+ * <pre>
+ * orders.event=com.example.OrderEvent
+ * orders.measurement=orders
+ * orders.field=amount
+ * orders.fields=items,paymentType
+ * orders.tags=region
+ * orders.period=PT1S
+ * orders.threshold=PT0.01S
+ * orders.stackTrace=true
+ * </pre>
+ * Only event and measurement are required. Without a field, each event counts as 1.
+ */
+public record EventMapping(@Nonnull String eventName,
+                           @Nonnull String measurementName,
+                           @Nullable String field,
+                           @Nonnull List<String> extraFields,
+                           @Nonnull List<String> tags,
+                           @Nullable Duration period,
+                           @Nullable Duration threshold,
+                           @Nullable Boolean stackTrace) {
+
+    private static final Set<String> knownProperties =
+            Set.of("event", "measurement", "field", "fields", "tags", "period", "threshold", "stackTrace");
+
+    public static List<EventMapping> load(Path file) {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new JfrExporterException("Cannot read event mappings from " + file, e);
+        }
+        return parse(properties);
+    }
+
+    public static List<EventMapping> parse(Properties properties) {
+        Map<String, Map<String, String>> propertiesPerId = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            if (dot <= 0 || !knownProperties.contains(key.substring(dot + 1))) {
+                throw new JfrExporterException("Invalid event mapping property '" + key + "', expected <id>.<property> with property one of " + knownProperties);
+            }
+            propertiesPerId.computeIfAbsent(key.substring(0, dot), k -> new HashMap<>())
+                    .put(key.substring(dot + 1), properties.getProperty(key).trim());
+        }
+
+        List<EventMapping> mappings = new ArrayList<>();
+        propertiesPerId.forEach((id, mapping) -> mappings.add(create(id, mapping)));
+        return mappings;
+    }
+
+    private static EventMapping create(String id, Map<String, String> mapping) {
+        String eventName = mapping.get("event");
+        String measurementName = mapping.get("measurement");
+        if (eventName == null || eventName.isBlank() || measurementName == null || measurementName.isBlank()) {
+            throw new JfrExporterException("Event mapping '" + id + "' needs both event and measurement");
+        }
+        String field = mapping.get("field");
+        String stackTrace = mapping.get("stackTrace");
+        return new EventMapping(
+                eventName,
+                measurementName,
+                field == null || field.isBlank() ? null : field,
+                splitList(mapping.get("fields")),
+                splitList(mapping.get("tags")),
+                parseDuration(id, mapping.get("period")),
+                parseDuration(id, mapping.get("threshold")),
+                stackTrace == null ? null : Boolean.parseBoolean(stackTrace));
+    }
+
+    private static List<String> splitList(String value) {
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .toList();
+    }
+
+    private static Duration parseDuration(String id, String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Duration.parse(value);
+        } catch (Exception e) {
+            throw new JfrExporterException("Event mapping '" + id + "' has invalid ISO duration: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.*;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reports the rate of created throwables from jdk.ExceptionStatistics.
+ * When throw sites are enabled, also counts jdk.JavaErrorThrow and jdk.JavaExceptionThrow
+ * per exception class and throw site and reports the top sites, with stack traces for the top few only.
+ * The stack trace is translated once per site, at the first throw, and the number of sites is bounded.
+ */
+public class ExceptionEvent implements OnJfrEvent, JfrEventProvider {
+
+    private static final Logger log = Logger.getLogger(ExceptionEvent.class);
+
+    public static final String JDK_EXCEPTION_STATISTICS = "jdk.ExceptionStatistics";
+    public static final String JDK_JAVA_ERROR_THROW = "jdk.JavaErrorThrow";
+    public static final String JDK_JAVA_EXCEPTION_THROW = "jdk.JavaExceptionThrow";
+
+    static final String OTHER_SITES = "<other>";
+
+    private static final long reportIntervalMs = 10_000;
+    private static final int maxThrowSites = 256;
+    private static final int topThrowSites = 10;
+    private static final int topThrowSitesWithStacktrace = 3;
+
+    private final JfrEventProcessor eventProcessor;
+    private final boolean enableThrowSites;
+
+    private final AtomicReference<ThrowablesSnapshot> previousThrowables = new AtomicReference<>();
+
+    private final AtomicLong lastReportTimestamp = new AtomicLong(System.currentTimeMillis());
+    private final Map<ThrowSiteKey, ThrowSiteStats> throwSites = new ConcurrentHashMap<>();
+
+    public ExceptionEvent(JfrEventProcessor eventProcessor, boolean enableThrowSites) {
+        if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
+        this.eventProcessor = eventProcessor;
+        this.enableThrowSites = enableThrowSites;
+    }
+
+    private record ThrowablesSnapshot(long throwables, Instant timestamp) {}
+
+    private record ThrowSiteKey(@Nonnull String kind, @Nonnull String exceptionClass, @Nonnull String site) {}
+
+    private record ThrowSiteCount(ThrowSiteKey key, ThrowSiteStats stats, long count) {}
+
+    private static class ThrowSiteStats {
+        private final LongAdder count = new LongAdder();
+        // the stream reuses the recorded event, so translate the stack trace of the first throw at the site
+        private final List<String> stackTrace;
+
+        ThrowSiteStats(List<String> stackTrace) {
+            this.stackTrace = stackTrace;
+        }
+    }
+
+    @Override
+    public void onEvent(RecordedEvent event) {
+        String name = event.getEventType().getName();
+
+        if (JDK_EXCEPTION_STATISTICS.equals(name)) {
+            processExceptionStatistics(event);
+        } else if (JDK_JAVA_EXCEPTION_THROW.equals(name)) {
+            // note: errors are reported as both an error and an exception throw by the JVM
+            processThrow("exception", event);
+        } else if (JDK_JAVA_ERROR_THROW.equals(name)) {
+            processThrow("error", event);
+        } else {
+            log.debug("Ignoring unknown event: %s", name);
+        }
+    }
+
+    private void processExceptionStatistics(RecordedEvent event) {
+        long throwables = event.getLong("throwables");
+        Instant timestamp = event.getStartTime();
+
+        ThrowablesSnapshot previous = previousThrowables.getAndSet(new ThrowablesSnapshot(throwables, timestamp));
+        if (previous == null) {
+            return;
+        }
+        double seconds = Duration.between(previous.timestamp(), timestamp).toMillis() / 1000.0;
+        if (seconds <= 0) {
+            return;
+        }
+        long throwablesInPeriod = throwables - previous.throwables();
+        double rate = throwablesInPeriod / seconds;
+
+        eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, "exceptions", "throwables-rate", rate, Map.of("throwables", throwablesInPeriod)));
+
+        // periodic event, so the throw sites are also reported when no exceptions are thrown
+        reportWhenIntervalPassed();
+    }
+
+    private void processThrow(String kind, RecordedEvent event) {
+        RecordedClass thrownClass = event.getClass("thrownClass");
+        String exceptionClass = thrownClass == null ? "<unknown>" : thrownClass.getName();
+
+        ThrowSiteKey key = new ThrowSiteKey(kind, exceptionClass, throwSite(event.getStackTrace(), exceptionClass));
+        ThrowSiteStats stats = throwSites.get(key);
+        if (stats == null) {
+            ThrowSiteKey boundedKey = throwSites.size() < maxThrowSites ? key : new ThrowSiteKey(kind, exceptionClass, OTHER_SITES);
+            stats = throwSites.computeIfAbsent(boundedKey, k -> new ThrowSiteStats(
+                    event.getStackTrace() == null ? List.of() : JfrUtil.translateStacktrace(event)));
+        }
+        stats.count.increment();
+
+        reportWhenIntervalPassed();
+    }
+
+    /**
+     * The first frame after the constructors of the throwable, which is where the throwable is created.
+     * The constructors of the throwable are on top of the stack, from Throwable up to the thrown class,
+     * so a constructor below them, e.g. of a class that throws in its constructor, is the throw site.
+     */
+    static String throwSite(RecordedStackTrace stackTrace, String exceptionClass) {
+        if (stackTrace == null) {
+            return "<unknown>";
+        }
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        int site = 0;
+        for (int i = 0; i < frames.size() && isConstructor(frames.get(i)); i++) {
+            if (exceptionClass.equals(frames.get(i).getMethod().getType().getName())) {
+                site = i + 1;
+            }
+        }
+        if (site == 0) {
+            // constructors of the thrown class are not in the stack, skip the throwables of java.lang only
+            while (site < frames.size() && isConstructor(frames.get(site))
+                    && isJavaLangThrowable(frames.get(site).getMethod().getType().getName())) {
+                site++;
+            }
+        }
+        if (site >= frames.size()) {
+            return "<unknown>";
+        }
+        RecordedFrame frame = frames.get(site);
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + " (line: " + frame.getLineNumber() + ")";
+    }
+
+    private static boolean isConstructor(RecordedFrame frame) {
+        return "<init>".equals(frame.getMethod().getName());
+    }
+
+    private static boolean isJavaLangThrowable(String className) {
+        return switch (className) {
+            case "java.lang.Throwable", "java.lang.Exception", "java.lang.Error", "java.lang.RuntimeException" -> true;
+            default -> false;
+        };
+    }
+
+    private void reportWhenIntervalPassed() {
+        long now = System.currentTimeMillis();
+        long lastReport = lastReportTimestamp.get();
+        if (now - lastReport > reportIntervalMs && lastReportTimestamp.compareAndSet(lastReport, now)) {
+            reportThrowSites();
+        }
+    }
+
+    void reportThrowSites() {
+        List<ThrowSiteCount> counts = new ArrayList<>();
+        throwSites.forEach((key, stats) -> {
+            long count = stats.count.sumThenReset();
+            if (count == 0) {
+                throwSites.remove(key, stats);
+            } else {
+                counts.add(new ThrowSiteCount(key, stats, count));
+            }
+        });
+
+        List<ThrowSiteCount> top = JfrUtil.topN(counts, topThrowSites, Comparator.comparingLong(ThrowSiteCount::count));
+
+        Instant timestamp = Instant.now();
+        for (int rank = 0; rank < top.size(); rank++) {
+            ThrowSiteCount siteCount = top.get(rank);
+            ThrowSiteKey key = siteCount.key();
+            List<String> stackTrace = rank < topThrowSitesWithStacktrace ? siteCount.stats().stackTrace : List.of();
+
+            log.debug("Throw site %d: %d x %s at %s", rank + 1, siteCount.count(), key.exceptionClass(), key.site());
+
+            eventProcessor.processEvent(new ProcessedJfrEvent(
+                    timestamp,
+                    "exception-throw-sites",
+                    // the site tag is bounded by the top throw sites
+                    Map.of("kind", key.kind(), "exceptionClass", key.exceptionClass(), "site", key.site()),
+                    "count",
+                    siteCount.count(),
+                    Map.of("rank", rank + 1),
+                    stackTrace));
+        }
+    }
+
+    @Override
+    public List<JfrEventSettings> getEventSettings() {
+        JfrEventSettings exceptionStatistics = JfrEventSettings.of(JDK_EXCEPTION_STATISTICS, this).withPeriod(Duration.ofSeconds(1));
+        if (!enableThrowSites) {
+            return List.of(exceptionStatistics);
+        }
+        return List.of(
+                exceptionStatistics,
+                JfrEventSettings.of(JDK_JAVA_ERROR_THROW, this),
+                JfrEventSettings.of(JDK_JAVA_EXCEPTION_THROW, this)
+        );
+    }
+}
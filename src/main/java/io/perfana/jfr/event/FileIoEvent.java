@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.*;
+import jdk.jfr.consumer.RecordedEvent;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates file reads, writes and forces per operation and normalized path prefix.
+ * Reports rates and duration histograms every interval, and the stack trace of the
+ * slowest operation per operation type in that interval.
+ */
+public class FileIoEvent implements OnJfrEvent, JfrEventProvider {
+
+    private static final Logger log = Logger.getLogger(FileIoEvent.class);
+
+    public static final String JDK_FILE_READ = "jdk.FileRead";
+    public static final String JDK_FILE_WRITE = "jdk.FileWrite";
+    public static final String JDK_FILE_FORCE = "jdk.FileForce";
+
+    static final String OTHER_PATHS = "<other>";
+
+    private static final long reportIntervalMs = 2000;
+    private static final int maxPathPrefixes = 64;
+    private static final int pathPrefixDepth = 3;
+    private static final long slowestStackThresholdNs = Duration.ofMillis(10).toNanos();
+
+    private static final long[] durationBucketsNs = {
+            100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L };
+    private static final String[] durationBucketNames = {
+            "duration-le-0.1ms", "duration-le-1ms", "duration-le-10ms", "duration-le-100ms", "duration-le-1s" };
+
+    private final JfrEventProcessor eventProcessor;
+
+    private final AtomicLong lastReportTimestamp = new AtomicLong(System.currentTimeMillis());
+
+    private final Map<FileIoKey, FileIoStats> statsPerPath = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicReference<SlowestFileIo>> slowestPerOperation = new ConcurrentHashMap<>();
+
+    public FileIoEvent(JfrEventProcessor eventProcessor) {
+        if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
+        this.eventProcessor = eventProcessor;
+    }
+
+    private record FileIoKey(@Nonnull String operation, @Nonnull String path) {}
+
+    /**
+     * The recorded event is reused by the stream after {@code onEvent}, so keep the values, not the event.
+     */
+    private record SlowestFileIo(long durationNs, String path, String thread, List<String> stackTrace) {}
+
+    private static class FileIoStats {
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalDurationNs = new LongAdder();
+        private final AtomicLong maxDurationNs = new AtomicLong();
+        private final AtomicLongArray durationBuckets = new AtomicLongArray(durationBucketsNs.length);
+
+        void add(long bytesTransferred, long durationNs) {
+            bytes.add(bytesTransferred);
+            count.increment();
+            totalDurationNs.add(durationNs);
+            maxDurationNs.accumulateAndGet(durationNs, Math::max);
+            for (int i = 0; i < durationBucketsNs.length; i++) {
+                if (durationNs <= durationBucketsNs[i]) {
+                    durationBuckets.incrementAndGet(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onEvent(RecordedEvent event) {
+        String name = event.getEventType().getName();
+
+        String operation;
+        long bytes;
+        if (JDK_FILE_READ.equals(name)) {
+            operation = "read";
+            // bytesRead is -1 on end of file
+            bytes = Math.max(0, event.getLong("bytesRead"));
+        } else if (JDK_FILE_WRITE.equals(name)) {
+            operation = "write";
+            bytes = event.getLong("bytesWritten");
+        } else if (JDK_FILE_FORCE.equals(name)) {
+            operation = "force";
+            bytes = 0;
+        } else {
+            log.debug("Ignoring unknown event: %s", name);
+            return;
+        }
+
+        String path = event.getString("path");
+        long durationNs = event.getLong("duration");
+
+        log.trace("File %s: %s %s %d bytes in %d ns", operation, event.getStartTime(), path, bytes, durationNs);
+
+        FileIoKey key = new FileIoKey(operation, normalizePath(path, pathPrefixDepth));
+        FileIoStats stats = statsPerPath.get(key);
+        if (stats == null) {
+            // bound the number of path prefixes, everything else is aggregated in one bucket
+            FileIoKey boundedKey = statsPerPath.size() < maxPathPrefixes ? key : new FileIoKey(operation, OTHER_PATHS);
+            stats = statsPerPath.computeIfAbsent(boundedKey, k -> new FileIoStats());
+        }
+        stats.add(bytes, durationNs);
+
+        if (durationNs > slowestStackThresholdNs) {
+            rememberSlowest(operation, durationNs, path, event);
+        }
+
+        reportWhenIntervalPassed();
+    }
+
+    private void rememberSlowest(String operation, long durationNs, String path, RecordedEvent event) {
+        AtomicReference<SlowestFileIo> slowest = slowestPerOperation.computeIfAbsent(operation, k -> new AtomicReference<>());
+        SlowestFileIo slowestSoFar = slowest.get();
+        if (slowestSoFar != null && durationNs <= slowestSoFar.durationNs()) {
+            // only translate the stack trace of a new slowest
+            return;
+        }
+        List<String> stackTrace = event.getStackTrace() == null ? List.of() : JfrUtil.translateStacktrace(event);
+        SlowestFileIo candidate = new SlowestFileIo(durationNs, path, JfrUtil.nullSafeGetThreadJavaName(event), stackTrace);
+        slowest.accumulateAndGet(candidate, (current, update) ->
+                current == null || update.durationNs() > current.durationNs() ? update : current);
+    }
+
+    private void reportWhenIntervalPassed() {
+        long now = System.currentTimeMillis();
+        long lastReport = lastReportTimestamp.get();
+        long timePeriodMs = now - lastReport;
+
+        if (timePeriodMs > reportIntervalMs && lastReportTimestamp.compareAndSet(lastReport, now)) {
+            Instant timestampNow = Instant.now();
+            reportStats(timestampNow, timePeriodMs);
+            reportSlowest(timestampNow);
+        }
+    }
+
+    private void reportStats(Instant timestamp, long timePeriodMs) {
+        double periodSeconds = timePeriodMs / 1000.0;
+
+        statsPerPath.forEach((key, stats) -> {
+            long count = stats.count.sumThenReset();
+            if (count == 0) {
+                // make room for other path prefixes
+                statsPerPath.remove(key, stats);
+                return;
+            }
+            long bytes = stats.bytes.sumThenReset();
+            long totalDurationNs = stats.totalDurationNs.sumThenReset();
+            long maxDurationNs = stats.maxDurationNs.getAndSet(0);
+
+            Map<String, Object> extraFields = new HashMap<>();
+            extraFields.put("count", count);
+            extraFields.put("ops-rate", count / periodSeconds);
+            extraFields.put("duration-ms-total", totalDurationNs / 1_000_000.0);
+            extraFields.put("duration-ms-max", maxDurationNs / 1_000_000.0);
+
+            long cumulative = 0;
+            for (int i = 0; i < durationBucketsNs.length; i++) {
+                cumulative += stats.durationBuckets.getAndSet(i, 0);
+                extraFields.put(durationBucketNames[i], cumulative);
+            }
+
+            Map<String, String> tags = Map.of("operation", key.operation(), "path", key.path());
+
+            long bytesRate = (long) (bytes / periodSeconds);
+            log.debug("File %s for %s: %d bytes, %d operations, %d bytes/s", key.operation(), key.path(), bytes, count, bytesRate);
+
+            eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, "file-io", tags, "bytes-rate", bytesRate, extraFields));
+        });
+    }
+
+    void reportSlowest(Instant timestamp) {
+        slowestPerOperation.forEach((operation, slowestReference) -> {
+            SlowestFileIo slowest = slowestReference.getAndSet(null);
+            if (slowest == null) {
+                return;
+            }
+            Map<String, Object> extraFields = Map.of(
+                    "path", String.valueOf(slowest.path()),
+                    "thread", slowest.thread());
+
+            ProcessedJfrEvent processedEvent = new ProcessedJfrEvent(
+                    timestamp,
+                    "file-io-slowest",
+                    Map.of("operation", operation),
+                    "duration-ns",
+                    slowest.durationNs(),
+                    extraFields,
+                    slowest.stackTrace());
+
+            eventProcessor.processEvent(processedEvent);
+        });
+    }
+
+    /**
+     * Reduce a file path to its first directories, with digits replaced, to keep the number of paths bounded.
+     * E.g. "/var/log/app-12/2024/out.log" with depth 3 becomes "/var/log/app-N".
+     */
+    static String normalizePath(String path, int depth) {
+        if (path == null || path.isBlank()) {
+            return "<unknown>";
+        }
+        String unixPath = path.replace('\\', '/');
+        int lastSlash = unixPath.lastIndexOf('/');
+        if (lastSlash < 0) {
+            return ".";
+        }
+        if (lastSlash == 0) {
+            return "/";
+        }
+        String directory = unixPath.substring(0, lastSlash);
+
+        int components = 0;
+        int end = directory.length();
+        for (int i = 1; i < directory.length(); i++) {
+            if (directory.charAt(i) == '/' && ++components == depth) {
+                end = i;
+                break;
+            }
+        }
+        return JfrUtil.replaceDigits(directory.substring(0, end));
+    }
+
+    @Override
+    public List<JfrEventSettings> getEventSettings() {
+        return List.of(
+                JfrEventSettings.of(JDK_FILE_READ, this),
+                JfrEventSettings.of(JDK_FILE_WRITE, this),
+                JfrEventSettings.of(JDK_FILE_FORCE, this)
+        );
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.Arguments;
+import io.perfana.jfr.JfrEventProcessor;
+
+/**
+ * Service provider interface to add event providers without changing the exporter.
+ * <p>
+ * Implementations are found with {@link java.util.ServiceLoader} via
+ * {@code META-INF/services/io.perfana.jfr.event.JfrEventProviderFactory}.
+ * Keep the factory small: the provider class itself is only loaded by {@link #create}
+ * when the provider is enabled.
+ */
+public interface JfrEventProviderFactory {
+
+    /**
+     * Unique name, used to enable or disable the provider.
+     */
+    String name();
+
+    /**
+     * Providers are registered from low to high order. When two providers handle the same event,
+     * the last one registered wins.
+     */
+    default int order() {
+        return 1000;
+    }
+
+    /**
+     * Whether the provider is enabled when it is not explicitly enabled or disabled by name.
+     * A provider that is enabled by name must also be enabled here, so return false when a required option is missing.
+     */
+    default boolean isEnabled(Arguments arguments) {
+        return true;
+    }
+
+    /**
+     * The option the provider needs to be enabled, to report when it is enabled by name without it, or null.
+     */
+    default String requiredOption() {
+        return null;
+    }
+
+    JfrEventProvider create(JfrEventProcessor eventProcessor, Arguments arguments);
+}
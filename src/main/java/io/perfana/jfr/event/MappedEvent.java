@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.*;
+import jdk.jfr.EventType;
+import jdk.jfr.ValueDescriptor;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends any JFR event, including custom application events, as a measurement using an {@link EventMapping}.
+ * <p>
+ * The mapping is compiled into one accessor per field on the first event, based on the field types
+ * of the event type, so handling an event does no type checks or parsing. Durations are sent in milliseconds.
+ */
+public class MappedEvent implements OnJfrEvent, JfrEventProvider {
+
+    private static final Logger log = Logger.getLogger(MappedEvent.class);
+
+    static final String UNKNOWN_VALUE = "<unknown>";
+
+    private static final FieldAccessor COUNT_ONE = event -> 1;
+
+    private final JfrEventProcessor eventProcessor;
+    private final EventMapping mapping;
+
+    private volatile CompiledMapping compiled;
+
+    public MappedEvent(JfrEventProcessor eventProcessor, EventMapping mapping) {
+        if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
+        if (mapping == null) throw new IllegalArgumentException("mapping must not be null");
+        this.eventProcessor = eventProcessor;
+        this.mapping = mapping;
+    }
+
+    @FunctionalInterface
+    interface FieldAccessor {
+        Object get(RecordedEvent event);
+    }
+
+    private record NamedAccessor(String name, FieldAccessor accessor) {}
+
+    private record CompiledMapping(boolean enabled, String field, FieldAccessor value, NamedAccessor[] extraFields, NamedAccessor[] tags) {}
+
+    @Override
+    public void onEvent(RecordedEvent event) {
+        CompiledMapping current = compiled;
+        if (current == null) {
+            current = compile(event.getEventType());
+            compiled = current;
+        }
+        if (!current.enabled()) {
+            return;
+        }
+
+        Object value = current.value().get(event);
+        if (!(value instanceof Number number)) {
+            return;
+        }
+
+        Map<String, String> tags = current.tags().length == 0 ? Map.of() : new HashMap<>();
+        for (NamedAccessor tag : current.tags()) {
+            Object tagValue = tag.accessor().get(event);
+            tags.put(tag.name(), tagValue == null ? UNKNOWN_VALUE : tagValue.toString());
+        }
+
+        Map<String, Object> extraFields = current.extraFields().length == 0 ? Map.of() : new HashMap<>();
+        for (NamedAccessor extraField : current.extraFields()) {
+            Object extraValue = extraField.accessor().get(event);
+            if (extraValue != null) {
+                extraFields.put(extraField.name(), extraValue);
+            }
+        }
+
+        List<String> stackTrace = Boolean.TRUE.equals(mapping.stackTrace()) && event.getStackTrace() != null
+                ? JfrUtil.translateStacktrace(event)
+                : List.of();
+
+        eventProcessor.processEvent(new ProcessedJfrEvent(
+                event.getStartTime(), mapping.measurementName(), tags, current.field(), number, extraFields, stackTrace));
+    }
+
+    private CompiledMapping compile(EventType eventType) {
+        FieldAccessor value = COUNT_ONE;
+        String field = "count";
+        if (mapping.field() != null) {
+            ValueDescriptor descriptor = eventType.getField(mapping.field());
+            value = descriptor == null ? null : numberAccessor(descriptor, mapping.field());
+            field = mapping.field();
+            if (value == null) {
+                log.error("Event mapping for %s disabled: field '%s' is not a number field of the event", mapping.eventName(), mapping.field());
+                return new CompiledMapping(false, field, null, null, null);
+            }
+        }
+        log.debug("Compiled event mapping for %s to measurement %s", mapping.eventName(), mapping.measurementName());
+        return new CompiledMapping(true, field, value,
+                namedAccessors(eventType, mapping.extraFields()),
+                namedAccessors(eventType, mapping.tags()));
+    }
+
+    private NamedAccessor[] namedAccessors(EventType eventType, List<String> names) {
+        NamedAccessor[] accessors = new NamedAccessor[names.size()];
+        for (int i = 0; i < accessors.length; i++) {
+            String name = names.get(i);
+            ValueDescriptor descriptor = eventType.getField(name);
+            if (descriptor == null) {
+                log.info("Event mapping for %s: event has no field '%s'", mapping.eventName(), name);
+                accessors[i] = new NamedAccessor(name, event -> null);
+            } else {
+                accessors[i] = new NamedAccessor(name, accessor(descriptor, name));
+            }
+        }
+        return accessors;
+    }
+
+    private static FieldAccessor numberAccessor(ValueDescriptor descriptor, String name) {
+        return switch (descriptor.getTypeName()) {
+            case "long", "int", "short", "byte", "char", "float", "double" -> accessor(descriptor, name);
+            case "boolean" -> event -> event.getBoolean(name) ? 1 : 0;
+            default -> null;
+        };
+    }
+
+    static FieldAccessor accessor(ValueDescriptor descriptor, String name) {
+        String contentType = descriptor.getContentType();
+        return switch (descriptor.getTypeName()) {
+            case "long", "int", "short", "byte", "char" -> {
+                if ("jdk.jfr.Timespan".equals(contentType)) {
+                    yield event -> event.getDuration(name).toNanos() / 1_000_000.0;
+                }
+                if ("jdk.jfr.Timestamp".equals(contentType)) {
+                    yield event -> event.getInstant(name).toEpochMilli();
+                }
+                yield event -> event.getLong(name);
+            }
+            case "float", "double" -> event -> event.getDouble(name);
+            case "boolean" -> event -> event.getBoolean(name);
+            case "java.lang.String" -> event -> event.getString(name);
+            case "java.lang.Class" -> event -> {
+                RecordedClass recordedClass = event.getClass(name);
+                return recordedClass == null ? null : recordedClass.getName();
+            };
+            case "java.lang.Thread" -> event -> {
+                RecordedThread thread = event.getThread(name);
+                return thread == null ? null : thread.getJavaName();
+            };
+            default -> event -> {
+                Object value = event.getValue(name);
+                return value == null ? null : value.toString();
+            };
+        };
+    }
+
+    @Override
+    public List<JfrEventSettings> getEventSettings() {
+        // the mapping is explicit configuration
+        JfrEventSettings settings = JfrEventSettings.of(mapping.eventName(), this).withScaledByProfile(false);
+        if (mapping.period() != null) {
+            settings.withPeriod(mapping.period());
+        }
+        if (mapping.threshold() != null) {
+            settings.withThreshold(mapping.threshold());
+        }
+        if (mapping.stackTrace() != null) {
+            settings.withThreshold("stackTrace", mapping.stackTrace().toString());
+        }
+        return List.of(settings);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.*;
+import jdk.jfr.consumer.RecordedClassLoader;
+import jdk.jfr.consumer.RecordedEvent;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap memory without Native Memory Tracking: metaspace usage after GC, metaspace out of memory,
+ * the top class loaders by metaspace chunk size and direct buffer usage.
+ */
+public class MetaspaceEvent implements OnJfrEvent, JfrEventProvider {
+
+    private static final Logger log = Logger.getLogger(MetaspaceEvent.class);
+
+    public static final String JDK_METASPACE_SUMMARY = "jdk.MetaspaceSummary";
+    public static final String JDK_METASPACE_OOM = "jdk.MetaspaceOOM";
+    public static final String JDK_CLASS_LOADER_STATISTICS = "jdk.ClassLoaderStatistics";
+    public static final String JDK_DIRECT_BUFFER_STATISTICS = "jdk.DirectBufferStatistics";
+
+    private static final int topClassLoaders = 10;
+
+    private final JfrEventProcessor eventProcessor;
+    private final Duration classLoaderStatisticsPeriod;
+    private final Duration directBufferStatisticsPeriod;
+
+    private final AtomicLong lastClassLoaderReportTimestamp = new AtomicLong(System.currentTimeMillis());
+    private final Map<String, ClassLoaderUsage> classLoaderUsage = new ConcurrentHashMap<>();
+
+    public MetaspaceEvent(JfrEventProcessor eventProcessor, Duration classLoaderStatisticsPeriod, Duration directBufferStatisticsPeriod) {
+        if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
+        if (classLoaderStatisticsPeriod == null) throw new IllegalArgumentException("classLoaderStatisticsPeriod must not be null");
+        if (directBufferStatisticsPeriod == null) throw new IllegalArgumentException("directBufferStatisticsPeriod must not be null");
+        this.eventProcessor = eventProcessor;
+        this.classLoaderStatisticsPeriod = classLoaderStatisticsPeriod;
+        this.directBufferStatisticsPeriod = directBufferStatisticsPeriod;
+    }
+
+    record ClassLoaderUsage(String classLoader, long chunkSize, long classCount, long hiddenClassCount, int loaderCount) {
+        ClassLoaderUsage add(ClassLoaderUsage other) {
+            return new ClassLoaderUsage(classLoader,
+                    chunkSize + other.chunkSize,
+                    classCount + other.classCount,
+                    hiddenClassCount + other.hiddenClassCount,
+                    loaderCount + other.loaderCount);
+        }
+    }
+
+    @Override
+    public void onEvent(RecordedEvent event) {
+        String name = event.getEventType().getName();
+
+        if (JDK_METASPACE_SUMMARY.equals(name)) {
+            processMetaspaceSummary(event);
+        } else if (JDK_METASPACE_OOM.equals(name)) {
+            processMetaspaceOOM(event);
+        } else if (JDK_CLASS_LOADER_STATISTICS.equals(name)) {
+            processClassLoaderStatistics(event);
+        } else if (JDK_DIRECT_BUFFER_STATISTICS.equals(name)) {
+            processDirectBufferStatistics(event);
+        } else {
+            log.debug("Ignoring unknown event: %s", name);
+        }
+    }
+
+    private void processMetaspaceSummary(RecordedEvent event) {
+        // summary is sent before and after each GC, after GC shows what is really retained
+        if (!"After GC".equals(event.getString("when"))) {
+            return;
+        }
+        Map<String, Object> extraFields = new HashMap<>();
+        extraFields.put("committed", event.getLong("metaspace.committed"));
+        extraFields.put("reserved", event.getLong("metaspace.reserved"));
+        extraFields.put("classSpaceUsed", event.getLong("classSpace.used"));
+        extraFields.put("classSpaceCommitted", event.getLong("classSpace.committed"));
+        extraFields.put("gcThreshold", event.getLong("gcThreshold"));
+
+        eventProcessor.processEvent(ProcessedJfrEvent.of(event.getStartTime(), "metaspace", "used", event.getLong("metaspace.used"), extraFields));
+    }
+
+    private void processMetaspaceOOM(RecordedEvent event) {
+        String classLoader = classLoaderName(event.getValue("classLoader"));
+        long size = event.getLong("size");
+        log.error("Metaspace out of memory for class loader '%s' allocating %d bytes", classLoader, size);
+
+        Map<String, Object> extraFields = Map.of(
+                "classLoader", classLoader,
+                "metadataType", String.valueOf(event.getString("metadataType")),
+                "metaspaceObjectType", String.valueOf(event.getString("metaspaceObjectType")));
+
+        List<String> stackTrace = event.getStackTrace() == null ? List.of() : JfrUtil.translateStacktrace(event);
+
+        eventProcessor.processEvent(ProcessedJfrEvent.of(event.getStartTime(), "metaspace-oom", "size", size, extraFields, stackTrace));
+    }
+
+    private void processClassLoaderStatistics(RecordedEvent event) {
+        // one event per class loader every period, report the previous period when the next one starts
+        long now = System.currentTimeMillis();
+        long lastReport = lastClassLoaderReportTimestamp.get();
+        if (now - lastReport > classLoaderStatisticsPeriod.toMillis() / 2 && lastClassLoaderReportTimestamp.compareAndSet(lastReport, now)) {
+            reportClassLoaders();
+        }
+
+        String classLoader = JfrUtil.replaceDigits(classLoaderName(event.getValue("classLoader")));
+        ClassLoaderUsage usage = new ClassLoaderUsage(
+                classLoader,
+                event.getLong("chunkSize") + event.getLong("hiddenChunkSize"),
+                event.getLong("classCount"),
+                event.getLong("hiddenClassCount"),
+                1);
+        classLoaderUsage.merge(classLoader, usage, ClassLoaderUsage::add);
+    }
+
+    private void reportClassLoaders() {
+        List<ClassLoaderUsage> all = List.copyOf(classLoaderUsage.values());
+        classLoaderUsage.clear();
+        if (all.isEmpty()) {
+            return;
+        }
+
+        Instant timestamp = Instant.now();
+
+        long totalChunkSize = all.stream().mapToLong(ClassLoaderUsage::chunkSize).sum();
+        int totalLoaderCount = all.stream().mapToInt(ClassLoaderUsage::loaderCount).sum();
+        eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, "class-loaders", "chunkSize", totalChunkSize, Map.of("loaderCount", totalLoaderCount)));
+
+        for (ClassLoaderUsage usage : JfrUtil.topN(all, topClassLoaders, Comparator.comparingLong(ClassLoaderUsage::chunkSize))) {
+            Map<String, Object> extraFields = Map.of(
+                    "classCount", usage.classCount(),
+                    "hiddenClassCount", usage.hiddenClassCount(),
+                    "loaderCount", usage.loaderCount());
+            eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, "class-loader", Map.of("classLoader", usage.classLoader()), "chunkSize", usage.chunkSize(), extraFields));
+        }
+    }
+
+    private void processDirectBufferStatistics(RecordedEvent event) {
+        Map<String, Object> extraFields = Map.of(
+                "count", event.getLong("count"),
+                "totalCapacity", event.getLong("totalCapacity"),
+                "maxCapacity", event.getLong("maxCapacity"));
+
+        eventProcessor.processEvent(ProcessedJfrEvent.of(event.getStartTime(), "direct-buffers", "memoryUsed", event.getLong("memoryUsed"), extraFields));
+    }
+
+    static String classLoaderName(RecordedClassLoader classLoader) {
+        if (classLoader == null) {
+            return "bootstrap";
+        }
+        if (classLoader.getName() != null) {
+            return classLoader.getName();
+        }
+        return classLoader.getType() == null ? "bootstrap" : classLoader.getType().getName();
+    }
+
+    @Override
+    public List<JfrEventSettings> getEventSettings() {
+        return List.of(
+                JfrEventSettings.of(JDK_METASPACE_SUMMARY, this),
+                JfrEventSettings.of(JDK_METASPACE_OOM, this),
+                // the periods are options, with defaults of the profile
+                JfrEventSettings.of(JDK_CLASS_LOADER_STATISTICS, this).withPeriod(classLoaderStatisticsPeriod).withScaledByProfile(false),
+                JfrEventSettings.of(JDK_DIRECT_BUFFER_STATISTICS, this).withPeriod(directBufferStatisticsPeriod).withScaledByProfile(false)
+        );
+    }
+}
@@ -34,10 +34,22 @@ public class MonitorEvent implements OnJfrEvent, JfrEventProvider {
     private final JfrEventProcessor eventProcessor;
 
     private final long minimumDurationNs = Duration.ofMillis(10).toNanos();
+    private final AdaptiveThreshold adaptiveThreshold;
 
     public MonitorEvent(JfrEventProcessor eventProcessor) {
+        this(eventProcessor, 0);
+    }
+
+    /**
+     * @param targetEventsPerMinute when positive, the threshold adapts to report about this many monitor events
+     *                              per minute, the JFR threshold of 10 ms stays the minimum
+     */
+    public MonitorEvent(JfrEventProcessor eventProcessor, int targetEventsPerMinute) {
         if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
         this.eventProcessor = eventProcessor;
+        this.adaptiveThreshold = targetEventsPerMinute > 0
+                ? new AdaptiveThreshold("java-monitor", minimumDurationNs, minimumDurationNs, targetEventsPerMinute)
+                : null;
     }
 
     @Override
@@ -53,7 +65,11 @@ public class MonitorEvent implements OnJfrEvent, JfrEventProvider {
 
         log.trace("%s %s %d %s %s", (startTime == null ? "<no-start-time>" : startTime), name, durationNs, monitorClass, addressAsHex);
 
-        if (durationNs > minimumDurationNs) {
+        boolean isLong = adaptiveThreshold == null
+                ? durationNs > minimumDurationNs
+                : adaptiveThreshold.isAbove(durationNs);
+
+        if (isLong) {
 
             if (event.getStackTrace() == null) {
                 log.error("No stack trace available for monitor wait of %d nanoseconds of monitorClass '%s'", durationNs, monitorClass);
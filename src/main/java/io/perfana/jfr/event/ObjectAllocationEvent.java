@@ -29,14 +29,28 @@ public class ObjectAllocationEvent implements OnJfrEvent, JfrEventProvider {
     private static final Logger log = Logger.getLogger(ObjectAllocationEvent.class);
 
     public static final String JDK_OBJECT_ALLOCATION_OUTSIDE_TLAB = "jdk.ObjectAllocationOutsideTLAB";
+    // with an adaptive threshold, smaller allocations are never reported
+    private static final long minimumAdaptiveThresholdBytes = 1_024;
+
     private final JfrEventProcessor eventProcessor;
     private final long bigAllocationSizeBytes;
+    private final AdaptiveThreshold adaptiveThreshold;
 
     public ObjectAllocationEvent(JfrEventProcessor eventProcessor, long thresholdSizeBytes) {
+        this(eventProcessor, thresholdSizeBytes, 0);
+    }
+
+    /**
+     * @param targetEventsPerMinute when positive, the threshold adapts to report about this many allocations per minute
+     */
+    public ObjectAllocationEvent(JfrEventProcessor eventProcessor, long thresholdSizeBytes, int targetEventsPerMinute) {
         if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
         log.debug("Tracing object allocations of more than %d bytes.", thresholdSizeBytes);
         this.eventProcessor = eventProcessor;
         this.bigAllocationSizeBytes = thresholdSizeBytes;
+        this.adaptiveThreshold = targetEventsPerMinute > 0
+                ? new AdaptiveThreshold("big-allocations", thresholdSizeBytes, minimumAdaptiveThresholdBytes, targetEventsPerMinute)
+                : null;
     }
 
     @Override
@@ -52,7 +66,11 @@ public class ObjectAllocationEvent implements OnJfrEvent, JfrEventProvider {
     }
 
     private void reportBigAllocation(RecordedEvent event, long allocationSize, String objectClass, Instant startTime) {
-        if (allocationSize > bigAllocationSizeBytes) {
+        boolean isBig = adaptiveThreshold == null
+                ? allocationSize > bigAllocationSizeBytes
+                : adaptiveThreshold.isAbove(allocationSize);
+
+        if (isBig) {
 
             if (event.getStackTrace() == null) {
                 log.error("No stack trace available for big allocation of %d bytes of objectClass '%s'", allocationSize, objectClass);
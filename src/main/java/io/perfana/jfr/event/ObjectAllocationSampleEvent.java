@@ -28,8 +28,12 @@ public class ObjectAllocationSampleEvent implements OnJfrEvent, JfrEventProvider
     private static final Logger log = Logger.getLogger(ObjectAllocationSampleEvent.class);
 
     public static final String JDK_OBJECT_ALLOCATION_SAMPLE = "jdk.ObjectAllocationSample";
+    // with an adaptive threshold, smaller allocations are never reported
+    private static final long minimumAdaptiveThresholdBytes = 1_024;
+
     private final JfrEventProcessor eventProcessor;
     private final long bigAllocationSizeBytes;
+    private final AdaptiveThreshold adaptiveThreshold;
 
     private final AtomicLong totalAllocationsBytes = new AtomicLong(0);
     private final AtomicLong lastAllocationRateReport = new AtomicLong(0);
@@ -37,10 +41,20 @@ public class ObjectAllocationSampleEvent implements OnJfrEvent, JfrEventProvider
     private static final long reportIntervalMs = 2000;
 
     public ObjectAllocationSampleEvent(JfrEventProcessor eventProcessor, long thresholdSizeBytes) {
+        this(eventProcessor, thresholdSizeBytes, 0);
+    }
+
+    /**
+     * @param targetEventsPerMinute when positive, the threshold adapts to report about this many samples per minute
+     */
+    public ObjectAllocationSampleEvent(JfrEventProcessor eventProcessor, long thresholdSizeBytes, int targetEventsPerMinute) {
         if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
         log.debug("Tracing object allocations of more than %d bytes.", thresholdSizeBytes);
         this.eventProcessor = eventProcessor;
         this.bigAllocationSizeBytes = thresholdSizeBytes;
+        this.adaptiveThreshold = targetEventsPerMinute > 0
+                ? new AdaptiveThreshold("object-allocation-sample", thresholdSizeBytes, minimumAdaptiveThresholdBytes, targetEventsPerMinute)
+                : null;
     }
 
     @Override
@@ -89,7 +103,11 @@ public class ObjectAllocationSampleEvent implements OnJfrEvent, JfrEventProvider
     }
 
     private void reportLargeAllocationSample(RecordedEvent event, long weight, String objectClass, Instant startTime) {
-        if (weight > bigAllocationSizeBytes) {
+        boolean isLarge = adaptiveThreshold == null
+                ? weight > bigAllocationSizeBytes
+                : adaptiveThreshold.isAbove(weight);
+
+        if (isLarge) {
 
             if (event.getStackTrace() == null) {
                 log.error("No stack trace available for large allocation sample weight of %d bytes of objectClass '%s'", weight, objectClass);
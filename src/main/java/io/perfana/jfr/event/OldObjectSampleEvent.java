@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.*;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedObject;
+import jdk.jfr.consumer.RecordingStream;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memory leak candidates from jdk.OldObjectSample, grouped by object class and allocation site.
+ * <p>
+ * The JVM only emits old object samples when a recording stops. For the local JVM, a small
+ * recording with only old object samples enabled is restarted every interval, which emits the
+ * samples into the stream without dumping any data. For a remote JVM, samples are reported
+ * when that JVM emits them. The samples of a burst are reported when the next burst starts, when
+ * no samples arrived for a while in the local JVM, or when the stream closes.
+ */
+public class OldObjectSampleEvent implements OnJfrEvent, JfrEventProvider, OnRecordingStream, OnStreamClose {
+
+    private static final Logger log = Logger.getLogger(OldObjectSampleEvent.class);
+
+    public static final String JDK_OLD_OBJECT_SAMPLE = "jdk.OldObjectSample";
+
+    private static final int topLeakCandidates = 10;
+    // samples are emitted in one burst, report when no new samples arrived for this time
+    private static final long burstQuietMs = 2_000;
+
+    private final JfrEventProcessor eventProcessor;
+    private final Duration interval;
+    private final String cutoff;
+
+    private final AtomicLong lastSampleTimestamp = new AtomicLong(0);
+    private final Map<LeakCandidateKey, LeakCandidateStats> leakCandidates = new ConcurrentHashMap<>();
+
+    public OldObjectSampleEvent(JfrEventProcessor eventProcessor, Duration interval, Duration cutoff) {
+        if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
+        if (interval == null || interval.isZero() || interval.isNegative()) throw new IllegalArgumentException("interval must be positive: " + interval);
+        if (cutoff == null) throw new IllegalArgumentException("cutoff must not be null");
+        this.eventProcessor = eventProcessor;
+        this.interval = interval;
+        this.cutoff = cutoff.toNanos() + " ns";
+    }
+
+    private record LeakCandidateKey(@Nonnull String objectClass, @Nonnull String allocationSite) {}
+
+    private record LeakCandidateCount(LeakCandidateKey key, LeakCandidateStats stats, long count) {}
+
+    private static class LeakCandidateStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalAgeNs = new LongAdder();
+        private final AtomicLong maxAgeNs = new AtomicLong();
+        private final AtomicLong lastKnownHeapUsage = new AtomicLong();
+        // the stream reuses the recorded event, so keep the values of the first sample
+        private final String gcRoot;
+        private final List<String> stackTrace;
+
+        LeakCandidateStats(String gcRoot, List<String> stackTrace) {
+            this.gcRoot = gcRoot;
+            this.stackTrace = stackTrace;
+        }
+    }
+
+    @Override
+    public void onEvent(RecordedEvent event) {
+        String name = event.getEventType().getName();
+        if (!JDK_OLD_OBJECT_SAMPLE.equals(name)) {
+            log.debug("Ignoring unknown event: %s", name);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long previousSample = lastSampleTimestamp.getAndSet(now);
+        if (previousSample != 0 && now - previousSample > burstQuietMs) {
+            // first sample of a new burst, report what is left of the previous one
+            reportLeakCandidates();
+        }
+
+        RecordedClass objectClass = event.getValue("object.type");
+        String objectClassName = objectClass == null ? "<unknown>" : JfrUtil.translatePrimitiveClass(objectClass.getName());
+        LeakCandidateKey key = new LeakCandidateKey(objectClassName, allocationSite(event));
+
+        LeakCandidateStats stats = leakCandidates.computeIfAbsent(key, k -> new LeakCandidateStats(
+                gcRoot(event.getValue("root")),
+                event.getStackTrace() == null ? List.of() : JfrUtil.translateStacktrace(event)));
+        long ageNs = event.getDuration("objectAge").toNanos();
+        stats.count.increment();
+        stats.totalAgeNs.add(ageNs);
+        stats.maxAgeNs.accumulateAndGet(ageNs, Math::max);
+        stats.lastKnownHeapUsage.set(event.getLong("lastKnownHeapUsage"));
+    }
+
+    static String allocationSite(RecordedEvent event) {
+        if (event.getStackTrace() == null || event.getStackTrace().getFrames().isEmpty()) {
+            return "<unknown>";
+        }
+        RecordedFrame frame = event.getStackTrace().getFrames().get(0);
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + " (line: " + frame.getLineNumber() + ")";
+    }
+
+    void reportLeakCandidates() {
+        List<LeakCandidateCount> counts = new ArrayList<>();
+        leakCandidates.forEach((key, stats) -> {
+            leakCandidates.remove(key, stats);
+            counts.add(new LeakCandidateCount(key, stats, stats.count.sum()));
+        });
+        if (counts.isEmpty()) {
+            return;
+        }
+
+        Instant timestamp = Instant.now();
+        List<LeakCandidateCount> top = JfrUtil.topN(counts, topLeakCandidates, Comparator.comparingLong(LeakCandidateCount::count));
+        for (int rank = 0; rank < top.size(); rank++) {
+            LeakCandidateCount candidate = top.get(rank);
+            LeakCandidateStats stats = candidate.stats();
+
+            Map<String, Object> extraFields = new HashMap<>();
+            extraFields.put("age-ms-max", stats.maxAgeNs.get() / 1_000_000);
+            extraFields.put("age-ms-avg", stats.totalAgeNs.sum() / candidate.count() / 1_000_000);
+            extraFields.put("lastKnownHeapUsage", stats.lastKnownHeapUsage.get());
+            extraFields.put("rank", rank + 1);
+            extraFields.put("gcRoot", stats.gcRoot);
+
+            log.debug("Leak candidate %d: %d x %s allocated at %s", rank + 1, candidate.count(), candidate.key().objectClass(), candidate.key().allocationSite());
+
+            eventProcessor.processEvent(new ProcessedJfrEvent(
+                    timestamp,
+                    "old-object-samples",
+                    // the allocation site tag is bounded by the top leak candidates
+                    Map.of("objectClass", candidate.key().objectClass(), "allocationSite", candidate.key().allocationSite()),
+                    "count",
+                    candidate.count(),
+                    extraFields,
+                    stats.stackTrace));
+        }
+    }
+
+    private static String gcRoot(RecordedObject root) {
+        if (root == null) {
+            // no path to gc root searched, or not found within the cutoff
+            return "<none>";
+        }
+        return root.getString("system") + "/" + root.getString("type");
+    }
+
+    @Override
+    public void onRecordingStream(RecordingStream stream) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("jfr-exporter-old-objects");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        SampleRecording sampleRecording = new SampleRecording();
+        sampleRecording.restart();
+
+        long intervalMs = interval.toMillis();
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                sampleRecording.restart();
+            } catch (Exception e) {
+                log.error("Cannot emit old object samples: %s", e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        executor.scheduleAtFixedRate(this::reportWhenBurstEnded, burstQuietMs, burstQuietMs, TimeUnit.MILLISECONDS);
+
+        stream.onClose(() -> {
+            executor.shutdownNow();
+            sampleRecording.close();
+        });
+    }
+
+    @Override
+    public void onStreamClose() {
+        // no next burst or quiet time check, report the last burst
+        reportLeakCandidates();
+    }
+
+    private void reportWhenBurstEnded() {
+        long lastSample = lastSampleTimestamp.get();
+        if (lastSample != 0 && System.currentTimeMillis() - lastSample > burstQuietMs && !leakCandidates.isEmpty()) {
+            reportLeakCandidates();
+        }
+    }
+
+    /**
+     * Stopping a recording that has old object samples enabled makes the JVM emit the samples.
+     */
+    private class SampleRecording {
+        private Recording recording;
+
+        synchronized void restart() {
+            close();
+            log.debug("Start old object sample recording with cutoff %s", cutoff);
+            recording = new Recording();
+            recording.setName("jfr-exporter-old-objects");
+            recording.enable(JDK_OLD_OBJECT_SAMPLE).with("cutoff", cutoff);
+            recording.start();
+        }
+
+        synchronized void close() {
+            if (recording != null) {
+                if (recording.getState() == RecordingState.RUNNING) {
+                    recording.stop();
+                }
+                recording.close();
+                recording = null;
+            }
+        }
+    }
+
+    @Override
+    public List<JfrEventSettings> getEventSettings() {
+        return List.of(JfrEventSettings.of(JDK_OLD_OBJECT_SAMPLE, this).withThreshold("cutoff", cutoff));
+    }
+}
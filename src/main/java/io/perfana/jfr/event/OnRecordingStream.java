@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Called when the events are enabled on a recording stream of the local JVM.
+ * Not called when streaming from the repository of a remote JVM.
+ */
+public interface OnRecordingStream {
+
+    void onRecordingStream(RecordingStream stream);
+
+}
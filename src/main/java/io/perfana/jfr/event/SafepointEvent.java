@@ -23,67 +23,230 @@ import jdk.jfr.consumer.RecordedEvent;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Correlates the safepoint events per safepoint id to split the time to safepoint (TTSP)
+ * from the cleanup and the VM operation that needed the safepoint.
+ * <p>
+ * The events of one safepoint do not arrive in a fixed order: the VM operation event is committed
+ * after the safepoint end. A safepoint is reported when both the end and the VM operation are seen.
+ * Pending safepoints are evicted after a maximum age, and their number is bounded.
+ */
 public class SafepointEvent implements OnJfrEvent, JfrEventProvider {
 
     private static final Logger log = Logger.getLogger(SafepointEvent.class);
 
-    private final ConcurrentHashMap<Long, Instant> safepoints = new ConcurrentHashMap<>();
-
     public static final String JDK_SAFEPOINT_BEGIN = "jdk.SafepointBegin";
+    public static final String JDK_SAFEPOINT_STATE_SYNCHRONIZATION = "jdk.SafepointStateSynchronization";
+    public static final String JDK_SAFEPOINT_CLEANUP = "jdk.SafepointCleanup";
     public static final String JDK_SAFEPOINT_END = "jdk.SafepointEnd";
+    public static final String JDK_EXECUTE_VM_OPERATION = "jdk.ExecuteVMOperation";
+
+    static final String UNKNOWN_OPERATION = "<unknown>";
+
+    private static final int maxPendingSafepoints = 1_000;
+    private static final long maxPendingAgeMs = 10_000;
+    private static final long evictIntervalMs = 1_000;
+    private static final long reportIntervalMs = 10_000;
+    private static final long minimumReportDurationNs = Duration.ofMillis(1).toNanos();
+
     private final JfrEventProcessor eventProcessor;
 
+    private final ConcurrentHashMap<Long, PendingSafepoint> safepoints = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastEvictTimestamp = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong lastReportTimestamp = new AtomicLong(System.currentTimeMillis());
+    private final LongAdder evictedSafepoints = new LongAdder();
+    private final Map<String, OperationStats> statsPerOperation = new ConcurrentHashMap<>();
+
     public SafepointEvent(JfrEventProcessor eventProcessor) {
         if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
         this.eventProcessor = eventProcessor;
     }
 
+    private static class PendingSafepoint {
+        private final long createdMs = System.currentTimeMillis();
+        private Instant beginTime;
+        private Instant endTime;
+        private long synchronizationNs;
+        private long cleanupNs;
+        private long operationNs;
+        private String operation;
+
+        boolean isComplete() {
+            return endTime != null && operation != null;
+        }
+    }
+
+    private static class OperationStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNs = new LongAdder();
+        private final LongAdder synchronizationNs = new LongAdder();
+        private final LongAdder operationNs = new LongAdder();
+        private final AtomicLong maxNs = new AtomicLong();
+    }
+
     @Override
     public void onEvent(RecordedEvent event) {
         String name = event.getEventType().getName();
-        Long safepointId = event.getLong("safepointId");
-        log.debug(event.getStartTime() + " " + name + ": " + safepointId);
-
-        if (name.equals(JDK_SAFEPOINT_BEGIN)) {
-            safepoints.put(safepointId, event.getStartTime());
-        } else if (name.equals(JDK_SAFEPOINT_END)) {
-            Instant startTime = safepoints.remove(safepointId);
-            if (startTime != null) {
-                Duration duration = Duration.between(startTime, event.getEndTime());
-                log.debug("Safepoint duration: %s", duration);
-
-                if (duration.toMillis() > 1) {
-                    ProcessedJfrEvent processedEvent = ProcessedJfrEvent.of(
-                            event.getStartTime(),
-                            "safepoint",
-                            "duration-ms",
-                            (double) duration.toMillis());
-
-                    eventProcessor.processEvent(processedEvent);
-                }
+        long safepointId = event.getLong("safepointId");
+        log.trace("%s %s: %d", event.getStartTime(), name, safepointId);
+
+        if (JDK_EXECUTE_VM_OPERATION.equals(name) && !event.getBoolean("safepoint")) {
+            // VM operations that do not need a safepoint have no safepoint events
+            return;
+        }
+
+        PendingSafepoint completed = updatePending(name, safepointId, event);
+        if (completed != null) {
+            report(completed);
+        }
+
+        evictWhenIntervalPassed();
+        reportWhenIntervalPassed();
+    }
+
+    private PendingSafepoint updatePending(String name, long safepointId, RecordedEvent event) {
+        if (!safepoints.containsKey(safepointId) && safepoints.size() >= maxPendingSafepoints) {
+            log.debug("Too many pending safepoints, skip safepoint %d", safepointId);
+            evictedSafepoints.increment();
+            return null;
+        }
+
+        PendingSafepoint[] completed = new PendingSafepoint[1];
+        safepoints.compute(safepointId, (id, pending) -> {
+            if (pending == null) {
+                pending = new PendingSafepoint();
+            }
+            if (JDK_SAFEPOINT_BEGIN.equals(name)) {
+                pending.beginTime = event.getStartTime();
+            } else if (JDK_SAFEPOINT_STATE_SYNCHRONIZATION.equals(name)) {
+                pending.synchronizationNs = event.getDuration().toNanos();
+            } else if (JDK_SAFEPOINT_CLEANUP.equals(name)) {
+                pending.cleanupNs = event.getDuration().toNanos();
+            } else if (JDK_SAFEPOINT_END.equals(name)) {
+                pending.endTime = event.getEndTime();
+            } else if (JDK_EXECUTE_VM_OPERATION.equals(name)) {
+                pending.operation = event.getString("operation");
+                pending.operationNs = event.getDuration().toNanos();
             } else {
-                log.debug("Safepoint begin with id %d not found", safepointId);
+                log.debug("Unknown safepoint event '%s'", name);
             }
-            reportSafepointsInProgress();
-        } else {
-            log.debug("Unknown safepoint event '%s'", name);
+            if (pending.isComplete()) {
+                completed[0] = pending;
+                return null;
+            }
+            return pending;
+        });
+        return completed[0];
+    }
+
+    private void report(PendingSafepoint safepoint) {
+        if (safepoint.beginTime == null || safepoint.endTime == null) {
+            log.debug("Safepoint begin or end not found, skip report");
+            return;
         }
+        String operation = safepoint.operation == null ? UNKNOWN_OPERATION : safepoint.operation;
+        long durationNs = Duration.between(safepoint.beginTime, safepoint.endTime).toNanos();
+
+        OperationStats stats = statsPerOperation.computeIfAbsent(operation, k -> new OperationStats());
+        stats.count.increment();
+        stats.totalNs.add(durationNs);
+        stats.synchronizationNs.add(safepoint.synchronizationNs);
+        stats.operationNs.add(safepoint.operationNs);
+        stats.maxNs.accumulateAndGet(durationNs, Math::max);
+
+        if (durationNs > minimumReportDurationNs) {
+            log.debug("Safepoint for %s: %d ns, time to safepoint %d ns", operation, durationNs, safepoint.synchronizationNs);
+
+            Map<String, Object> extraFields = Map.of(
+                    "ttsp-ms", safepoint.synchronizationNs / 1_000_000.0,
+                    "cleanup-ms", safepoint.cleanupNs / 1_000_000.0,
+                    "operation-ms", safepoint.operationNs / 1_000_000.0);
+
+            ProcessedJfrEvent processedEvent = ProcessedJfrEvent.of(
+                    safepoint.beginTime,
+                    "safepoint",
+                    Map.of("operation", operation),
+                    "duration-ms",
+                    durationNs / 1_000_000.0,
+                    extraFields);
+
+            eventProcessor.processEvent(processedEvent);
+        }
+    }
+
+    private void evictWhenIntervalPassed() {
+        long now = System.currentTimeMillis();
+        long lastEvict = lastEvictTimestamp.get();
+        if (now - lastEvict <= evictIntervalMs || !lastEvictTimestamp.compareAndSet(lastEvict, now)) {
+            return;
+        }
+        long evictBefore = now - maxPendingAgeMs;
+        safepoints.forEach((id, pending) -> {
+            if (pending.createdMs < evictBefore && safepoints.remove(id, pending)) {
+                if (pending.endTime != null) {
+                    // VM operation event missed, still report the safepoint itself
+                    report(pending);
+                } else {
+                    log.debug("Evict pending safepoint %d", id);
+                    evictedSafepoints.increment();
+                }
+            }
+        });
     }
 
-    private void reportSafepointsInProgress() {
-        if (!safepoints.isEmpty()) {
-            log.info("Safepoints in progress: %d", safepoints.size());
+    private void reportWhenIntervalPassed() {
+        long now = System.currentTimeMillis();
+        long lastReport = lastReportTimestamp.get();
+        if (now - lastReport <= reportIntervalMs || !lastReportTimestamp.compareAndSet(lastReport, now)) {
+            return;
         }
+        Instant timestamp = Instant.now();
+
+        statsPerOperation.forEach((operation, stats) -> {
+            long count = stats.count.sumThenReset();
+            if (count == 0) {
+                statsPerOperation.remove(operation, stats);
+                return;
+            }
+            Map<String, Object> extraFields = new HashMap<>();
+            extraFields.put("count", count);
+            extraFields.put("ttsp-ms-total", stats.synchronizationNs.sumThenReset() / 1_000_000.0);
+            extraFields.put("operation-ms-total", stats.operationNs.sumThenReset() / 1_000_000.0);
+            extraFields.put("duration-ms-max", stats.maxNs.getAndSet(0) / 1_000_000.0);
+
+            eventProcessor.processEvent(ProcessedJfrEvent.of(
+                    timestamp,
+                    "safepoint-operations",
+                    Map.of("operation", operation),
+                    "duration-ms-total",
+                    stats.totalNs.sumThenReset() / 1_000_000.0,
+                    extraFields));
+        });
+
+        eventProcessor.processEvent(ProcessedJfrEvent.of(
+                timestamp,
+                "safepoint-pending",
+                "pending",
+                safepoints.size(),
+                Map.of("evicted", evictedSafepoints.sumThenReset())));
     }
 
     @Override
     public List<JfrEventSettings> getEventSettings() {
         return List.of(
                 JfrEventSettings.of(JDK_SAFEPOINT_BEGIN, this),
-                JfrEventSettings.of(JDK_SAFEPOINT_END, this)
+                JfrEventSettings.of(JDK_SAFEPOINT_STATE_SYNCHRONIZATION, this),
+                JfrEventSettings.of(JDK_SAFEPOINT_CLEANUP, this),
+                JfrEventSettings.of(JDK_SAFEPOINT_END, this),
+                JfrEventSettings.of(JDK_EXECUTE_VM_OPERATION, this)
         );
     }
 }
@@ -17,7 +17,6 @@ package io.perfana.jfr.event;
 
 import io.perfana.jfr.*;
 import jdk.jfr.consumer.RecordedEvent;
-import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nonnull;
 import java.time.Instant;
@@ -52,7 +51,7 @@ public class SocketEvent implements OnJfrEvent, JfrEventProvider {
             this(host, address, checkDynamicPorts(port));
         }
 
-        @NotNull
+        @Nonnull
         private static String checkDynamicPorts(int port) {
             // IANA ephemeral ports are from 49152 to 65535, but some (linux) use 32768 to 61000
             // but found as low as 17000 in the wild on linux container with Java 21
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.*;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports the top-N threads by CPU load and by allocation rate.
+ * Thread names are normalized (digits replaced) and threads with the same normalized
+ * name are summed, so the number of reported series stays bounded.
+ */
+public class ThreadEvent implements OnJfrEvent, JfrEventProvider {
+
+    private static final Logger log = Logger.getLogger(ThreadEvent.class);
+
+    public static final String JDK_THREAD_CPU_LOAD = "jdk.ThreadCPULoad";
+    public static final String JDK_THREAD_ALLOCATION_STATISTICS = "jdk.ThreadAllocationStatistics";
+
+    private static final Duration period = Duration.ofSeconds(10);
+    // periodic events arrive in a burst once per period, report the previous burst on the next one
+    private static final long reportIntervalMs = period.toMillis() / 2;
+    private static final long evictAfterMs = period.toMillis() * 3;
+
+    private final JfrEventProcessor eventProcessor;
+    private final int topN;
+
+    private final AtomicLong lastCpuReportTimestamp = new AtomicLong(System.currentTimeMillis());
+    private final AtomicLong lastAllocationReportTimestamp = new AtomicLong(System.currentTimeMillis());
+
+    private final Map<String, ThreadCpu> cpuPerThreadName = new ConcurrentHashMap<>();
+    private final Map<String, ThreadAllocation> allocationPerThreadName = new ConcurrentHashMap<>();
+
+    // allocated bytes are cumulative per thread, remember the previous value to calculate a rate
+    private final Map<Long, AllocationSnapshot> previousAllocations = new ConcurrentHashMap<>();
+
+    public ThreadEvent(JfrEventProcessor eventProcessor, int topN) {
+        if (eventProcessor == null) throw new IllegalArgumentException("eventProcessor must not be null");
+        if (topN < 1) throw new IllegalArgumentException("topN must be at least 1: " + topN);
+        this.eventProcessor = eventProcessor;
+        this.topN = topN;
+    }
+
+    record ThreadCpu(String threadName, double user, double system, int threadCount) {
+        double total() {
+            return user + system;
+        }
+
+        ThreadCpu add(ThreadCpu other) {
+            return new ThreadCpu(threadName, user + other.user, system + other.system, threadCount + other.threadCount);
+        }
+    }
+
+    record ThreadAllocation(String threadName, double bytesPerSecond, int threadCount) {
+        ThreadAllocation add(ThreadAllocation other) {
+            return new ThreadAllocation(threadName, bytesPerSecond + other.bytesPerSecond, threadCount + other.threadCount);
+        }
+    }
+
+    private record AllocationSnapshot(long allocated, Instant timestamp, long seenMs) {}
+
+    @Override
+    public void onEvent(RecordedEvent event) {
+        String name = event.getEventType().getName();
+
+        if (JDK_THREAD_CPU_LOAD.equals(name)) {
+            reportWhenIntervalPassed(lastCpuReportTimestamp, this::reportCpu);
+            processThreadCpuLoad(event);
+        } else if (JDK_THREAD_ALLOCATION_STATISTICS.equals(name)) {
+            reportWhenIntervalPassed(lastAllocationReportTimestamp, this::reportAllocations);
+            processThreadAllocationStatistics(event);
+        } else {
+            log.debug("Ignoring unknown event: %s", name);
+        }
+    }
+
+    private void processThreadCpuLoad(RecordedEvent event) {
+        String threadName = JfrUtil.replaceDigits(JfrUtil.nullSafeGetThreadJavaName(event));
+        ThreadCpu cpu = new ThreadCpu(threadName, event.getFloat("user") * 100.0, event.getFloat("system") * 100.0, 1);
+        cpuPerThreadName.merge(threadName, cpu, ThreadCpu::add);
+    }
+
+    private void processThreadAllocationStatistics(RecordedEvent event) {
+        RecordedThread thread = event.getThread("thread");
+        if (thread == null) {
+            return;
+        }
+        long allocated = event.getLong("allocated");
+        Instant timestamp = event.getStartTime();
+
+        AllocationSnapshot previous = previousAllocations.put(thread.getJavaThreadId(),
+                new AllocationSnapshot(allocated, timestamp, System.currentTimeMillis()));
+        if (previous == null) {
+            // no rate for the first observation of a thread
+            return;
+        }
+        double seconds = Duration.between(previous.timestamp(), timestamp).toMillis() / 1000.0;
+        long allocatedInPeriod = allocated - previous.allocated();
+        if (seconds <= 0 || allocatedInPeriod <= 0) {
+            return;
+        }
+        String threadName = JfrUtil.replaceDigits(thread.getJavaName() == null ? JfrUtil.THREAD_NULL_NAME : thread.getJavaName());
+        allocationPerThreadName.merge(threadName, new ThreadAllocation(threadName, allocatedInPeriod / seconds, 1), ThreadAllocation::add);
+    }
+
+    private static void reportWhenIntervalPassed(AtomicLong lastReportTimestamp, Runnable report) {
+        long now = System.currentTimeMillis();
+        long lastReport = lastReportTimestamp.get();
+        if (now - lastReport > reportIntervalMs && lastReportTimestamp.compareAndSet(lastReport, now)) {
+            report.run();
+        }
+    }
+
+    private void reportCpu() {
+        List<ThreadCpu> top = JfrUtil.topN(cpuPerThreadName.values(), topN, Comparator.comparingDouble(ThreadCpu::total));
+        cpuPerThreadName.clear();
+
+        Instant timestamp = Instant.now();
+        for (int rank = 0; rank < top.size(); rank++) {
+            ThreadCpu cpu = top.get(rank);
+            Map<String, Object> extraFields = Map.of(
+                    "user", cpu.user(),
+                    "system", cpu.system(),
+                    "threadCount", cpu.threadCount(),
+                    "rank", rank + 1);
+            eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, "thread-cpu", Map.of("thread", cpu.threadName()), "cpu", cpu.total(), extraFields));
+        }
+    }
+
+    private void reportAllocations() {
+        List<ThreadAllocation> top = JfrUtil.topN(allocationPerThreadName.values(), topN, Comparator.comparingDouble(ThreadAllocation::bytesPerSecond));
+        allocationPerThreadName.clear();
+
+        Instant timestamp = Instant.now();
+        for (int rank = 0; rank < top.size(); rank++) {
+            ThreadAllocation allocation = top.get(rank);
+            Map<String, Object> extraFields = Map.of(
+                    "threadCount", allocation.threadCount(),
+                    "rank", rank + 1);
+            eventProcessor.processEvent(ProcessedJfrEvent.of(timestamp, "thread-allocation-rate-bytes", Map.of("thread", allocation.threadName()), "bytes", (long) allocation.bytesPerSecond(), extraFields));
+        }
+
+        // forget threads that have exited
+        long evictBefore = System.currentTimeMillis() - evictAfterMs;
+        previousAllocations.values().removeIf(snapshot -> snapshot.seenMs() < evictBefore);
+    }
+
+    @Override
+    public List<JfrEventSettings> getEventSettings() {
+        return List.of(
+                JfrEventSettings.of(JDK_THREAD_CPU_LOAD, this).withPeriod(period),
+                JfrEventSettings.of(JDK_THREAD_ALLOCATION_STATISTICS, this).withPeriod(period)
+        );
+    }
+}
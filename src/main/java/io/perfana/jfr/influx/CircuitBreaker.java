@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling a failing server for a while.
+ * <p>
+ * Closed: all calls are allowed. After a number of consecutive failures the breaker opens and no calls are
+ * allowed until the open time has passed. Then it is half-open: one caller gets to probe the server. When the
+ * probe succeeds the breaker closes, otherwise it opens again for twice as long, up to a maximum.
+ */
+final class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long initialOpenMs;
+    private final long maxOpenMs;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMs;
+    private long openUntil;
+
+    CircuitBreaker(int failureThreshold, long initialOpenMs, long maxOpenMs, LongSupplier clock) {
+        if (failureThreshold < 1) throw new IllegalArgumentException("failureThreshold must be at least 1: " + failureThreshold);
+        this.failureThreshold = failureThreshold;
+        this.initialOpenMs = initialOpenMs;
+        this.maxOpenMs = maxOpenMs;
+        this.clock = clock;
+        this.openMs = initialOpenMs;
+    }
+
+    /**
+     * @return true when the call is allowed, when half-open only for the one caller that is to probe the server
+     */
+    synchronized boolean allowRequest() {
+        return switch (state) {
+            case CLOSED -> true;
+            case HALF_OPEN -> false;
+            case OPEN -> {
+                if (clock.getAsLong() < openUntil) {
+                    yield false;
+                }
+                state = State.HALF_OPEN;
+                yield true;
+            }
+        };
+    }
+
+    synchronized boolean isProbing() {
+        return state == State.HALF_OPEN;
+    }
+
+    /**
+     * @return true when the breaker was not closed before
+     */
+    synchronized boolean onSuccess() {
+        boolean recovered = state != State.CLOSED;
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMs = initialOpenMs;
+        return recovered;
+    }
+
+    /**
+     * @return true when the closed breaker opened because of this failure, false when it was already open or half-open
+     */
+    synchronized boolean onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openMs = Math.min(openMs * 2, maxOpenMs);
+            open();
+            return false;
+        }
+        if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+            return true;
+        }
+        return false;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = clock.getAsLong() + openMs;
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    synchronized long openMs() {
+        return openMs;
+    }
+}
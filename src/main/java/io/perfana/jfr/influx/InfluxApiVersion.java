@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import io.perfana.jfr.JfrExporterException;
+
+/**
+ * The InfluxDB write API to use.
+ * <ul>
+ * <li>V1: {@code /write} with database, user and password</li>
+ * <li>V2: {@code /api/v2/write} with organization, bucket and token</li>
+ * <li>V3: {@code /api/v3/write_lp} with database and token</li>
+ * </ul>
+ */
+public enum InfluxApiVersion {
+    V1, V2, V3;
+
+    public static InfluxApiVersion parse(String version) {
+        return switch (version.toLowerCase()) {
+            case "1", "v1" -> V1;
+            case "2", "v2" -> V2;
+            case "3", "v3" -> V3;
+            default -> throw new JfrExporterException("Unknown InfluxDB API version '" + version + "', use v1, v2 or v3");
+        };
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import io.perfana.jfr.JfrExporterException;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The write url and authorization for the configured InfluxDB API version.
+ */
+record InfluxEndpoint(URI writeUri, URI pingUri, String authorization) {
+
+    static InfluxEndpoint of(InfluxWriterConfig config) {
+        Map<String, String> params = new LinkedHashMap<>();
+        String path;
+        String authorization = null;
+        switch (config.apiVersion()) {
+            case V1 -> {
+                path = "/write";
+                params.put("db", config.database());
+                params.put("u", config.username());
+                params.put("p", config.password());
+                params.put("precision", "n");
+            }
+            case V2 -> {
+                requireToken(config);
+                requireOrg(config);
+                path = "/api/v2/write";
+                params.put("org", config.org());
+                params.put("bucket", config.bucket() == null ? config.database() : config.bucket());
+                params.put("precision", "ns");
+                authorization = "Token " + config.token();
+            }
+            case V3 -> {
+                requireToken(config);
+                path = "/api/v3/write_lp";
+                params.put("db", config.database());
+                params.put("precision", "nanosecond");
+                authorization = "Bearer " + config.token();
+            }
+            default -> throw new IllegalStateException("Unexpected InfluxDB API version: " + config.apiVersion());
+        }
+
+        String query = params.entrySet().stream()
+                .map(e -> e.getKey() + "=" + URLEncoder.encode(e.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+        return new InfluxEndpoint(URI.create(config.url() + path + "?" + query), URI.create(config.url() + "/ping"), authorization);
+    }
+
+    private static void requireToken(InfluxWriterConfig config) {
+        if (config.token() == null || config.token().isBlank()) {
+            throw new JfrExporterException("InfluxDB API " + config.apiVersion() + " needs a token");
+        }
+    }
+
+    private static void requireOrg(InfluxWriterConfig config) {
+        if (config.org() == null || config.org().isBlank()) {
+            throw new JfrExporterException("InfluxDB API " + config.apiVersion() + " needs an org, use --influxOrg");
+        }
+    }
+
+    HttpRequest writeRequest(String lines, Duration timeout) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(writeUri)
+                .timeout(timeout)
+                .header("Content-Type", "text/plain; charset=utf-8")
+                .header("User-agent", "jfr-exporter/1.0")
+                .POST(HttpRequest.BodyPublishers.ofString(lines));
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The {@code /ping} endpoint is available in all API versions and does not touch the storage.
+     */
+    HttpRequest pingRequest(Duration timeout) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(pingUri)
+                .timeout(timeout)
+                .header("User-agent", "jfr-exporter/1.0")
+                .GET();
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        return builder.build();
+    }
+
+    static boolean isSuccess(int statusCode) {
+        return statusCode >= 200 && statusCode < 300;
+    }
+}
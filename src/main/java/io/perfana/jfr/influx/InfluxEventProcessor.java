@@ -15,9 +15,7 @@
  */
 package io.perfana.jfr.influx;
 
-import io.perfana.jfr.JfrEventProcessor;
-import io.perfana.jfr.Logger;
-import io.perfana.jfr.ProcessedJfrEvent;
+import io.perfana.jfr.*;
 
 public class InfluxEventProcessor implements JfrEventProcessor, AutoCloseable {
 
@@ -42,4 +40,41 @@ public class InfluxEventProcessor implements JfrEventProcessor, AutoCloseable {
     public void close() throws Exception {
         writer.close();
     }
+
+    public static class Factory implements JfrEventProcessorFactory {
+        @Override
+        public String name() {
+            return "influx";
+        }
+
+        @Override
+        public JfrEventProcessor create(Arguments arguments) {
+            if (arguments.getInfluxUrl() == null) {
+                throw new JfrExporterException("The influx event processor needs an influx url");
+            }
+            return new InfluxEventProcessor(new InfluxWriterNative(InfluxWriterConfig.of(arguments)));
+        }
+    }
+
+    /**
+     * Writes the line protocol to rolling files instead of sending it, e.g. when InfluxDB is not reachable during a test.
+     */
+    public static class FileFactory implements JfrEventProcessorFactory {
+        @Override
+        public String name() {
+            return "influx-file";
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public JfrEventProcessor create(Arguments arguments) {
+            return new InfluxEventProcessor(new InfluxWriterFile(
+                    arguments.getFileDirectory(),
+                    arguments.getTags(),
+                    arguments.isEnableStackTraces(),
+                    arguments.getFileMaxSizeBytes(),
+                    arguments.getFileMaxAge(),
+                    arguments.isFileCompression()));
+        }
+    }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import io.perfana.jfr.JfrExporterException;
+import io.perfana.jfr.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Bulk loads the line protocol files of {@link InfluxWriterFile} into InfluxDB.
+ * <p>
+ * The files are read in name order, which is the order they were written, and the lines are sent in
+ * batches of 5000 with up to 4 requests in flight, so the import is limited by InfluxDB and not by the
+ * round trip time of each request.
+ */
+public class InfluxImporter {
+
+    private static final Logger log = Logger.getLogger(InfluxImporter.class);
+
+    private static final int batchSize = 5_000;
+    private static final int maxRequestsInFlight = 4;
+
+    private final HttpClient httpClient;
+    private final InfluxEndpoint endpoint;
+
+    private final Semaphore requestsInFlight = new Semaphore(maxRequestsInFlight);
+    private final AtomicLong importedLines = new AtomicLong();
+    private final AtomicLong failedLines = new AtomicLong();
+
+    public record Result(int files, long importedLines, long failedLines) {}
+
+    public InfluxImporter(InfluxWriterConfig config) {
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(3))
+                .build();
+        this.endpoint = InfluxEndpoint.of(config);
+    }
+
+    /**
+     * Import all line protocol files in the directory, or a single file.
+     */
+    public Result importPath(Path path) {
+        List<Path> files = findFiles(path);
+        log.info("Importing %d files from %s", files.size(), path);
+        for (Path file : files) {
+            importFile(file);
+        }
+        // wait for the last requests
+        requestsInFlight.acquireUninterruptibly(maxRequestsInFlight);
+        requestsInFlight.release(maxRequestsInFlight);
+
+        Result result = new Result(files.size(), importedLines.get(), failedLines.get());
+        log.info("Imported %d lines from %d files, %d lines failed", result.importedLines(), result.files(), result.failedLines());
+        return result;
+    }
+
+    static List<Path> findFiles(Path path) {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            return files
+                    .filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(InfluxWriterFile.FILE_PREFIX)
+                                && (name.endsWith(InfluxWriterFile.FILE_SUFFIX) || name.endsWith(InfluxWriterFile.FILE_SUFFIX + InfluxWriterFile.GZIP_SUFFIX));
+                    })
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new JfrExporterException("Cannot list files in " + path, e);
+        }
+    }
+
+    private void importFile(Path file) {
+        log.debug("Importing %s", file);
+        StringBuilder batch = new StringBuilder(512 * 1024);
+        int lines = 0;
+        // the characters after lineStart are of a line that is not terminated yet
+        int lineStart = 0;
+        char[] chars = new char[64 * 1024];
+        try (InputStream input = open(file);
+             Reader reader = new InputStreamReader(input, StandardCharsets.UTF_8)) {
+            int read;
+            while ((read = reader.read(chars)) != -1) {
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (chars[i] != '\n') {
+                        continue;
+                    }
+                    batch.append(chars, start, i - start);
+                    start = i + 1;
+                    if (batch.length() > lineStart && batch.charAt(batch.length() - 1) == '\r') {
+                        batch.setLength(batch.length() - 1);
+                    }
+                    if (batch.length() == lineStart) {
+                        continue;
+                    }
+                    batch.append('\n');
+                    if (++lines == batchSize) {
+                        send(batch.toString(), lines);
+                        batch.setLength(0);
+                        lines = 0;
+                    }
+                    lineStart = batch.length();
+                }
+                batch.append(chars, start, read - start);
+            }
+        } catch (IOException e) {
+            log.error("Failed to read %s after %d lines of the last batch: (%s) %s", file, lines, e.getClass().getSimpleName(), e.getMessage());
+        }
+        // a file that is cut off, e.g. on a crash, is imported up to the last complete line
+        if (batch.length() > lineStart) {
+            log.info("Skipping the last line of %s, it is not complete: %s", file, batch.substring(lineStart));
+            batch.setLength(lineStart);
+        }
+        if (lines > 0) {
+            send(batch.toString(), lines);
+        }
+    }
+
+    private static InputStream open(Path file) throws IOException {
+        InputStream input = Files.newInputStream(file);
+        return file.getFileName().toString().endsWith(InfluxWriterFile.GZIP_SUFFIX)
+                ? new GZIPInputStream(input, 64 * 1024)
+                : input;
+    }
+
+    private void send(String data, int lines) {
+        requestsInFlight.acquireUninterruptibly();
+
+        httpClient.sendAsync(endpoint.writeRequest(data, Duration.ofMinutes(2)), HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, exception) -> {
+                    try {
+                        if (exception != null) {
+                            failedLines.addAndGet(lines);
+                            log.error("Failed to import %d lines: (%s) %s", lines, exception.getClass().getSimpleName(), exception.getMessage());
+                        } else if (!InfluxEndpoint.isSuccess(response.statusCode())) {
+                            failedLines.addAndGet(lines);
+                            log.error("Failed to import %d lines: (%d) %s", lines, response.statusCode(), response.body());
+                        } else {
+                            importedLines.addAndGet(lines);
+                        }
+                    } finally {
+                        requestsInFlight.release();
+                    }
+                });
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import io.perfana.jfr.ProcessedJfrEvent;
+
+import javax.annotation.Nonnull;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Encodes events in the InfluxDB line protocol, shared by the writers that send or store lines.
+ */
+final class InfluxLineProtocol {
+
+    private InfluxLineProtocol() {}
+
+    static String line(ProcessedJfrEvent event, String generatedTags, boolean enableStacktraces) {
+
+        // Line protocol: https://github.com/influxdata/influxdb/blob/master/tsdb/README.md
+        // jdk.SafepointEnd,service=afterburner duration=0.172 1691147875098417583
+
+        Instant timestamp = event.timestamp() == null ? Instant.now() : event.timestamp();
+        long timestampEpochNano = InfluxWriter.toEpochNs(timestamp);
+
+        String extraTags = event.tags().isEmpty() ? "" : tags(event.tags());
+        String key = event.measurementName() + generatedTags + extraTags;
+
+        // note: field String values must be quoted, unlike tags
+        Map<String, String> fields = new HashMap<>();
+        fields.put(event.field(), String.valueOf(event.value()));
+
+        if (!event.stacktrace().isEmpty()) {
+            String stacktrace = InfluxWriter.formatStacktrace(event.stacktrace(), enableStacktraces);
+            fields.put("stacktrace", escapeField(stacktrace));
+        }
+
+        if (!event.extraFields().isEmpty()) {
+            for (Map.Entry<String, Object> entry : event.extraFields().entrySet()) {
+                Object value = entry.getValue();
+                String escapedValue = escapeField(value);
+                fields.put(entry.getKey(), escapedValue);
+            }
+        }
+
+        String generatedFields = fields.entrySet().stream()
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .collect(Collectors.joining(","));
+
+        return key + " " + generatedFields + " " + timestampEpochNano;
+    }
+
+    /**
+     * @return the tags prefixed with a comma, or empty when there are no tags
+     */
+    static @Nonnull String tags(Map<String,String> origTags) {
+        if (origTags.isEmpty()) {
+            return "";
+        }
+        else if (origTags.size() == 1) {
+            Map.Entry<String,String> entry = origTags.entrySet().iterator().next();
+            return "," + entry.getKey() + "=" + escapeTag(entry.getValue());
+        }
+        else {
+            // tags are sorted alphabetically for better performance in InfluxDB
+            // (is this worth creating a 'heavy' TreeMap() here?)
+            SortedMap<String, String> sortedTags = new TreeMap<>();
+
+            for (Map.Entry<String, String> entry : origTags.entrySet()) {
+                String escapedValue = escapeTag(entry.getValue());
+                sortedTags.put(entry.getKey(), escapedValue);
+            }
+
+            return "," + sortedTags.entrySet().stream()
+                    .map(e -> e.getKey() + "=" + e.getValue())
+                    .collect(Collectors.joining(","));
+        }
+    }
+
+    @Nonnull
+    private static String escapeField(Object value) {
+        if (value == null) {
+            return "\"\"";
+        }
+        if (value instanceof Number) {
+            return value.toString();
+        }
+        if (value instanceof Boolean) {
+            return value.toString();
+        }
+        String stringValue = value.toString();
+        if (stringValue.contains("\"") || stringValue.contains("\\")) {
+            return "\"" + escapeSlashesAndDoubleQuotes(value.toString()) + "\"";
+        }
+        return "\"" + value + "\"";
+    }
+
+    @Nonnull
+    private static String escapeTag(String value) {
+        if (value == null) {
+            return "<null>";
+        }
+        if (value.isBlank()) {
+            return "<blank>";
+        }
+        return value.replace(" ", "\\ ").replace(",", "\\,");
+    }
+
+    private static String escapeSlashesAndDoubleQuotes(String text) {
+        // backslashes first, otherwise the backslash of an escaped double quote is escaped again
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    static int utf8Length(String text) {
+        int length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                // two bytes up to 0x7FF, three bytes above, a surrogate pair is four bytes for two chars
+                length += c < 0x800 || Character.isSurrogate(c) ? 1 : 2;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import io.perfana.jfr.JfrExporterException;
+
+/**
+ * What to do with the batches while InfluxDB is unavailable.
+ * <ul>
+ * <li>BUFFER: keep the latest batches up to a maximum size and send them when InfluxDB is back</li>
+ * <li>DROP: drop the batches</li>
+ * </ul>
+ */
+public enum InfluxOutagePolicy {
+    BUFFER, DROP;
+
+    public static InfluxOutagePolicy parse(String policy) {
+        return switch (policy.toLowerCase()) {
+            case "buffer" -> BUFFER;
+            case "drop" -> DROP;
+            default -> throw new JfrExporterException("Unknown InfluxDB outage policy '" + policy + "', use buffer or drop");
+        };
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase();
+    }
+}
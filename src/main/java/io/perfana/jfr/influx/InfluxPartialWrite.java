@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the number of dropped lines from the error response of a partial write, where InfluxDB
+ * wrote the valid lines of a batch and rejected the others:
+ * <ul>
+ * <li>v1: {@code partial write: unable to parse '...': invalid field format dropped=1}</li>
+ * <li>v2: {@code partial write error (5 accepted): 5 out of 10 points rejected}</li>
+ * <li>v3: {@code {"error":"partial write of line protocol occurred","data":[{"line_number":2,...}]}}</li>
+ * </ul>
+ */
+final class InfluxPartialWrite {
+
+    private static final Pattern droppedV1 = Pattern.compile("dropped=(\\d+)");
+    private static final Pattern rejectedV2 = Pattern.compile("(\\d+) out of \\d+ points rejected");
+    private static final Pattern lineNumberV3 = Pattern.compile("\"line_number\"\\s*:");
+
+    private InfluxPartialWrite() {
+    }
+
+    /**
+     * @return the number of lines that are not written, or -1 when the response is not a partial write
+     */
+    static int droppedLines(String responseBody) {
+        if (responseBody == null || !responseBody.contains("partial write")) {
+            return -1;
+        }
+        Matcher dropped = droppedV1.matcher(responseBody);
+        if (dropped.find()) {
+            return Integer.parseInt(dropped.group(1));
+        }
+        Matcher rejected = rejectedV2.matcher(responseBody);
+        if (rejected.find()) {
+            return Integer.parseInt(rejected.group(1));
+        }
+        Matcher lineNumbers = lineNumberV3.matcher(responseBody);
+        int count = 0;
+        while (lineNumbers.find()) {
+            count++;
+        }
+        // a partial write without details: the lines that are not written are unknown
+        return count > 0 ? count : -1;
+    }
+}
@@ -16,8 +16,8 @@
 package io.perfana.jfr.influx;
 
 import io.perfana.jfr.ProcessedJfrEvent;
-import org.jetbrains.annotations.NotNull;
 
+import javax.annotation.Nonnull;
 import java.time.Instant;
 import java.util.List;
 
@@ -33,7 +33,7 @@ public interface InfluxWriter extends AutoCloseable {
         return (timestamp.toEpochMilli() * 1_000_000) + timestamp.getNano();
     }
 
-    @NotNull
+    @Nonnull
     static String formatStacktrace(List<String> stacktrace1, boolean enableStacktraces) {
         return enableStacktraces
                 ? String.join(STACKTRACE_DELIMITER, stacktrace1)
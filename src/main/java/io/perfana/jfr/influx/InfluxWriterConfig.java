@@ -15,6 +15,8 @@
  */
 package io.perfana.jfr.influx;
 
+import io.perfana.jfr.Arguments;
+
 import java.util.Map;
 
 public record InfluxWriterConfig(
@@ -24,5 +26,37 @@ public record InfluxWriterConfig(
         String password,
         String retentionPolicy,
         Map<String,String> tags,
-        boolean enableStacktraces)
-{ }
\ No newline at end of file
+        boolean enableStacktraces,
+        InfluxApiVersion apiVersion,
+        String org,
+        String bucket,
+        String token,
+        InfluxOutagePolicy outagePolicy,
+        int batchSize)
+{
+    /**
+     * Configuration for the InfluxDB v1 API.
+     */
+    public InfluxWriterConfig(String url, String database, String username, String password,
+                              String retentionPolicy, Map<String,String> tags, boolean enableStacktraces) {
+        this(url, database, username, password, retentionPolicy, tags, enableStacktraces, InfluxApiVersion.V1, null, null, null, InfluxOutagePolicy.BUFFER, 1_000);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static InfluxWriterConfig of(Arguments arguments) {
+        return new InfluxWriterConfig(
+                arguments.getInfluxUrl(),
+                arguments.getInfluxDatabase(),
+                arguments.getInfluxUser(),
+                arguments.getInfluxPassword(),
+                arguments.getInfluxRetentionPolicy(),
+                arguments.getTags(),
+                arguments.isEnableStackTraces(),
+                arguments.getInfluxApiVersion(),
+                arguments.getInfluxOrg(),
+                arguments.getInfluxBucket(),
+                arguments.getInfluxToken(),
+                arguments.getInfluxOutagePolicy(),
+                arguments.getInfluxBatchSize());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import io.perfana.jfr.ExporterTelemetry;
+import io.perfana.jfr.JfrExporterException;
+import io.perfana.jfr.Logger;
+import io.perfana.jfr.ProcessedJfrEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes line protocol to rolling files, to import into InfluxDB later with {@link InfluxImporter}.
+ * <p>
+ * Lines are batched like {@link InfluxWriterNative}: per 1000 lines or 5 seconds. With compression each batch
+ * is written as a separate gzip block, so a file that is cut off, e.g. on a crash, can still be read up to
+ * the last complete batch. A new file is started when the file is larger than the maximum size or older
+ * than the maximum age.
+ */
+public class InfluxWriterFile implements InfluxWriter {
+
+    private static final Logger log = Logger.getLogger(InfluxWriterFile.class);
+
+    static final String FILE_PREFIX = "jfr-";
+    static final String FILE_SUFFIX = ".lp";
+    static final String GZIP_SUFFIX = ".gz";
+
+    private static final DateTimeFormatter fileTimestamp =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private static final int maxBatchSize = 1_000;
+    private static final int maxBatchAgeMs = 5_000;
+
+    private final Path directory;
+    private final long maxFileBytes;
+    private final long maxFileAgeMs;
+    private final boolean compress;
+
+    private final boolean enableStacktraces;
+    private final String generatedTags;
+
+    private final Object bufferLock = new Object();
+    private final StringBuilder batch = new StringBuilder(64 * 1024);
+    private final ReusableOutputStream compressed = new ReusableOutputStream(16 * 1024);
+    private int batchLines;
+    private long oldestEventMillis;
+
+    private final ExporterTelemetry telemetry = ExporterTelemetry.global();
+    private long nextFlush = System.currentTimeMillis() + maxBatchAgeMs;
+
+    private FileChannel file;
+    private long fileBytes;
+    private long fileOpenedMs;
+    private int fileSequence;
+
+    public InfluxWriterFile(Path directory, Map<String, String> tags, boolean enableStacktraces,
+                            long maxFileBytes, Duration maxFileAge, boolean compress) {
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileAgeMs = maxFileAge.toMillis();
+        this.compress = compress;
+        this.enableStacktraces = enableStacktraces;
+        this.generatedTags = InfluxLineProtocol.tags(tags);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new JfrExporterException("Cannot create directory " + directory, e);
+        }
+    }
+
+    @Override
+    public boolean isHealthy() {
+        return Files.isWritable(directory);
+    }
+
+    @Override
+    public void writeMetricPoint(ProcessedJfrEvent event) {
+        String line = InfluxLineProtocol.line(event, generatedTags, enableStacktraces);
+        synchronized (bufferLock) {
+            batch.append(line).append('\n');
+            batchLines++;
+            telemetry.addBufferBytes(line.length() + 1);
+            if (event.timestamp() != null && (oldestEventMillis == 0 || event.timestamp().toEpochMilli() < oldestEventMillis)) {
+                oldestEventMillis = event.timestamp().toEpochMilli();
+            }
+            if (batchLines >= maxBatchSize || nextFlush < System.currentTimeMillis()) {
+                flush();
+            }
+        }
+    }
+
+    private void flush() {
+        nextFlush = System.currentTimeMillis() + maxBatchAgeMs;
+        if (batchLines == 0) {
+            return;
+        }
+        log.debug("Writing %d lines to file", batchLines);
+        long startNanos = System.nanoTime();
+        try {
+            ByteBuffer bytes = encode();
+            rollWhenNeeded();
+            while (bytes.hasRemaining()) {
+                fileBytes += file.write(bytes);
+            }
+            telemetry.recordBatch(batchLines, System.nanoTime() - startNanos, oldestEventMillis);
+        } catch (IOException e) {
+            telemetry.recordWriteError(batchLines);
+            log.error("Failed to write %d lines to file: (%s) %s", batchLines, e.getClass().getSimpleName(), e.getMessage());
+        } finally {
+            telemetry.addBufferBytes(-batch.length());
+            batch.setLength(0);
+            batchLines = 0;
+            oldestEventMillis = 0;
+        }
+    }
+
+    private ByteBuffer encode() throws IOException {
+        byte[] text = batch.toString().getBytes(StandardCharsets.UTF_8);
+        if (!compress) {
+            return ByteBuffer.wrap(text);
+        }
+        compressed.reset();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, 8 * 1024)) {
+            gzip.write(text);
+        }
+        return ByteBuffer.wrap(compressed.buffer(), 0, compressed.size());
+    }
+
+    private void rollWhenNeeded() throws IOException {
+        long now = System.currentTimeMillis();
+        if (file != null && fileBytes < maxFileBytes && now - fileOpenedMs < maxFileAgeMs) {
+            return;
+        }
+        if (file != null) {
+            file.close();
+        }
+        // the process id keeps the names unique when several exporters write to the same directory
+        String name = FILE_PREFIX + fileTimestamp.format(Instant.ofEpochMilli(now)) + "-" + ProcessHandle.current().pid()
+                + "-" + fileSequence++ + FILE_SUFFIX + (compress ? GZIP_SUFFIX : "");
+        Path path = directory.resolve(name);
+        log.info("Writing metrics to %s", path);
+        file = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        fileBytes = 0;
+        fileOpenedMs = now;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (bufferLock) {
+            flush();
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        }
+    }
+
+    private static class ReusableOutputStream extends ByteArrayOutputStream {
+        ReusableOutputStream(int size) {
+            super(size);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
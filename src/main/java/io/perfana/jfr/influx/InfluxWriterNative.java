@@ -15,23 +15,32 @@
  */
 package io.perfana.jfr.influx;
 
+import io.perfana.jfr.ExporterTelemetry;
+import io.perfana.jfr.JfrExporterException;
 import io.perfana.jfr.Logger;
 import io.perfana.jfr.ProcessedJfrEvent;
-import org.jetbrains.annotations.NotNull;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
-import java.net.URI;
-import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the events in batches with the Java http client.
+ * <p>
+ * A batch is sent per 1000 lines (configurable), 1 MB or 5 seconds. When InfluxDB rejects a batch, it is split in halves
+ * that are sent again, until only the lines that InfluxDB does not accept are left. Those are quarantined:
+ * logged and dropped. After a partial write the batch is not split, InfluxDB has written the valid lines.
+ * <p>
+ * When InfluxDB is unavailable, a circuit breaker stops the writes after a few failures, so the event
+ * threads do not wait for timeouts. After a while one write first pings InfluxDB to probe whether it is back.
+ * In the meantime the batches are buffered up to about 16 MB, or dropped, depending on the {@link InfluxOutagePolicy}.
+ */
 public class InfluxWriterNative implements InfluxWriter {
 
     private static final Logger log = Logger.getLogger(InfluxWriterNative.class);
@@ -39,20 +48,79 @@ public class InfluxWriterNative implements InfluxWriter {
     private final HttpClient httpClient;
 
     private final List<String> metricsBuffer = new ArrayList<>();
+    private long bufferBytes;
+    private long oldestEventMillis;
+
+    private final ExporterTelemetry telemetry = ExporterTelemetry.global();
 
     private final AtomicLong nextFlush = new AtomicLong(System.currentTimeMillis());
 
-    private static final int maxBatchSize = 1_000;
     private static final int maxBatchAgeMs = 5_000;
+    private static final long maxBatchBytes = 1024 * 1024;
 
     private final Object bufferLock = new Object();
 
-    private final URI writeUri;
+    private final InfluxEndpoint endpoint;
 
     private final boolean enableStacktraces;
 
     private final String generatedTags;
 
+    private final int maxBatchSize;
+
+    private record Batch(List<String> lines, long bytes, long oldestEventMillis) {
+        int size() {
+            return lines.size();
+        }
+
+        String data() {
+            return String.join("\n", lines);
+        }
+
+        Batch part(int from, int to) {
+            List<String> partLines = lines.subList(from, to);
+            long partBytes = 0;
+            for (String line : partLines) {
+                partBytes += InfluxLineProtocol.utf8Length(line) + 1;
+            }
+            return new Batch(partLines, partBytes, oldestEventMillis);
+        }
+    }
+
+    /**
+     * @param statusCode the http status code, or -1 when there is no response
+     */
+    private record Response(int statusCode, String body, long latencyNanos) {
+        boolean isUnavailable() {
+            return statusCode == -1 || statusCode == 429 || statusCode >= 500;
+        }
+    }
+
+    private enum WriteResult { WRITTEN, REJECTED, UNAVAILABLE }
+
+    private static final Duration writeTimeout = Duration.ofSeconds(10);
+    private static final Duration pingTimeout = Duration.ofSeconds(3);
+
+    private static final int failureThreshold = 3;
+    private static final long initialOpenMs = 5_000;
+    private static final long maxOpenMs = 60_000;
+
+    private static final long maxPendingBytes = 16L * 1024 * 1024;
+
+    // to find the rejected lines of a batch of 1000 lines takes about 20 requests per rejected line
+    private static final int maxSplitRequests = 64;
+    private static final int maxLoggedQuarantinedLines = 10;
+    private static final int maxLoggedLineLength = 500;
+
+    private final InfluxOutagePolicy outagePolicy;
+    private final CircuitBreaker circuitBreaker;
+
+    private final Object pendingLock = new Object();
+    private final Deque<Batch> pendingBatches = new ArrayDeque<>();
+    private long pendingBytes;
+
+    private final LongAdder quarantinedLines = new LongAdder();
+
     public InfluxWriterNative(InfluxWriterConfig config) {
 
         this.httpClient = HttpClient.newBuilder()
@@ -60,200 +128,314 @@ public class InfluxWriterNative implements InfluxWriter {
                 .connectTimeout(Duration.ofSeconds(3))
                 .build();
 
-        Map<String, String> requestParams = initializeRequestParams(config);
-        this.writeUri = createWriteUri(requestParams, config.url());
+        this.endpoint = InfluxEndpoint.of(config);
 
         this.enableStacktraces = config.enableStacktraces();
 
         // prefixed with comma if tags is not empty
-        this.generatedTags = prepareTagsForInflux(config.tags());
+        this.generatedTags = InfluxLineProtocol.tags(config.tags());
+
+        if (config.batchSize() < 1) {
+            throw new JfrExporterException("The InfluxDB batch size must be at least 1: " + config.batchSize());
+        }
+        this.maxBatchSize = config.batchSize();
+
+        this.outagePolicy = config.outagePolicy();
+        this.circuitBreaker = new CircuitBreaker(failureThreshold, initialOpenMs, maxOpenMs, System::currentTimeMillis);
     }
+
+    /**
+     * @return false when the circuit breaker is open, otherwise whether InfluxDB answers the ping
+     */
     @Override
     public boolean isHealthy() {
-        // TODO: implement health check
-        return true;
+        return circuitBreaker.state() != CircuitBreaker.State.OPEN && ping();
     }
 
     @Override
     public void writeMetricPoint(ProcessedJfrEvent event) {
 
-        // Line protocol: https://github.com/influxdata/influxdb/blob/master/tsdb/README.md
-        // jdk.SafepointEnd,service=afterburner duration=0.172 1691147875098417583
-
-        Instant timestamp = event.timestamp() == null ? Instant.now() : event.timestamp();
-        long timestampEpochNano = InfluxWriter.toEpochNs(timestamp);
-
-        String extraTags = event.tags().isEmpty() ? "" : prepareTagsForInflux(event.tags());
-        String key = event.measurementName() + generatedTags + extraTags;
-
-        // note: field String values must be quoted, unlike tags
-        Map<String, String> fields = new HashMap<>();
-        fields.put(event.field(), String.valueOf(event.value()));
-
-        if (!event.stacktrace().isEmpty()) {
-            String stacktrace = InfluxWriter.formatStacktrace(event.stacktrace(), enableStacktraces);
-            fields.put("stacktrace", escapeFieldForInflux(stacktrace));
-        }
-
-        if (!event.extraFields().isEmpty()) {
-            for (Map.Entry<String, Object> entry : event.extraFields().entrySet()) {
-                Object value = entry.getValue();
-                String escapedValue = escapeFieldForInflux(value);
-                fields.put(entry.getKey(), escapedValue);
-            }
-        }
-
-        String generatedFields = fields.entrySet().stream()
-                .map(e -> e.getKey() + "=" + e.getValue())
-                .collect(Collectors.joining(","));
-
         boolean useBuffer = true;
 
-        String dataToSend = key + " " + generatedFields + " " + timestampEpochNano;
+        String dataToSend = InfluxLineProtocol.line(event, generatedTags, enableStacktraces);
+        long eventMillis = event.timestamp() == null ? 0 : event.timestamp().toEpochMilli();
 
         if (useBuffer) {
-            bufferAndSendToInflux(dataToSend);
+            bufferAndSendToInflux(dataToSend, eventMillis);
         } else {
-            sendInfluxData(dataToSend);
+            sendInfluxData(new Batch(List.of(dataToSend), InfluxLineProtocol.utf8Length(dataToSend), eventMillis));
         }
     }
 
-    private static @NotNull String prepareTagsForInflux(Map<String,String> origTags) {
-        if (origTags.isEmpty()) {
-            return "";
-        }
-        else if (origTags.size() == 1) {
-            Map.Entry<String,String> entry = origTags.entrySet().iterator().next();
-            return "," + entry.getKey() + "=" + escapeTagForInflux(entry.getValue());
-        }
-        else {
-            // tags are sorted alphabetically for better performance in InfluxDB
-            // (is this worth creating a 'heavy' TreeMap() here?)
-            SortedMap<String, String> sortedTags = new TreeMap<>();
-
-            for (Map.Entry<String, String> entry : origTags.entrySet()) {
-                String escapedValue = escapeTagForInflux(entry.getValue());
-                sortedTags.put(entry.getKey(), escapedValue);
-            }
-
-            return "," + sortedTags.entrySet().stream()
-                    .map(e -> e.getKey() + "=" + e.getValue())
-                    .collect(Collectors.joining(","));
-        }
-    }
-
-    private void bufferAndSendToInflux(String data) {
+    private void bufferAndSendToInflux(String data, long eventMillis) {
         log.trace("Buffering data: %s", data);
-        Optional<String> metricsToWrite = addDataToBufferAndReturnAllWhenBufferIsFullThreadSafe(data);
+        Optional<Batch> metricsToWrite = addDataToBufferAndReturnAllWhenBufferIsFullThreadSafe(data, eventMillis);
         metricsToWrite.ifPresent(this::sendInfluxData);
     }
 
-    private Optional<String> addDataToBufferAndReturnAllWhenBufferIsFullThreadSafe(String data) {
+    private Optional<Batch> addDataToBufferAndReturnAllWhenBufferIsFullThreadSafe(String data, long eventMillis) {
+        long lineBytes = InfluxLineProtocol.utf8Length(data) + 1;
         synchronized (bufferLock) {
+            // send the buffer before the line, to stay below the maximum batch bytes
+            Optional<Batch> fullBatch = bufferBytes + lineBytes > maxBatchBytes ? flushBuffer() : Optional.empty();
             metricsBuffer.add(data);
-            if (bufferIsFullOrExpired()) {
+            bufferBytes += lineBytes;
+            telemetry.addBufferBytes(lineBytes);
+            if (eventMillis > 0 && (oldestEventMillis == 0 || eventMillis < oldestEventMillis)) {
+                oldestEventMillis = eventMillis;
+            }
+            if (fullBatch.isEmpty() && bufferIsFullOrExpired()) {
                 return flushBuffer();
             }
+            return fullBatch;
         }
-        return Optional.empty();
     }
 
-    @NotNull
-    private Optional<String> flushBuffer() {
+    @Nonnull
+    private Optional<Batch> flushBuffer() {
+        if (metricsBuffer.isEmpty()) {
+            clearBuffer();
+            return Optional.empty();
+        }
         log.debug("Flushing %d metrics to InfluxDB", metricsBuffer.size());
-        String allData = String.join("\n", metricsBuffer);
+        Batch batch = new Batch(List.copyOf(metricsBuffer), bufferBytes, oldestEventMillis);
         clearBuffer();
-        return Optional.of(allData);
+        return Optional.of(batch);
     }
 
     private void clearBuffer() {
         nextFlush.set(System.currentTimeMillis() + maxBatchAgeMs);
         metricsBuffer.clear();
+        telemetry.addBufferBytes(-bufferBytes);
+        bufferBytes = 0;
+        oldestEventMillis = 0;
     }
 
     private boolean bufferIsFullOrExpired() {
-        return (metricsBuffer.size() > maxBatchSize) || (nextFlush.get() < System.currentTimeMillis());
+        return (metricsBuffer.size() >= maxBatchSize) || (nextFlush.get() < System.currentTimeMillis());
     }
 
-    private void sendInfluxData(String data) {
-        log.trace("Writing data to InfluxDB: %s", data);
+    private void sendInfluxData(Batch batch) {
+        if (!circuitBreaker.allowRequest()) {
+            whenUnavailable(batch);
+            return;
+        }
+        if (circuitBreaker.isProbing() && !ping()) {
+            circuitBreaker.onFailure();
+            log.debug("InfluxDB is still unavailable, next probe in %d ms", circuitBreaker.openMs());
+            whenUnavailable(batch);
+            return;
+        }
+        if (write(batch) == WriteResult.UNAVAILABLE) {
+            onUnavailable();
+            whenUnavailable(batch);
+            return;
+        }
+        if (circuitBreaker.onSuccess()) {
+            log.info("InfluxDB is available again, sending %d buffered batches", pendingBatchCount());
+        }
+        sendPending();
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(writeUri)
-                .timeout(Duration.ofMinutes(2))
-                .header("Content-Type", "service/x-www-form-urlencoded")
-                .header("User-agent", "jfr-exporter/1.0")
-                .POST(HttpRequest.BodyPublishers.ofString(data))
-                .build();
+    private WriteResult write(Batch batch) {
+        Response response = post(batch);
+        if (InfluxEndpoint.isSuccess(response.statusCode())) {
+            return WriteResult.WRITTEN;
+        }
+        if (response.isUnavailable()) {
+            return WriteResult.UNAVAILABLE;
+        }
+        return writeRejected(batch, response);
+    }
+
+    private Response post(Batch batch) {
+        log.trace("Writing %d lines to InfluxDB", batch.size());
 
+        HttpRequest request = endpoint.writeRequest(batch.data(), writeTimeout);
+
+        long startNanos = System.nanoTime();
         try {
             HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
             int statusCode = response.statusCode();
             log.trace("InfluxDB response: %d %s", statusCode, response.body());
-            if (statusCode != 204) {
-                log.error("Failed to send request to InfluxDB: (%d) %s", statusCode, response.body());
+            if (InfluxEndpoint.isSuccess(statusCode)) {
+                telemetry.recordBatch(batch.size(), System.nanoTime() - startNanos, batch.oldestEventMillis());
+            } else {
+                telemetry.recordWriteError(0);
+                log.debug("InfluxDB did not accept %d lines: (%d) %s", batch.size(), statusCode, response.body());
             }
+            return new Response(statusCode, response.body(), System.nanoTime() - startNanos);
         } catch (IOException e) {
-            log.error("Failed to send request to InfluxDB: (%s) %s", e.getClass().getSimpleName(), e.getMessage());
+            telemetry.recordWriteError(0);
+            log.debug("InfluxDB is unavailable: (%s) %s", e.getClass().getSimpleName(), e.getMessage());
+            return new Response(-1, e.getMessage(), 0);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            telemetry.recordWriteError(0);
             log.error("Failed to send request to InfluxDB: (%s) %s", e.getClass().getSimpleName(), e.getMessage());
+            return new Response(-1, e.getMessage(), 0);
         }
-
     }
 
-    @NotNull
-    private URI createWriteUri(Map<String, String> requestParams1, String baseUrl) {
-        String requestParamsString = requestParams1.entrySet().stream()
-                .map(e -> e.getKey() + "=" + URLEncoder.encode(e.getValue(), StandardCharsets.UTF_8))
-                .collect(Collectors.joining("&"));
+    /**
+     * Split the rejected batch in halves and send these again, until the rejected lines are found.
+     * When InfluxDB becomes unavailable in between, the whole batch is buffered: sending a line again
+     * overwrites the same point, so the parts that were already written are not duplicated.
+     */
+    private WriteResult writeRejected(Batch batch, Response response) {
+        Deque<Batch> parts = new ArrayDeque<>();
+        Deque<Response> rejections = new ArrayDeque<>();
+        parts.push(batch);
+        rejections.push(response);
+        int requests = 0;
+        while (!parts.isEmpty()) {
+            Batch part = parts.pop();
+            Response rejection = rejections.pop();
+
+            int droppedLines = InfluxPartialWrite.droppedLines(rejection.body());
+            if (droppedLines >= 0) {
+                int dropped = Math.min(droppedLines, part.size());
+                telemetry.recordDropped(dropped);
+                telemetry.recordBatch(part.size() - dropped, rejection.latencyNanos(), part.oldestEventMillis());
+                log.error("InfluxDB wrote %d of %d lines: (%d) %s", part.size() - dropped, part.size(), rejection.statusCode(), rejection.body());
+                continue;
+            }
+            if (part.size() == 1) {
+                quarantine(part.lines().get(0), rejection);
+                continue;
+            }
+            if (!isLineError(rejection.statusCode()) || requests >= maxSplitRequests) {
+                telemetry.recordDropped(part.size());
+                log.error("Failed to send %d lines to InfluxDB: (%d) %s", part.size(), rejection.statusCode(), rejection.body());
+                continue;
+            }
 
-        return URI.create(baseUrl + "/write?" + requestParamsString);
+            int middle = part.size() / 2;
+            Batch[] halves = { part.part(0, middle), part.part(middle, part.size()) };
+            for (Batch half : halves) {
+                Response halfResponse = post(half);
+                requests++;
+                if (halfResponse.isUnavailable()) {
+                    return WriteResult.UNAVAILABLE;
+                }
+                if (!InfluxEndpoint.isSuccess(halfResponse.statusCode())) {
+                    parts.push(half);
+                    rejections.push(halfResponse);
+                }
+            }
+        }
+        return WriteResult.REJECTED;
     }
 
-    private static Map<String, String> initializeRequestParams(InfluxWriterConfig config) {
-        var params = new HashMap<String, String>();
-        params.put("db", config.database());
-        params.put("u", config.username());
-        params.put("p", config.password());
-        params.put("precision", "n");
-        return Collections.unmodifiableMap(params);
+    /**
+     * Bad request, too large, or unprocessable: errors in the data that are worth splitting the batch for.
+     * Errors such as 401 or 404 are the same for each line.
+     */
+    private static boolean isLineError(int statusCode) {
+        return statusCode == 400 || statusCode == 413 || statusCode == 422;
+    }
+
+    private void quarantine(String line, Response rejection) {
+        telemetry.recordDropped(1);
+        quarantinedLines.increment();
+        String shortLine = line.length() > maxLoggedLineLength ? line.substring(0, maxLoggedLineLength) + "..." : line;
+        // the first lines are logged, later ones only in debug
+        if (quarantinedLines.sum() <= maxLoggedQuarantinedLines) {
+            log.error("InfluxDB rejected line (%d) %s: %s", rejection.statusCode(), rejection.body(), shortLine);
+        } else {
+            log.debug("InfluxDB rejected line (%d) %s: %s", rejection.statusCode(), rejection.body(), shortLine);
+        }
     }
 
-    @NotNull
-    private static String escapeFieldForInflux(Object value) {
-        if (value == null) {
-            return "\"\"";
+    private boolean ping() {
+        try {
+            HttpResponse<Void> response = httpClient.send(endpoint.pingRequest(pingTimeout), HttpResponse.BodyHandlers.discarding());
+            return InfluxEndpoint.isSuccess(response.statusCode());
+        } catch (IOException e) {
+            log.trace("InfluxDB ping failed: (%s) %s", e.getClass().getSimpleName(), e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
-        if (value instanceof Number) {
-            return value.toString();
+    }
+
+    private void onUnavailable() {
+        if (circuitBreaker.onFailure()) {
+            log.error("InfluxDB is unavailable, %s the metrics and probe again in %d ms",
+                    outagePolicy == InfluxOutagePolicy.BUFFER ? "buffering" : "dropping", circuitBreaker.openMs());
         }
-        if (value instanceof Boolean) {
-            return value.toString();
+    }
+
+    private void whenUnavailable(Batch batch) {
+        if (outagePolicy == InfluxOutagePolicy.DROP || batch.bytes() > maxPendingBytes) {
+            telemetry.recordDropped(batch.size());
+            return;
         }
-        String stringValue = value.toString();
-        if (stringValue.contains("\"") || stringValue.contains("\\")) {
-            return "\"" + escapeSlashesAndDoubleQuotes(value.toString()) + "\"";
+        synchronized (pendingLock) {
+            while (pendingBytes + batch.bytes() > maxPendingBytes && !pendingBatches.isEmpty()) {
+                Batch oldest = pendingBatches.removeFirst();
+                pendingBytes -= oldest.bytes();
+                telemetry.addBufferBytes(-oldest.bytes());
+                telemetry.recordDropped(oldest.size());
+            }
+            pendingBatches.addLast(batch);
+            pendingBytes += batch.bytes();
+            telemetry.addBufferBytes(batch.bytes());
         }
-        return "\"" + value + "\"";
     }
-    @NotNull
-    private static String escapeTagForInflux(String value) {
-        if (value == null) {
-            return "<null>";
+
+    private Batch nextPendingBatch() {
+        synchronized (pendingLock) {
+            Batch batch = pendingBatches.pollFirst();
+            if (batch != null) {
+                pendingBytes -= batch.bytes();
+                telemetry.addBufferBytes(-batch.bytes());
+            }
+            return batch;
         }
-        if (value.isBlank()) {
-            return "<blank>";
+    }
+
+    private int pendingBatchCount() {
+        synchronized (pendingLock) {
+            return pendingBatches.size();
         }
-        return value.replace(" ", "\\ ").replace(",", "\\,");
     }
 
-    private static String escapeSlashesAndDoubleQuotes(String text) {
-        return text.replace("\"", "\\\"").replace("\\", "\\\\");
+    /**
+     * Send the batches that were buffered during an outage, oldest first, until the first failure.
+     */
+    private void sendPending() {
+        Batch batch;
+        while (circuitBreaker.state() == CircuitBreaker.State.CLOSED && (batch = nextPendingBatch()) != null) {
+            if (write(batch) == WriteResult.UNAVAILABLE) {
+                synchronized (pendingLock) {
+                    pendingBatches.addFirst(batch);
+                    pendingBytes += batch.bytes();
+                    telemetry.addBufferBytes(batch.bytes());
+                }
+                onUnavailable();
+                return;
+            }
+        }
     }
 
     @Override
     public void close() throws Exception {
-        flushBuffer().ifPresent(this::sendInfluxData);
+        Optional<Batch> metricsToWrite;
+        synchronized (bufferLock) {
+            metricsToWrite = flushBuffer();
+        }
+        metricsToWrite.ifPresent(this::sendInfluxData);
+
+        long lostLines = 0;
+        Batch batch;
+        while ((batch = nextPendingBatch()) != null) {
+            lostLines += batch.size();
+        }
+        if (lostLines > 0) {
+            telemetry.recordDropped(lostLines);
+            log.error("InfluxDB is unavailable, %d buffered metrics are not sent", lostLines);
+        }
     }
 }
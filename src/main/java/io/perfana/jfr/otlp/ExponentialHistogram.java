@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.otlp;
+
+import java.util.Arrays;
+
+/**
+ * Exponential histogram of positive values at a fixed scale, as in the OpenTelemetry data model.
+ * <p>
+ * Bucket {@code i} holds the values in {@code (base^i, base^(i+1)]} with {@code base = 2^(2^-scale)}.
+ * Scale 3 gives buckets about 9% wide, so durations from microseconds to minutes fit in a few hundred buckets.
+ * Zero and negative values are counted as zero. Not thread safe.
+ */
+final class ExponentialHistogram {
+
+    static final int SCALE = 3;
+
+    private static final double scaleFactor = Math.scalb(1.0 / Math.log(2), SCALE);
+
+    private long count;
+    private double sum;
+    private double min = Double.MAX_VALUE;
+    private double max = -Double.MAX_VALUE;
+    private long zeroCount;
+
+    private int offset;
+    private long[] counts = new long[0];
+
+    void record(double value) {
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (!(value > 0)) {
+            zeroCount++;
+            return;
+        }
+        int index = bucketIndex(value);
+        if (counts.length == 0) {
+            offset = index;
+            counts = new long[16];
+        } else if (index < offset) {
+            int grow = Math.max(offset - index, 16);
+            long[] grown = new long[counts.length + grow];
+            System.arraycopy(counts, 0, grown, grow, counts.length);
+            counts = grown;
+            offset -= grow;
+        } else if (index >= offset + counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index - offset + 1, counts.length + 16));
+        }
+        counts[index - offset]++;
+    }
+
+    static int bucketIndex(double value) {
+        return (int) Math.ceil(Math.log(value) * scaleFactor) - 1;
+    }
+
+    long count() {
+        return count;
+    }
+
+    /**
+     * Write as the fields of an OTLP {@code ExponentialHistogramDataPoint}, without the attributes.
+     */
+    void writeTo(ProtobufWriter writer, long startTimeNs, long timeNs) {
+        writer.fixed64(2, startTimeNs);
+        writer.fixed64(3, timeNs);
+        writer.fixed64(4, count);
+        writer.double64(5, sum);
+        writer.sint32(6, SCALE);
+        writer.fixed64(7, zeroCount);
+
+        int first = 0;
+        int last = counts.length;
+        while (first < last && counts[first] == 0) first++;
+        while (last > first && counts[last - 1] == 0) last--;
+        if (first < last) {
+            writer.startMessage(8);
+            writer.sint32(1, offset + first);
+            writer.packedUint64(2, counts, first, last);
+            writer.endMessage();
+        }
+        if (count > 0) {
+            writer.double64(12, min);
+            writer.double64(13, max);
+        }
+    }
+}
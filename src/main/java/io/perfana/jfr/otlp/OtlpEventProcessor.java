@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.otlp;
+
+import io.perfana.jfr.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends the events as OTLP metrics to an OpenTelemetry collector, with protobuf over HTTP.
+ * <p>
+ * Each numeric field is a gauge named {@code jfr.<measurement>.<field>}, the events are counted
+ * in the sum {@code jfr.<measurement>.events}, and durations of single events, the fields starting
+ * with "duration", are also recorded in an exponential histogram. Sums and histograms have delta
+ * temporality: they cover one batch. Tags of the events become attributes, the tags of the
+ * exporter become resource attributes. Text fields and stack traces are not sent.
+ * <p>
+ * Gauge points are encoded into a protobuf buffer per metric when the event arrives, so no object
+ * is kept per point. The buffers, the request buffer and the gzip buffer are reused for the next
+ * batches. A batch is sent when it has 1000 points or is 5 seconds old. It is encoded on the calling
+ * thread and sent asynchronously, one request at a time: when the previous request is still in flight,
+ * the new batch is dropped and counted, so a slow or unavailable collector never blocks the caller.
+ */
+public class OtlpEventProcessor implements JfrEventProcessor, AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(OtlpEventProcessor.class);
+
+    public static final String NAME = "otlp";
+
+    private static final int maxBatchSize = 1_000;
+    private static final int maxBatchAgeMs = 5_000;
+    private static final Duration requestTimeout = Duration.ofSeconds(30);
+
+    private static final int AGGREGATION_TEMPORALITY_DELTA = 1;
+
+    private final HttpClient httpClient;
+    private final URI metricsUri;
+    private final boolean gzip;
+    private final Map<String, String> resourceAttributes;
+
+    private final Object bufferLock = new Object();
+
+    // measurement -> field -> metric name, to not concatenate names for each point
+    private final Map<String, Map<String, String>> metricNames = new HashMap<>();
+
+    private final Map<String, ProtobufWriter> gaugePoints = new LinkedHashMap<>();
+    private final Map<String, Map<Map<String, String>, long[]>> eventCounts = new LinkedHashMap<>();
+    private final Map<String, Map<Map<String, String>, ExponentialHistogram>> histograms = new LinkedHashMap<>();
+
+    private final ExporterTelemetry telemetry = ExporterTelemetry.global();
+
+    private final ProtobufWriter request = new ProtobufWriter(64 * 1024);
+    private final ReusableOutputStream compressed = new ReusableOutputStream(16 * 1024);
+
+    private int batchSize;
+    private long oldestEventMillis;
+    private long batchStartNs = epochNs(Instant.now());
+    private long nextFlush = System.currentTimeMillis() + maxBatchAgeMs;
+
+    // the request and gzip buffers are read until the request in flight is done
+    private CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+
+    public OtlpEventProcessor(String endpoint, Map<String, String> tags, boolean gzip) {
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(3))
+                .build();
+        this.metricsUri = URI.create(endpoint.endsWith("/") ? endpoint + "v1/metrics" : endpoint + "/v1/metrics");
+        this.gzip = gzip;
+
+        Map<String, String> attributes = new TreeMap<>(tags);
+        if (tags.containsKey("service") && !tags.containsKey("service.name")) {
+            attributes.put("service.name", tags.get("service"));
+        }
+        this.resourceAttributes = Collections.unmodifiableMap(attributes);
+    }
+
+    @Override
+    public void processEvent(ProcessedJfrEvent event) {
+        log.debug("Process otlp event: %s", event.toStringShort());
+
+        long timeNs = epochNs(event.timestamp() == null ? Instant.now() : event.timestamp());
+        synchronized (bufferLock) {
+            if (event.timestamp() != null && (oldestEventMillis == 0 || event.timestamp().toEpochMilli() < oldestEventMillis)) {
+                oldestEventMillis = event.timestamp().toEpochMilli();
+            }
+            Map<String, String> names = metricNames.computeIfAbsent(event.measurementName(), k -> new HashMap<>());
+
+            // fields are never blank, so the blank field holds the name of the event count
+            String countName = names.computeIfAbsent("", f -> metricName(event.measurementName(), "events"));
+            eventCounts.computeIfAbsent(countName, k -> new HashMap<>())
+                    .computeIfAbsent(event.tags(), k -> new long[1])[0]++;
+
+            addPoint(names, event, event.field(), event.value(), timeNs);
+            for (Map.Entry<String, Object> extraField : event.extraFields().entrySet()) {
+                if (extraField.getValue() instanceof Number number) {
+                    addPoint(names, event, extraField.getKey(), number, timeNs);
+                }
+            }
+
+            if (batchSize >= maxBatchSize || nextFlush < System.currentTimeMillis()) {
+                flush();
+            }
+        }
+    }
+
+    private void addPoint(Map<String, String> names, ProcessedJfrEvent event, String field, Number value, long timeNs) {
+        String name = names.computeIfAbsent(field, f -> metricName(event.measurementName(), f));
+        double doubleValue = value.doubleValue();
+
+        ProtobufWriter points = gaugePoints.computeIfAbsent(name, k -> new ProtobufWriter(1024));
+        // Gauge.data_points
+        points.startMessage(1);
+        writeAttributes(points, 7, event.tags());
+        points.fixed64(3, timeNs);
+        points.double64(4, doubleValue);
+        points.endMessage();
+        batchSize++;
+
+        if (JfrUtil.isSingleEventDuration(field)) {
+            histograms.computeIfAbsent(name, k -> new HashMap<>())
+                    .computeIfAbsent(event.tags(), k -> new ExponentialHistogram())
+                    .record(doubleValue);
+        }
+    }
+
+    static String metricName(String measurement, String field) {
+        String name = "jfr." + measurement + "." + field;
+        StringBuilder sanitized = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = Character.isLetterOrDigit(c) && c < 0x80 || c == '_' || c == '.' || c == '-' || c == '/';
+            sanitized.append(valid ? c : '_');
+        }
+        return sanitized.toString();
+    }
+
+    private static void writeAttributes(ProtobufWriter writer, int field, Map<String, String> attributes) {
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            // KeyValue with AnyValue.string_value
+            writer.startMessage(field);
+            writer.string(1, attribute.getKey());
+            writer.startMessage(2);
+            writer.string(1, attribute.getValue() == null ? "" : attribute.getValue());
+            writer.endMessage();
+            writer.endMessage();
+        }
+    }
+
+    private static long epochNs(Instant timestamp) {
+        return timestamp.getEpochSecond() * 1_000_000_000L + timestamp.getNano();
+    }
+
+    private void flush() {
+        if (batchSize == 0 && eventCounts.isEmpty()) {
+            nextFlush = System.currentTimeMillis() + maxBatchAgeMs;
+            return;
+        }
+        long nowNs = epochNs(Instant.now());
+        if (inFlight.isDone()) {
+            log.debug("Flushing %d metric points to OTLP endpoint", batchSize);
+            encodeRequest(nowNs);
+            inFlight = send(batchSize, oldestEventMillis);
+        } else {
+            telemetry.recordDropped(batchSize);
+            log.debug("Previous OTLP request is still in flight, dropping %d metric points", batchSize);
+        }
+
+        // keep the buffers of active metrics for the next batch
+        gaugePoints.values().removeIf(points -> points.size() == 0);
+        gaugePoints.values().forEach(ProtobufWriter::reset);
+        eventCounts.clear();
+        histograms.clear();
+        batchSize = 0;
+        oldestEventMillis = 0;
+        batchStartNs = nowNs;
+        nextFlush = System.currentTimeMillis() + maxBatchAgeMs;
+    }
+
+    private void encodeRequest(long nowNs) {
+        request.reset();
+        // ExportMetricsServiceRequest.resource_metrics
+        request.startMessage(1);
+        request.startMessage(1);
+        writeAttributes(request, 1, resourceAttributes);
+        request.endMessage();
+        // ResourceMetrics.scope_metrics
+        request.startMessage(2);
+        request.startMessage(1);
+        request.string(1, "io.perfana.jfr");
+        request.endMessage();
+
+        gaugePoints.forEach((name, points) -> {
+            if (points.size() == 0) {
+                return;
+            }
+            request.startMessage(2);
+            request.string(1, name);
+            request.startMessage(5);
+            request.append(points);
+            request.endMessage();
+            request.endMessage();
+        });
+
+        eventCounts.forEach((name, countPerAttributes) -> {
+            request.startMessage(2);
+            request.string(1, name);
+            request.startMessage(7);
+            countPerAttributes.forEach((attributes, count) -> {
+                request.startMessage(1);
+                writeAttributes(request, 7, attributes);
+                request.fixed64(2, batchStartNs);
+                request.fixed64(3, nowNs);
+                // as_int is an sfixed64
+                request.fixed64(6, count[0]);
+                request.endMessage();
+            });
+            request.uint64(2, AGGREGATION_TEMPORALITY_DELTA);
+            request.bool(3, true);
+            request.endMessage();
+            request.endMessage();
+        });
+
+        histograms.forEach((name, histogramPerAttributes) -> {
+            request.startMessage(2);
+            request.string(1, name + ".histogram");
+            request.startMessage(10);
+            histogramPerAttributes.forEach((attributes, histogram) -> {
+                request.startMessage(1);
+                writeAttributes(request, 1, attributes);
+                histogram.writeTo(request, batchStartNs, nowNs);
+                request.endMessage();
+            });
+            request.uint64(2, AGGREGATION_TEMPORALITY_DELTA);
+            request.endMessage();
+            request.endMessage();
+        });
+
+        request.endMessage();
+        request.endMessage();
+    }
+
+    private CompletableFuture<Void> send(int points, long oldestMillis) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(metricsUri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/x-protobuf")
+                .header("User-agent", "jfr-exporter/1.0");
+        if (gzip) {
+            compressed.reset();
+            try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed, 8 * 1024)) {
+                gzipStream.write(request.buffer(), 0, request.size());
+            } catch (IOException e) {
+                throw new JfrExporterException("Cannot compress OTLP request", e);
+            }
+            builder.header("Content-Encoding", "gzip")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(compressed.buffer(), 0, compressed.size()));
+        } else {
+            builder.POST(HttpRequest.BodyPublishers.ofByteArray(request.buffer(), 0, request.size()));
+        }
+
+        // the buffers are not copied, they are read until the returned future is done
+        long startNanos = System.nanoTime();
+        return httpClient.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofString()).handle((response, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                telemetry.recordWriteError(points);
+                log.error("Failed to send metrics to OTLP endpoint: (%s) %s", cause.getClass().getSimpleName(), cause.getMessage());
+                return null;
+            }
+            int statusCode = response.statusCode();
+            log.trace("OTLP response: %d", statusCode);
+            if (statusCode == 200) {
+                telemetry.recordBatch(points, System.nanoTime() - startNanos, oldestMillis);
+            } else {
+                telemetry.recordWriteError(points);
+                log.error("Failed to send metrics to OTLP endpoint: (%d) %s", statusCode, response.body());
+            }
+            return null;
+        });
+    }
+
+    private void awaitInFlight() {
+        // handle() never completes exceptionally, the timeout covers a request that hangs after its own timeout
+        inFlight.completeOnTimeout(null, requestTimeout.toMillis() + 1_000, TimeUnit.MILLISECONDS).join();
+    }
+
+    @Override
+    public void close() {
+        synchronized (bufferLock) {
+            // send the last batch after the request in flight, instead of dropping it
+            awaitInFlight();
+            flush();
+            awaitInFlight();
+        }
+    }
+
+    private static class ReusableOutputStream extends ByteArrayOutputStream {
+        ReusableOutputStream(int size) {
+            super(size);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    public static class Factory implements JfrEventProcessorFactory {
+        @Override
+        public String name() {
+            return NAME;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public JfrEventProcessor create(Arguments arguments) {
+            return new OtlpEventProcessor(arguments.getOtlpEndpoint(), arguments.getTags(), true);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.otlp;
+
+import java.util.Arrays;
+
+/**
+ * Minimal protobuf encoder into a growing byte array that is reused after {@link #reset()}.
+ * <p>
+ * A nested message reserves room for the largest length prefix, and when the message ends the
+ * body is moved back to directly follow the actual length, so the message sizes do not need to be
+ * known up front.
+ */
+final class ProtobufWriter {
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+
+    private static final int reservedLengthBytes = 5;
+    private static final int maxDepth = 16;
+
+    private byte[] buffer;
+    private int position;
+
+    private final int[] messageStarts = new int[maxDepth];
+    private int depth;
+
+    ProtobufWriter(int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    void reset() {
+        position = 0;
+        depth = 0;
+    }
+
+    int size() {
+        return position;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    void startMessage(int field) {
+        if (depth == maxDepth) {
+            throw new IllegalStateException("Messages nested too deep: " + depth);
+        }
+        tag(field, WIRE_LENGTH_DELIMITED);
+        ensureCapacity(reservedLengthBytes);
+        messageStarts[depth++] = position;
+        position += reservedLengthBytes;
+    }
+
+    void endMessage() {
+        int start = messageStarts[--depth];
+        int bodyStart = start + reservedLengthBytes;
+        int length = position - bodyStart;
+        int lengthEnd = writeVarintAt(start, length);
+        if (lengthEnd < bodyStart) {
+            System.arraycopy(buffer, bodyStart, buffer, lengthEnd, length);
+            position -= bodyStart - lengthEnd;
+        }
+    }
+
+    void string(int field, String value) {
+        int length = utf8Length(value);
+        tag(field, WIRE_LENGTH_DELIMITED);
+        varint(length);
+        ensureCapacity(length);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    void uint64(int field, long value) {
+        tag(field, WIRE_VARINT);
+        varint(value);
+    }
+
+    void sint32(int field, int value) {
+        tag(field, WIRE_VARINT);
+        varint(Integer.toUnsignedLong((value << 1) ^ (value >> 31)));
+    }
+
+    void bool(int field, boolean value) {
+        tag(field, WIRE_VARINT);
+        varint(value ? 1 : 0);
+    }
+
+    void fixed64(int field, long value) {
+        tag(field, WIRE_FIXED64);
+        ensureCapacity(8);
+        for (int i = 0; i < 8; i++) {
+            buffer[position++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    void double64(int field, double value) {
+        fixed64(field, Double.doubleToRawLongBits(value));
+    }
+
+    void packedUint64(int field, long[] values, int from, int to) {
+        startMessage(field);
+        for (int i = from; i < to; i++) {
+            varint(values[i]);
+        }
+        endMessage();
+    }
+
+    /**
+     * Append the encoded fields of another writer, e.g. repeated fields that were encoded ahead.
+     */
+    void append(ProtobufWriter other) {
+        ensureCapacity(other.position);
+        System.arraycopy(other.buffer, 0, buffer, position, other.position);
+        position += other.position;
+    }
+
+    private void tag(int field, int wireType) {
+        varint(((long) field << 3) | wireType);
+    }
+
+    private void varint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    private int writeVarintAt(int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + extra));
+        }
+    }
+}
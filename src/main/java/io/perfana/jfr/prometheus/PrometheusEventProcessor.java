@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.prometheus;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.jfr.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the latest values of the events in a {@link PrometheusRegistry} and serves them
+ * on {@code /metrics} for Prometheus to scrape.
+ * <p>
+ * Each field of an event is a gauge named {@code jfr_<measurement>_<field>}, and the events
+ * are counted in {@code jfr_<measurement>_events_total}. Durations of single events, the fields
+ * starting with "duration", are also observed in a histogram. Tags become labels, text fields and
+ * stack traces are not sent.
+ * <p>
+ * A scrape renders into a text buffer and a byte buffer that are reused, so scraping more often
+ * does not create more garbage. Each scrape is recorded in the {@link ExporterTelemetry} as a batch
+ * of all series.
+ */
+public class PrometheusEventProcessor implements JfrEventProcessor, AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(PrometheusEventProcessor.class);
+
+    public static final String NAME = "prometheus";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final PrometheusRegistry registry;
+    private final Map<String, String> globalLabels;
+    private final String globalLabelText;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private final Object renderLock = new Object();
+    private final StringBuilder text = new StringBuilder(16 * 1024);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private ByteBuffer bytes = ByteBuffer.allocate(16 * 1024);
+
+    private final ExporterTelemetry telemetry = ExporterTelemetry.global();
+
+    public PrometheusEventProcessor(int port, Map<String, String> globalLabels) {
+        this(new PrometheusRegistry(), port, globalLabels);
+    }
+
+    PrometheusEventProcessor(PrometheusRegistry registry, int port, Map<String, String> globalLabels) {
+        if (registry == null) throw new IllegalArgumentException("registry must not be null");
+        this.registry = registry;
+        this.globalLabels = new TreeMap<>(globalLabels);
+        this.globalLabelText = labelText(this.globalLabels);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jfr-exporter-prometheus");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException e) {
+            executor.shutdown();
+            throw new JfrExporterException("Cannot start Prometheus endpoint on port " + port, e);
+        }
+        server.createContext("/metrics", this::handleScrape);
+        server.setExecutor(executor);
+        server.start();
+        log.info("Prometheus metrics available on http://localhost:%d/metrics", getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void processEvent(ProcessedJfrEvent event) {
+        log.debug("Process prometheus event: %s", event.toStringShort());
+
+        String prefix = "jfr_" + sanitize(event.measurementName()) + "_";
+        String labels = event.tags().isEmpty() ? globalLabelText : labelText(event.tags());
+
+        registry.incrementCounter(prefix + "events_total", labels, 1);
+        processField(prefix, event.field(), event.value(), labels);
+        for (Map.Entry<String, Object> extraField : event.extraFields().entrySet()) {
+            if (extraField.getValue() instanceof Number number) {
+                processField(prefix, extraField.getKey(), number, labels);
+            }
+        }
+    }
+
+    private void processField(String prefix, String field, Number value, String labels) {
+        String name = prefix + sanitize(field);
+        double doubleValue = value.doubleValue();
+        registry.setGauge(name, labels, doubleValue);
+        if (JfrUtil.isSingleEventDuration(field)) {
+            registry.observe(name + "_histogram", labels, doubleValue);
+        }
+    }
+
+    private String labelText(Map<String, String> tags) {
+        Map<String, String> labels = new TreeMap<>(globalLabels);
+        labels.putAll(tags);
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (!out.isEmpty()) {
+                out.append(',');
+            }
+            out.append(sanitize(label.getKey())).append("=\"");
+            escapeLabelValue(out, label.getValue());
+            out.append('"');
+        }
+        return out.toString();
+    }
+
+    static String sanitize(String name) {
+        StringBuilder sanitized = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || (c >= '0' && c <= '9' && i > 0);
+            sanitized.append(valid ? c : '_');
+        }
+        return sanitized.toString();
+    }
+
+    private static void escapeLabelValue(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> out.append("\\\\");
+                case '"' -> out.append("\\\"");
+                case '\n' -> out.append("\\n");
+                default -> out.append(c);
+            }
+        }
+    }
+
+    private void handleScrape(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            synchronized (renderLock) {
+                long startNanos = System.nanoTime();
+                text.setLength(0);
+                registry.render(text);
+                int seriesCount = registry.getSeriesCount();
+                encode();
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, bytes.remaining());
+                try (OutputStream body = exchange.getResponseBody()) {
+                    body.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                } catch (IOException e) {
+                    telemetry.recordWriteError(seriesCount);
+                    throw e;
+                }
+                // pulled values have no event time, so no lag
+                telemetry.recordBatch(seriesCount, System.nanoTime() - startNanos, 0);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void encode() {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true) {
+            encoder.reset();
+            bytes.clear();
+            CoderResult result = encoder.encode(chars, bytes, true);
+            if (!result.isOverflow()) {
+                result = encoder.flush(bytes);
+            }
+            if (!result.isOverflow()) {
+                bytes.flip();
+                return;
+            }
+            // grow once for a larger registry, the buffer is kept for the next scrapes
+            bytes = ByteBuffer.allocate(bytes.capacity() * 2);
+            chars.rewind();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static class Factory implements JfrEventProcessorFactory {
+        @Override
+        public String name() {
+            return NAME;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public JfrEventProcessor create(Arguments arguments) {
+            return new PrometheusEventProcessor(arguments.getPrometheusPort(), arguments.getTags());
+        }
+    }
+}
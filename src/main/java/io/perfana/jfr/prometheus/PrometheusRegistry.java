@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.prometheus;
+
+import io.perfana.jfr.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory registry of the latest gauge values, counters and histograms, rendered in the
+ * Prometheus text format.
+ * <p>
+ * Updates do not lock: a series is looked up in a concurrent map and updated with atomics,
+ * only a new series is added with a map insert. The number of series is bounded and series
+ * that are not updated for a while, such as threads that are gone, are removed when rendering.
+ */
+public class PrometheusRegistry {
+
+    private static final Logger log = Logger.getLogger(PrometheusRegistry.class);
+
+    /**
+     * Histogram bucket upper bounds, in the unit of the observed values (1-2-5 steps).
+     */
+    static final double[] bucketBounds = {
+            0.01, 0.02, 0.05, 0.1, 0.2, 0.5, 1, 2, 5, 10, 20, 50, 100, 200, 500,
+            1_000, 2_000, 5_000, 10_000, 20_000, 50_000, 100_000, 1_000_000, 10_000_000, 100_000_000 };
+
+    private static final int defaultMaxSeries = 10_000;
+    private static final long defaultExpiryMs = 5 * 60 * 1_000;
+
+    enum Type {
+        GAUGE, COUNTER, HISTOGRAM;
+
+        String text() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final ConcurrentHashMap<String, Family> families = new ConcurrentHashMap<>();
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private final LongAdder droppedSamples = new LongAdder();
+
+    private final int maxSeries;
+    private final long expiryMs;
+    private final LongSupplier clock;
+
+    public PrometheusRegistry() {
+        this(defaultMaxSeries, defaultExpiryMs, System::currentTimeMillis);
+    }
+
+    PrometheusRegistry(int maxSeries, long expiryMs, LongSupplier clock) {
+        this.maxSeries = maxSeries;
+        this.expiryMs = expiryMs;
+        this.clock = clock;
+    }
+
+    private record Family(String name, Type type, ConcurrentHashMap<String, Series> series) {}
+
+    private static class Series {
+        private volatile long lastUpdateMs;
+        private volatile double gauge;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder count = new LongAdder();
+        private final AtomicLongArray buckets;
+
+        Series(Type type) {
+            this.buckets = type == Type.HISTOGRAM ? new AtomicLongArray(bucketBounds.length) : null;
+        }
+    }
+
+    /**
+     * @param labels the label text without braces, e.g. {@code service="afterburner",thread="main"}
+     */
+    public void setGauge(String name, String labels, double value) {
+        Series series = series(name, Type.GAUGE, labels);
+        if (series != null) {
+            series.gauge = value;
+        }
+    }
+
+    public void incrementCounter(String name, String labels, double amount) {
+        Series series = series(name, Type.COUNTER, labels);
+        if (series != null) {
+            series.sum.add(amount);
+        }
+    }
+
+    public void observe(String name, String labels, double value) {
+        Series series = series(name, Type.HISTOGRAM, labels);
+        if (series != null) {
+            int bucket = bucketIndex(value);
+            if (bucket < bucketBounds.length) {
+                series.buckets.incrementAndGet(bucket);
+            }
+            series.sum.add(value);
+            series.count.increment();
+        }
+    }
+
+    static int bucketIndex(double value) {
+        for (int i = 0; i < bucketBounds.length; i++) {
+            if (value <= bucketBounds[i]) {
+                return i;
+            }
+        }
+        return bucketBounds.length;
+    }
+
+    private Series series(String name, Type type, String labels) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, n -> new Family(n, type, new ConcurrentHashMap<>()));
+        }
+        if (family.type() != type) {
+            log.debug("Metric %s is a %s, skip %s", name, family.type(), type);
+            droppedSamples.increment();
+            return null;
+        }
+        Series series = family.series().get(labels);
+        if (series == null) {
+            if (seriesCount.get() >= maxSeries) {
+                droppedSamples.increment();
+                return null;
+            }
+            series = family.series().computeIfAbsent(labels, l -> {
+                seriesCount.incrementAndGet();
+                return new Series(type);
+            });
+        }
+        series.lastUpdateMs = clock.getAsLong();
+        return series;
+    }
+
+    public int getSeriesCount() {
+        return seriesCount.get();
+    }
+
+    /**
+     * Append all series in the Prometheus text format, and remove the expired series.
+     */
+    public void render(StringBuilder out) {
+        long expireBefore = clock.getAsLong() - expiryMs;
+        for (Family family : families.values()) {
+            if (family.series().isEmpty()) {
+                continue;
+            }
+            out.append("# TYPE ").append(family.name()).append(' ').append(family.type().text()).append('\n');
+            for (Map.Entry<String, Series> entry : family.series().entrySet()) {
+                Series series = entry.getValue();
+                if (series.lastUpdateMs < expireBefore && family.series().remove(entry.getKey(), series)) {
+                    seriesCount.decrementAndGet();
+                    continue;
+                }
+                switch (family.type()) {
+                    case GAUGE -> sample(out, family.name(), "", entry.getKey(), series.gauge);
+                    case COUNTER -> sample(out, family.name(), "", entry.getKey(), series.sum.sum());
+                    case HISTOGRAM -> renderHistogram(out, family.name(), entry.getKey(), series);
+                }
+            }
+        }
+        out.append("# TYPE jfr_exporter_dropped_samples_total counter\n");
+        sample(out, "jfr_exporter_dropped_samples_total", "", "", droppedSamples.sum());
+    }
+
+    private static void renderHistogram(StringBuilder out, String name, String labels, Series series) {
+        String bucketLabelsPrefix = labels.isEmpty() ? "le=\"" : labels + ",le=\"";
+        long cumulative = 0;
+        for (int i = 0; i < bucketBounds.length; i++) {
+            cumulative += series.buckets.get(i);
+            out.append(name).append("_bucket{").append(bucketLabelsPrefix);
+            appendValue(out, bucketBounds[i]);
+            out.append("\"} ").append(cumulative).append('\n');
+        }
+        long count = series.count.sum();
+        out.append(name).append("_bucket{").append(bucketLabelsPrefix).append("+Inf\"} ").append(count).append('\n');
+        sample(out, name, "_sum", labels, series.sum.sum());
+        sample(out, name, "_count", labels, count);
+    }
+
+    private static void sample(StringBuilder out, String name, String suffix, String labels, double value) {
+        out.append(name).append(suffix);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        appendValue(out, value);
+        out.append('\n');
+    }
+
+    static void appendValue(StringBuilder out, double value) {
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.statsd;
+
+import io.perfana.jfr.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends the events to a local StatsD or DogStatsD agent over UDP, fire-and-forget.
+ * <p>
+ * Each numeric field is a gauge named {@code jfr.<measurement>.<field>} and each event increments
+ * the counter {@code jfr.<measurement>.events}. Durations of single events are sent as timer when in
+ * milliseconds, otherwise as histogram. The tags become DogStatsD tags, unless tags are disabled for
+ * a plain StatsD agent.
+ * <p>
+ * The metric lines are packed into one datagram until the next line does not fit in the packet size,
+ * or the packet is older than one second. A background thread sends a packet older than one second when
+ * no new events arrive, so sparse metrics are not held back. The packet is a direct buffer that is sent from a non-blocking
+ * channel: when the socket buffer is full the packet is dropped and counted, the event thread never waits.
+ * Each sent packet is recorded in the {@link ExporterTelemetry} as a batch of its metric lines, a dropped
+ * packet as dropped lines.
+ */
+public class StatsdEventProcessor implements JfrEventProcessor, AutoCloseable {
+
+    private static final Logger log = Logger.getLogger(StatsdEventProcessor.class);
+
+    public static final String NAME = "statsd";
+
+    /**
+     * Fits in an ethernet MTU of 1500 bytes, minus the IP and UDP headers.
+     */
+    static final int defaultPacketSize = 1_432;
+
+    private static final long maxPacketAgeMs = 1_000;
+
+    private final DatagramChannel channel;
+    private final InetSocketAddress address;
+    private final boolean sendTags;
+    private final String globalTags;
+
+    private final Object packetLock = new Object();
+    private final ByteBuffer packet;
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private long packetStartMs;
+    private int packetLines;
+    private long eventMs;
+    private long packetOldestEventMs;
+
+    private final LongAdder droppedPackets = new LongAdder();
+    private final ExporterTelemetry telemetry = ExporterTelemetry.global();
+
+    private final ScheduledExecutorService flusher;
+
+    public StatsdEventProcessor(String host, int port, Map<String, String> tags, boolean sendTags) {
+        this(host, port, tags, sendTags, defaultPacketSize);
+    }
+
+    StatsdEventProcessor(String host, int port, Map<String, String> tags, boolean sendTags, int packetSize) {
+        this.address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new JfrExporterException("Cannot resolve StatsD host " + host);
+        }
+        this.sendTags = sendTags;
+        this.globalTags = tagText(new TreeMap<>(tags));
+        this.packet = ByteBuffer.allocateDirect(packetSize);
+        try {
+            this.channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            throw new JfrExporterException("Cannot open StatsD channel", e);
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("jfr-exporter-statsd");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleAtFixedRate(this::sendOldPacket, maxPacketAgeMs, maxPacketAgeMs / 2, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void processEvent(ProcessedJfrEvent event) {
+        log.debug("Process statsd event: %s", event.toStringShort());
+
+        String prefix = "jfr." + sanitize(event.measurementName()) + ".";
+        String tags = event.tags().isEmpty() ? globalTags : eventTagText(event.tags());
+
+        synchronized (packetLock) {
+            eventMs = event.timestamp() == null ? 0 : event.timestamp().toEpochMilli();
+            addLine(prefix + "events", 1, "c", tags);
+            addField(prefix, event.field(), event.value(), tags);
+            for (Map.Entry<String, Object> extraField : event.extraFields().entrySet()) {
+                if (extraField.getValue() instanceof Number number) {
+                    addField(prefix, extraField.getKey(), number, tags);
+                }
+            }
+            if (packet.position() > 0 && System.currentTimeMillis() - packetStartMs > maxPacketAgeMs) {
+                sendPacket();
+            }
+        }
+    }
+
+    void sendOldPacket() {
+        synchronized (packetLock) {
+            if (packet.position() > 0 && System.currentTimeMillis() - packetStartMs >= maxPacketAgeMs) {
+                sendPacket();
+            }
+        }
+    }
+
+    private void addField(String prefix, String field, Number value, String tags) {
+        String type = "g";
+        if (JfrUtil.isSingleEventDuration(field)) {
+            type = field.endsWith("-ms") ? "ms" : "h";
+        }
+        addLine(prefix + sanitize(field), value.doubleValue(), type, tags);
+    }
+
+    private void addLine(String name, double value, String type, String tags) {
+        // <name>:<value>|<type>|#<tags>
+        lineLength = 0;
+        appendAscii(name);
+        appendByte(':');
+        appendAscii(formatValue(value));
+        appendByte('|');
+        appendAscii(type);
+        if (sendTags && !tags.isEmpty()) {
+            appendAscii("|#");
+            appendUtf8(tags);
+        }
+
+        if (lineLength > packet.capacity()) {
+            log.debug("Metric line of %d bytes does not fit in a packet: %s", lineLength, name);
+            return;
+        }
+        int separator = packet.position() > 0 ? 1 : 0;
+        if (packet.remaining() < lineLength + separator) {
+            sendPacket();
+            separator = 0;
+        }
+        if (packet.position() == 0) {
+            packetStartMs = System.currentTimeMillis();
+            packetOldestEventMs = eventMs;
+        } else if (eventMs > 0 && (packetOldestEventMs == 0 || eventMs < packetOldestEventMs)) {
+            packetOldestEventMs = eventMs;
+        }
+        if (separator == 1) {
+            packet.put((byte) '\n');
+        }
+        packet.put(line, 0, lineLength);
+        packetLines++;
+    }
+
+    private void sendPacket() {
+        packet.flip();
+        long startNanos = System.nanoTime();
+        try {
+            if (channel.send(packet, address) == 0) {
+                // socket buffer is full, do not wait
+                droppedPackets.increment();
+                telemetry.recordDropped(packetLines);
+            } else {
+                telemetry.recordBatch(packetLines, System.nanoTime() - startNanos, packetOldestEventMs);
+            }
+        } catch (IOException e) {
+            droppedPackets.increment();
+            telemetry.recordWriteError(packetLines);
+            log.debug("Failed to send StatsD packet: (%s) %s", e.getClass().getSimpleName(), e.getMessage());
+        }
+        packet.clear();
+        packetLines = 0;
+    }
+
+    static String formatValue(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        // StatsD agents do not all parse the exponent notation
+        String text = Double.toString(value);
+        return text.indexOf('E') < 0 ? text : BigDecimal.valueOf(value).toPlainString();
+    }
+
+    private String eventTagText(Map<String, String> tags) {
+        String eventTags = tagText(new TreeMap<>(tags));
+        return globalTags.isEmpty() ? eventTags : globalTags + "," + eventTags;
+    }
+
+    private static String tagText(Map<String, String> tags) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!text.isEmpty()) {
+                text.append(',');
+            }
+            text.append(sanitize(tag.getKey())).append(':').append(sanitize(String.valueOf(tag.getValue())));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Replace the characters that separate the parts of a StatsD line.
+     */
+    static String sanitize(String text) {
+        StringBuilder sanitized = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == ':' || c == '|' || c == '@' || c == '#' || c == ',' || c == '\n' || c == ' ') {
+                if (sanitized == null) {
+                    sanitized = new StringBuilder(text);
+                }
+                sanitized.setCharAt(i, '_');
+            }
+        }
+        return sanitized == null ? text : sanitized.toString();
+    }
+
+    private void appendByte(char c) {
+        ensureLineCapacity(1);
+        line[lineLength++] = (byte) c;
+    }
+
+    private void appendAscii(String text) {
+        ensureLineCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            line[lineLength++] = c < 0x80 ? (byte) c : (byte) '_';
+        }
+    }
+
+    private void appendUtf8(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ensureLineCapacity(bytes.length);
+        System.arraycopy(bytes, 0, line, lineLength, bytes.length);
+        lineLength += bytes.length;
+    }
+
+    private void ensureLineCapacity(int extra) {
+        if (lineLength + extra > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + extra));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdownNow();
+        synchronized (packetLock) {
+            if (packet.position() > 0) {
+                sendPacket();
+            }
+        }
+        if (droppedPackets.sum() > 0) {
+            log.info("Dropped %d StatsD packets", droppedPackets.sum());
+        }
+        channel.close();
+    }
+
+    public static class Factory implements JfrEventProcessorFactory {
+        @Override
+        public String name() {
+            return NAME;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public JfrEventProcessor create(Arguments arguments) {
+            return new StatsdEventProcessor(arguments.getStatsdHost(), arguments.getStatsdPort(), arguments.getTags(), arguments.isStatsdTags());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveThresholdTest {
+
+    @Test
+    void adaptToTargetPerMinute() {
+        AtomicLong now = new AtomicLong(0);
+        AdaptiveThreshold threshold = new AdaptiveThreshold("test", 1_000_000, 1_000, 10, now::get);
+
+        // one minute of values 1 to 10_000 bytes, nothing above the initial threshold
+        for (int minute = 0; minute < 4; minute++) {
+            for (long value = 1; value <= 10_000; value++) {
+                if (value % 5_000 == 0) {
+                    now.addAndGet(30_000);
+                }
+                threshold.isAbove(value);
+            }
+        }
+
+        long adapted = threshold.getThreshold();
+        assertTrue(adapted > 9_900 && adapted < 10_000, "threshold near the top 10 values: " + adapted);
+        assertTrue(threshold.isAbove(10_000));
+        assertFalse(threshold.isAbove(5_000));
+    }
+
+    @Test
+    void neverBelowMinimum() {
+        AtomicLong now = new AtomicLong(0);
+        AdaptiveThreshold threshold = new AdaptiveThreshold("test", 1_000_000, 1_000, 10, now::get);
+
+        threshold.isAbove(10);
+        now.addAndGet(30_000);
+        threshold.isAbove(10);
+
+        assertEquals(1_000, threshold.getThreshold());
+    }
+
+    @Test
+    void bucketLowerBound() {
+        for (long value : new long[]{0, 3, 4, 5, 7, 8, 100, 1_000_000, Long.MAX_VALUE / 2}) {
+            int bucket = AdaptiveThreshold.bucket(value);
+            assertTrue(AdaptiveThreshold.lowerBound(bucket) <= value, "lower bound of " + value);
+            assertTrue(AdaptiveThreshold.lowerBound(bucket + 1) > value, "next lower bound of " + value);
+        }
+    }
+}
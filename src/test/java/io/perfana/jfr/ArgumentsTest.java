@@ -15,8 +15,13 @@
  */
 package io.perfana.jfr;
 
+import io.perfana.jfr.event.MetaspaceEvent;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class ArgumentsTest {
@@ -31,7 +36,52 @@ class ArgumentsTest {
         assertNotNull(arguments);
         assertEquals(1234, arguments.getProcessId());
         assertTrue(arguments.isDebug());
+        assertEquals(10, arguments.getTopThreads());
+
+    }
+
+    @Test
+    void parseTopThreads() {
+        Arguments arguments = Arguments.parseArgs(new String[]{"--topThreads", "5"});
+        assertEquals(5, arguments.getTopThreads());
+    }
+
+    @Test
+    void parseProfile() {
+        Arguments arguments = Arguments.parseArgs(new String[]{"--topThreads", "5", "--profile", "diagnostic"});
+        assertEquals(OverheadProfile.DIAGNOSTIC, arguments.getProfile());
+        assertTrue(arguments.isEnableExceptionThrowSites());
+        assertNotNull(arguments.getOldObjectSampleInterval());
+        assertEquals(5, arguments.getTopThreads(), "explicit option overrides the profile");
+    }
+
+    @Test
+    void minimalProfileScalesPeriods() {
+        Arguments arguments = Arguments.parseArgs(new String[]{"--profile", "minimal"});
+        assertFalse(arguments.isEnableStackTraces());
+        assertTrue(arguments.getDisabledProviders().contains("socket"));
+
+        JfrEventSettings settings = JfrEventSettings.of("jdk.CPULoad", event -> {}).withPeriod(Duration.ofSeconds(1));
+        assertEquals(Duration.ofSeconds(5), arguments.getProfile().scale(settings).getPeriod());
+    }
+
+    @Test
+    void minimalProfileKeepsExplicitPeriods() {
+        Arguments arguments = Arguments.parseArgs(new String[]{"--profile", "minimal", "--classLoaderStatisticsPeriod", "PT1M"});
+        assertEquals(Duration.ofMinutes(1), arguments.getClassLoaderStatisticsPeriod());
+        assertEquals(Duration.ofSeconds(30), arguments.getDirectBufferStatisticsPeriod(), "profile default");
 
+        MetaspaceEvent metaspaceEvent = new MetaspaceEvent(event -> {},
+                arguments.getClassLoaderStatisticsPeriod(), arguments.getDirectBufferStatisticsPeriod());
+        Map<String, Duration> periods = new HashMap<>();
+        for (JfrEventSettings settings : metaspaceEvent.getEventSettings()) {
+            JfrEventSettings scaled = arguments.getProfile().scale(settings);
+            if (scaled.hasPeriod()) {
+                periods.put(scaled.getName(), scaled.getPeriod());
+            }
+        }
+        assertEquals(Duration.ofMinutes(1), periods.get("jdk.ClassLoaderStatistics"), "explicit period is not scaled");
+        assertEquals(Duration.ofSeconds(30), periods.get("jdk.DirectBufferStatistics"), "profile default is not scaled twice");
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExporterTelemetryTest {
+
+    @Test
+    void reportIntervalCounts() {
+        ExporterTelemetry telemetry = new ExporterTelemetry();
+        List<ProcessedJfrEvent> forwarded = new ArrayList<>();
+        JfrEventProcessor counting = telemetry.countEvents(forwarded::add);
+
+        for (int i = 0; i < 3; i++) {
+            counting.processEvent(ProcessedJfrEvent.of(Instant.now(), "cpu-load", "machineTotal", 0.5));
+        }
+        counting.processEvent(ProcessedJfrEvent.of(Instant.now(), "gc", "duration-ms", 12));
+        assertEquals(4, forwarded.size());
+
+        telemetry.addBufferBytes(300);
+        telemetry.recordBatch(100, 2_000_000, System.currentTimeMillis() - 1_500);
+        telemetry.recordBatch(200, 8_000_000, 0);
+        telemetry.recordWriteError(50);
+        telemetry.recordDropped(5);
+
+        List<ProcessedJfrEvent> reports = new ArrayList<>();
+        telemetry.report(reports::add);
+
+        assertEquals(3, reports.size());
+        assertEquals("exporter-events", reports.get(0).measurementName());
+        assertEquals(Map.of("event", "cpu-load"), reports.get(0).tags());
+        assertEquals(3L, reports.get(0).value());
+        assertEquals(1L, reports.get(1).value());
+
+        ProcessedJfrEvent report = reports.get(2);
+        assertEquals("exporter-telemetry", report.measurementName());
+        assertEquals(300L, report.value());
+        assertEquals(55L, report.extraFields().get("dropped-points"));
+        assertEquals(1L, report.extraFields().get("write-errors"));
+        assertEquals(300L, report.extraFields().get("buffer-bytes"));
+        assertEquals(2L, report.extraFields().get("batches"));
+        assertEquals(150.0, report.extraFields().get("batch-size-mean"));
+        assertEquals(8.0, report.extraFields().get("write-latency-ms-max"));
+        long lag = (long) report.extraFields().get("lag-ms-max");
+        assertTrue(lag >= 1_500 && lag < 60_000, "lag of the oldest event: " + lag);
+
+        // the next report only has the new counts, the MBean keeps the totals
+        counting.processEvent(ProcessedJfrEvent.of(Instant.now(), "gc", "duration-ms", 3));
+        reports.clear();
+        telemetry.report(reports::add);
+        assertEquals(2, reports.size());
+        assertEquals(Map.of("event", "gc"), reports.get(0).tags());
+        assertEquals(0L, reports.get(1).value());
+        assertFalse(reports.get(1).extraFields().containsKey("lag-ms-max"));
+
+        assertEquals(Map.of("cpu-load", 3L, "gc", 2L), telemetry.getEventsReceived());
+        assertEquals(300, telemetry.getPointsWritten());
+        assertEquals(55, telemetry.getDroppedPoints());
+    }
+
+    @Test
+    void histogramPercentiles() {
+        StripedHistogram histogram = new StripedHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        StripedHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+        assertEquals(1000, snapshot.count());
+        assertEquals(1000, snapshot.max());
+        // at most a quarter above the actual percentile
+        assertTrue(snapshot.p50() >= 500 && snapshot.p50() <= 625, "p50: " + snapshot.p50());
+        assertTrue(snapshot.p99() >= 990 && snapshot.p99() <= 1000, "p99: " + snapshot.p99());
+        assertEquals(0, histogram.snapshotAndReset().count());
+    }
+
+    @Test
+    void bucketBoundsMatchIndex() {
+        for (long value : new long[]{0, 1, 3, 4, 7, 8, 9, 100, 1_000_000, Long.MAX_VALUE}) {
+            int index = StripedHistogram.bucketIndex(value);
+            assertTrue(StripedHistogram.bucketUpperBound(index) >= value, "upper bound of " + value);
+            assertTrue(index == 0 || StripedHistogram.bucketUpperBound(index - 1) < value, "previous bound of " + value);
+        }
+    }
+}
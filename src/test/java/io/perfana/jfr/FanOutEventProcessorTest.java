@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FanOutEventProcessorTest {
+
+    @Test
+    void slowSinkDoesNotBlockOtherSinks() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<ProcessedJfrEvent> fastEvents = new CopyOnWriteArrayList<>();
+        List<ProcessedJfrEvent> slowEvents = new CopyOnWriteArrayList<>();
+
+        Map<String, JfrEventProcessor> processors = new LinkedHashMap<>();
+        processors.put("fast", fastEvents::add);
+        processors.put("slow", event -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            slowEvents.add(event);
+        });
+
+        FanOutEventProcessor fanOut = new FanOutEventProcessor(processors, 100);
+        for (int batch = 1; batch <= 5; batch++) {
+            for (int i = 0; i < 50; i++) {
+                fanOut.processEvent(ProcessedJfrEvent.of(Instant.now(), "test", "value", i));
+            }
+            awaitSize(fastEvents, batch * 50);
+        }
+        assertEquals(250, fastEvents.size(), "fast sink is not blocked by the slow sink");
+        assertTrue(slowEvents.isEmpty());
+
+        // the slow sink has at most one event in progress and a full queue, the rest is dropped
+        fanOut.report();
+
+        release.countDown();
+        fanOut.close();
+
+        ProcessedJfrEvent slowReport = fastEvents.stream()
+                .filter(event -> event.measurementName().equals("exporter-sink") && event.tags().get("sink").equals("slow"))
+                .findFirst().orElseThrow();
+        assertTrue(((Long) slowReport.extraFields().get("dropped")) >= 149, slowReport.toString());
+        assertTrue(slowEvents.size() <= 101, slowEvents.toString());
+    }
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
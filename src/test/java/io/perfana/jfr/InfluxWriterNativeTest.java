@@ -15,19 +15,28 @@
  */
 package io.perfana.jfr;
 
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.jfr.influx.InfluxApiVersion;
+import io.perfana.jfr.influx.InfluxOutagePolicy;
 import io.perfana.jfr.influx.InfluxWriter;
 import io.perfana.jfr.influx.InfluxWriterConfig;
 import io.perfana.jfr.influx.InfluxWriterNative;
-import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import javax.annotation.Nonnull;
+import java.io.InputStream;
 import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class InfluxWriterNativeTest {
@@ -40,7 +49,7 @@ class InfluxWriterNativeTest {
         }
     }
 
-    @NotNull
+    @Nonnull
     private static InfluxWriterNative createInfluxWriterNative() {
         InfluxWriterConfig config = new InfluxWriterConfig(
                 "http://localhost:8086",
@@ -94,4 +103,86 @@ class InfluxWriterNativeTest {
             assertTrue(influxWriter.isHealthy());
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void writeV2() throws Exception {
+        writeWithTokenApi(InfluxApiVersion.V2, "/api/v2/write", "org=perfana&bucket=jfr-bucket&precision=ns", "Token secret");
+    }
+
+    @Test
+    void v2NeedsOrg() {
+        InfluxWriterConfig config = new InfluxWriterConfig("http://localhost:8086", "jfr", "", "", "autogen", Map.of(), true,
+                InfluxApiVersion.V2, null, "jfr-bucket", "secret", InfluxOutagePolicy.BUFFER, 1_000);
+        JfrExporterException exception = assertThrows(JfrExporterException.class, () -> new InfluxWriterNative(config));
+        assertTrue(exception.getMessage().contains("--influxOrg"), exception.getMessage());
+    }
+
+    @Test
+    void writeV3() throws Exception {
+        writeWithTokenApi(InfluxApiVersion.V3, "/api/v3/write_lp", "db=jfr&precision=nanosecond", "Bearer secret");
+    }
+
+    private static void writeWithTokenApi(InfluxApiVersion apiVersion, String path, String query, String authorization) throws Exception {
+        List<String> requests = new CopyOnWriteArrayList<>();
+        HttpServer influx = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        influx.createContext("/", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                requests.add(exchange.getRequestURI().getPath() + " " + exchange.getRequestURI().getQuery() + " "
+                        + exchange.getRequestHeaders().getFirst("Authorization") + " " + new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        influx.start();
+        try {
+            InfluxWriterConfig config = new InfluxWriterConfig("http://localhost:" + influx.getAddress().getPort(),
+                    "jfr", "", "", "autogen", Map.of("service", "afterburner"), true,
+                    apiVersion, "perfana", "jfr-bucket", "secret", InfluxOutagePolicy.BUFFER, 1_000);
+            try (InfluxWriter influxWriter = new InfluxWriterNative(config)) {
+                influxWriter.writeMetricPoint(ProcessedJfrEvent.of(Instant.ofEpochSecond(1), "cpu-load", "machineTotal", 0.5));
+            }
+        } finally {
+            influx.stop(0);
+        }
+        assertEquals(List.of(path + " " + query + " " + authorization + " cpu-load,service=afterburner machineTotal=0.5 1000000000"), requests);
+    }
+
+    @Test
+    void rejectedBatchIsSplitToQuarantineBadLines() throws Exception {
+        List<String> written = new CopyOnWriteArrayList<>();
+        List<Integer> requestSizes = new CopyOnWriteArrayList<>();
+        HttpServer influx = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        influx.createContext("/write", exchange -> {
+            List<String> lines;
+            try (InputStream body = exchange.getRequestBody()) {
+                lines = List.of(new String(body.readAllBytes(), StandardCharsets.UTF_8).split("\n"));
+            }
+            requestSizes.add(lines.size());
+            if (lines.stream().anyMatch(line -> line.startsWith("bad"))) {
+                byte[] error = "{\"error\":\"unable to parse 'bad': invalid field format\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(400, error.length);
+                exchange.getResponseBody().write(error);
+            } else {
+                written.addAll(lines);
+                exchange.sendResponseHeaders(204, -1);
+            }
+            exchange.close();
+        });
+        influx.start();
+        try {
+            InfluxWriterConfig config = new InfluxWriterConfig("http://localhost:" + influx.getAddress().getPort(),
+                    "jfr", "", "", "autogen", Map.of(), true);
+            try (InfluxWriter influxWriter = new InfluxWriterNative(config)) {
+                for (int i = 0; i < 16; i++) {
+                    String measurement = i == 5 || i == 12 ? "bad" : "cpu-load";
+                    influxWriter.writeMetricPoint(ProcessedJfrEvent.of(Instant.ofEpochSecond(i), measurement, "machineTotal", i));
+                }
+            }
+        } finally {
+            influx.stop(0);
+        }
+        assertEquals(14, written.size(), "all lines but the bad ones are written: " + written);
+        assertTrue(written.stream().noneMatch(line -> line.startsWith("bad")));
+        assertTrue(requestSizes.size() <= 1 + 2 * 4 * 2, "requests to split the batch: " + requestSizes);
+    }
+}
@@ -16,12 +16,12 @@
 package io.perfana.jfr;
 
 import io.perfana.jfr.influx.InfluxWriter;
-import io.perfana.jfr.influx.InfluxWriterClient;
 import io.perfana.jfr.influx.InfluxWriterConfig;
-import org.jetbrains.annotations.NotNull;
+import io.perfana.jfr.influx.InfluxWriterNative;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
+import javax.annotation.Nonnull;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.Map;
@@ -33,14 +33,14 @@ class InfluxWriterTest {
     @Test
     @Disabled("Run with running influxdb on localhost:8086")
     void writeMetricPoint() throws Exception {
-        try (InfluxWriter influxWriter = createInfluxWriterClient()) {
+        try (InfluxWriter influxWriter = createInfluxWriter()) {
             assertTrue(influxWriter.isHealthy());
         }
     }
 
-    @NotNull
-    private static InfluxWriterClient createInfluxWriterClient() {
-        return new InfluxWriterClient(
+    @Nonnull
+    private static InfluxWriterNative createInfluxWriter() {
+        return new InfluxWriterNative(
                 new InfluxWriterConfig(
                         "http://localhost:8086",
                         "jfr",
@@ -54,7 +54,7 @@ class InfluxWriterTest {
     @Test
     @Disabled("Run with running influxdb on localhost:8086")
     void writeMetricPoints() throws Exception {
-        try (InfluxWriter influxWriter = createInfluxWriterClient()) {
+        try (InfluxWriter influxWriter = createInfluxWriter()) {
             ProcessedJfrEvent event1 = new ProcessedJfrEvent(
                     Instant.now(),
                     "measurement-1",
@@ -21,8 +21,11 @@ import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
 import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class JfrEventHandlerTest {
 
@@ -38,4 +41,22 @@ class JfrEventHandlerTest {
         jfrEventHandler.handle("test", eventMock);
     }
 
-}
\ No newline at end of file
+    @Test
+    void reconfigureAtRuntime() {
+        AtomicInteger handled = new AtomicInteger();
+        JfrEventHandler jfrEventHandler = new JfrEventHandler();
+        jfrEventHandler.register(JfrEventSettings.of("test", event -> handled.incrementAndGet()).withPeriod(Duration.ofSeconds(1)));
+
+        Properties properties = new Properties();
+        properties.setProperty("test.period", "PT5S");
+        properties.setProperty("test.enabled", "false");
+        new EventSettingsControl(jfrEventHandler).apply(properties);
+
+        assertEquals(Duration.ofSeconds(5), jfrEventHandler.getSettings("test").getPeriod());
+        jfrEventHandler.handle("test", Mockito.mock(RecordedEvent.class));
+        assertEquals(0, handled.get(), "disabled event is not handled");
+
+        assertThrows(IllegalArgumentException.class, () -> new EventSettingsControl(jfrEventHandler).setEnabled("unknown", true));
+    }
+
+}
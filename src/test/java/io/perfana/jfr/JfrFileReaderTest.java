@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JfrFileReaderTest {
+
+    @Name("io.perfana.jfr.test.Reader")
+    static class ReaderTestEvent extends Event {
+        int value;
+    }
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readRecordingFilesInParallel() throws Exception {
+        Instant start = Instant.now();
+        record(directory.resolve("first.jfr"), 0, 100);
+        Files.createDirectories(directory.resolve("nested"));
+        record(directory.resolve("nested").resolve("second.jfr"), 100, 200);
+        Files.writeString(directory.resolve("notes.txt"), "not a recording");
+        Instant end = Instant.now();
+
+        Set<Integer> values = ConcurrentHashMap.newKeySet();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        JfrEventHandler eventHandler = new JfrEventHandler();
+        eventHandler.register(JfrEventSettings.of("io.perfana.jfr.test.Reader", event -> {
+            assertFalse(event.getStartTime().isBefore(start.minusSeconds(1)), "original timestamp");
+            assertFalse(event.getStartTime().isAfter(end), "original timestamp");
+            values.add(event.getInt("value"));
+            threads.add(Thread.currentThread().getName());
+        }));
+
+        JfrFileReader.Result result = new JfrFileReader(() -> eventHandler, 2).read(directory);
+
+        assertEquals(2, result.files());
+        assertEquals(0, result.failedFiles());
+        assertTrue(result.events() >= 200, "events including the JDK events in the recordings: " + result.events());
+        assertEquals(200, values.size());
+        assertTrue(threads.stream().allMatch(name -> name.startsWith("jfr-exporter-reader-")), threads.toString());
+    }
+
+    @Test
+    void findFiles() throws Exception {
+        Path file = directory.resolve("recording.jfr");
+        Files.writeString(file, "");
+        assertEquals(List.of(file), JfrFileReader.findFiles(file));
+        assertEquals(List.of(file), JfrFileReader.findFiles(directory));
+        assertThrows(JfrExporterException.class, () -> new JfrFileReader(JfrEventHandler::new).read(directory.resolve("empty")));
+    }
+
+    @Test
+    void readChunksOfRecordingInTimeOrder() throws Exception {
+        // a counter that increases over the chunks of one recording, file names not in time order
+        Path first = Files.createDirectories(directory.resolve("first"));
+        record(first.resolve("b.jfr"), 0, 100);
+        record(first.resolve("a.jfr"), 100, 200);
+        Path second = Files.createDirectories(directory.resolve("second"));
+        record(second.resolve("c.jfr"), 0, 50);
+
+        // deltas of the counter per event handler, as a provider that calculates rates
+        List<List<Integer>> deltasPerHandler = new CopyOnWriteArrayList<>();
+        // the event handler of a recording is closed after its last file
+        List<Integer> closedWithDeltas = new CopyOnWriteArrayList<>();
+        Supplier<JfrEventHandler> eventHandlers = () -> {
+            List<Integer> deltas = new ArrayList<>();
+            deltasPerHandler.add(deltas);
+            int[] previous = {-1};
+            JfrEventHandler eventHandler = new JfrEventHandler();
+            eventHandler.registerStreamCloseListener(() -> closedWithDeltas.add(deltas.size()));
+            eventHandler.register(JfrEventSettings.of("io.perfana.jfr.test.Reader", event -> {
+                int value = event.getInt("value");
+                if (previous[0] >= 0) {
+                    deltas.add(value - previous[0]);
+                }
+                previous[0] = value;
+            }));
+            return eventHandler;
+        };
+
+        JfrFileReader.Result result = new JfrFileReader(eventHandlers, 2).read(directory);
+
+        assertEquals(3, result.files());
+        assertEquals(2, deltasPerHandler.size(), "one event handler per recording");
+        Set<Integer> deltaCounts = new HashSet<>();
+        for (List<Integer> deltas : deltasPerHandler) {
+            assertTrue(deltas.stream().allMatch(delta -> delta == 1), "counter increases by one: " + deltas);
+            deltaCounts.add(deltas.size());
+        }
+        assertEquals(Set.of(199, 49), deltaCounts);
+        assertEquals(Set.of(199, 49), Set.copyOf(closedWithDeltas));
+        assertEquals(2, closedWithDeltas.size());
+    }
+
+    private static void record(Path file, int from, int to) throws Exception {
+        try (Recording recording = new Recording()) {
+            recording.enable(ReaderTestEvent.class);
+            recording.start();
+            for (int i = from; i < to; i++) {
+                ReaderTestEvent event = new ReaderTestEvent();
+                event.value = i;
+                event.commit();
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import io.perfana.jfr.event.JfrEventProviderFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JfrPluginsTest {
+
+    @Test
+    void enableAndDisableProvidersByName() {
+        String[] args = {"--profile", "minimal", "--disableProvider", "safepoint",
+                "--enableProvider", "old-object-sample", "--oldObjectSampleInterval", "PT1M", "--enableProvider", "thread"};
+        Arguments arguments = Arguments.parseArgs(args);
+        List<JfrEventProviderFactory> factories = new JfrPlugins().enabledProviderFactories(arguments);
+        List<String> names = factories.stream()
+                .map(JfrEventProviderFactory::name)
+                .toList();
+
+        JfrEventHandler eventHandler = new JfrEventHandler();
+        for (JfrEventProviderFactory factory : factories) {
+            factory.create(event -> {}, arguments).getEventSettings().forEach(eventHandler::register);
+        }
+
+        assertEquals("cpu-load", names.get(0));
+        assertFalse(names.contains("safepoint"));
+        assertTrue(names.contains("old-object-sample"));
+        assertTrue(names.contains("thread"), "enabled by name over the profile");
+        assertFalse(names.contains("event-mappings"), "only enabled with a mappings file");
+    }
+
+    @Test
+    void enabledProviderNeedsRequiredOption() {
+        String[] args = {"--enableProvider", "old-object-sample"};
+        JfrExporterException exception = assertThrows(JfrExporterException.class,
+                () -> new JfrPlugins().enabledProviderFactories(Arguments.parseArgs(args)));
+        assertTrue(exception.getMessage().contains("--oldObjectSampleInterval"), exception.getMessage());
+
+        String[] mappingArgs = {"--enableProvider", "event-mappings"};
+        assertThrows(JfrExporterException.class, () -> new JfrPlugins().enabledProviderFactories(Arguments.parseArgs(mappingArgs)));
+    }
+
+    @Test
+    void unknownEventProcessor() {
+        String[] args = {"--eventProcessor", "unknown"};
+        assertThrows(JfrExporterException.class, () -> new JfrPlugins().createEventProcessor(Arguments.parseArgs(args)));
+    }
+}
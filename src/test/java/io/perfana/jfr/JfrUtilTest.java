@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JfrUtilTest {
+
+    @Test
+    void topN() {
+        List<Integer> values = List.of(5, 1, 9, 3, 7, 2);
+        assertEquals(List.of(9, 7, 5), JfrUtil.topN(values, 3, Comparator.naturalOrder()));
+        assertEquals(List.of(9, 7, 5, 3, 2, 1), JfrUtil.topN(values, 10, Comparator.naturalOrder()));
+        assertEquals(List.of(), JfrUtil.topN(values, 0, Comparator.naturalOrder()));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JvmDiscoveryTest {
+
+    private final List<JvmDiscovery.Jvm> running = new ArrayList<>();
+    private final List<String> connected = new ArrayList<>();
+    private final List<String> closed = new ArrayList<>();
+    private final Set<String> connectable = new HashSet<>();
+    private long now = 0;
+
+    @Test
+    void connectNewAndReleaseExitedJvms() {
+        JvmDiscovery discovery = discovery(null, Pattern.compile("jcmd"));
+
+        running.add(new JvmDiscovery.Jvm("100", "afterburner.jar --server.port=8080"));
+        running.add(new JvmDiscovery.Jvm("200", "jdk.jcmd/sun.tools.jcmd.JCmd"));
+        running.add(new JvmDiscovery.Jvm(String.valueOf(ProcessHandle.current().pid()), "exporter"));
+        discovery.discover();
+        assertEquals(Set.of("100"), discovery.getTargets());
+
+        running.add(new JvmDiscovery.Jvm("300", "io.perfana.Other"));
+        discovery.discover();
+        assertEquals(Set.of("100", "300"), discovery.getTargets());
+        assertEquals(List.of("100", "300"), connected, "connect each JVM once");
+
+        running.remove(0);
+        discovery.discover();
+        assertEquals(Set.of("300"), discovery.getTargets());
+        assertEquals(List.of("100"), closed);
+
+        discovery.close();
+        assertEquals(List.of("100", "300"), closed);
+    }
+
+    @Test
+    void retrySkippedJvmWithBackoff() {
+        JvmDiscovery discovery = discovery(null, null);
+        running.add(new JvmDiscovery.Jvm("400", "starting"));
+
+        discovery.discover();
+        discovery.discover();
+        assertTrue(discovery.getTargets().isEmpty());
+        assertEquals(List.of("400"), connected, "not retried within the backoff");
+
+        now += 10_000;
+        discovery.discover();
+        assertEquals(List.of("400", "400"), connected, "retried after the backoff");
+
+        now += 10_000;
+        discovery.discover();
+        assertEquals(2, connected.size(), "backoff doubled");
+
+        connectable.add("400");
+        now += 10_000;
+        discovery.discover();
+        assertEquals(Set.of("400"), discovery.getTargets());
+    }
+
+    @Test
+    void includeAndExclude() {
+        JvmDiscovery discovery = discovery(Pattern.compile("afterburner"), Pattern.compile("test"));
+        assertTrue(discovery.matches(new JvmDiscovery.Jvm("1", "io.perfana.afterburner.AfterburnerApplication")));
+        assertFalse(discovery.matches(new JvmDiscovery.Jvm("2", "io.perfana.afterburner.test.Runner")));
+        assertFalse(discovery.matches(new JvmDiscovery.Jvm("3", "org.gradle.launcher.daemon.bootstrap.GradleDaemon")));
+        assertTrue(discovery(Pattern.compile("^42 "), null).matches(new JvmDiscovery.Jvm("42", "Main")));
+    }
+
+    @Test
+    void mainClass() {
+        assertEquals("afterburner.jar", new JvmDiscovery.Jvm("1", "/opt/app/afterburner.jar --debug").mainClass());
+        assertEquals("io.perfana.Main", new JvmDiscovery.Jvm("1", "io.perfana.Main arg").mainClass());
+        assertEquals("unknown", new JvmDiscovery.Jvm("1", "").mainClass());
+    }
+
+    @Test
+    void tagging() {
+        List<ProcessedJfrEvent> events = new ArrayList<>();
+        JfrEventProcessor processor = JvmDiscovery.tagging(events::add, Map.of("pid", "100", "service", "jvm"));
+
+        processor.processEvent(new ProcessedJfrEvent(null, "cpu", Map.of("service", "event"), "load", 1, Map.of(), List.of()));
+
+        assertEquals(Map.of("pid", "100", "service", "event"), events.get(0).tags());
+        assertEquals(Map.of("service", "afterburner", "team", "perf"), Arguments.parseTags("service/afterburner, team/perf,"));
+    }
+
+    private JvmDiscovery discovery(Pattern include, Pattern exclude) {
+        return new JvmDiscovery(include, exclude, () -> List.copyOf(running), jvm -> {
+            connected.add(jvm.pid());
+            if (jvm.displayName().equals("starting") && !connectable.contains(jvm.pid())) {
+                throw new JfrExporterException("no JFR repository");
+            }
+            return () -> closed.add(jvm.pid());
+        }, () -> now);
+    }
+}
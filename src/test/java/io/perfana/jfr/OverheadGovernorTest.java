@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr;
+
+import jdk.jfr.EventSettings;
+import jdk.jfr.consumer.RecordingStream;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OverheadGovernorTest {
+
+    @Test
+    void levelUpOverBudgetAndDownBelowHalf() {
+        JfrEventHandler eventHandler = new JfrEventHandler();
+        eventHandler.register(JfrEventSettings.of("jdk.CPULoad", event -> {}).withPeriod(Duration.ofSeconds(1)));
+        eventHandler.register(JfrEventSettings.of("jdk.JavaMonitorEnter", event -> {}).withThreshold(Duration.ofMillis(10)));
+
+        RecordingStream stream = Mockito.mock(RecordingStream.class);
+        EventSettings cpuLoad = Mockito.mock(EventSettings.class);
+        EventSettings monitorEnter = Mockito.mock(EventSettings.class);
+        Mockito.when(stream.enable("jdk.CPULoad")).thenReturn(cpuLoad);
+        Mockito.when(stream.enable("jdk.JavaMonitorEnter")).thenReturn(monitorEnter);
+
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        try (OverheadGovernor governor = new OverheadGovernor(eventHandler, processed::add, 0.5)) {
+            governor.onRecordingStream(stream);
+
+            assertEquals(1, governor.adjustLevel(0.8));
+            assertEquals(2, governor.adjustLevel(0.8));
+            assertEquals(2, governor.adjustLevel(0.3), "stays between half and the full budget");
+            assertEquals(1, governor.adjustLevel(0.1));
+            assertEquals(0, governor.adjustLevel(0.1));
+            assertEquals(0, governor.getLevel());
+
+            ArgumentCaptor<Duration> periods = ArgumentCaptor.forClass(Duration.class);
+            Mockito.verify(cpuLoad, Mockito.times(4)).withPeriod(periods.capture());
+            assertEquals(List.of(Duration.ofSeconds(2), Duration.ofSeconds(4), Duration.ofSeconds(2), Duration.ofSeconds(1)), periods.getAllValues());
+
+            ArgumentCaptor<Duration> thresholds = ArgumentCaptor.forClass(Duration.class);
+            Mockito.verify(monitorEnter, Mockito.times(4)).withThreshold(thresholds.capture());
+            assertEquals(List.of(Duration.ofMillis(20), Duration.ofMillis(40), Duration.ofMillis(20), Duration.ofMillis(10)), thresholds.getAllValues());
+        }
+    }
+
+    @Test
+    void dropStackTracesOverBudget() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        try (OverheadGovernor governor = new OverheadGovernor(new JfrEventHandler(), event -> {}, 0.5)) {
+            JfrEventProcessor processor = governor.wrap(processed::add);
+            ProcessedJfrEvent event = new ProcessedJfrEvent(null, "monitor", Map.of(), "duration-ms", 12, Map.of(), List.of("io.perfana.Lock.take"));
+
+            processor.processEvent(event);
+            governor.adjustLevel(1.0);
+            processor.processEvent(event);
+
+            assertEquals(List.of("io.perfana.Lock.take"), processed.get(0).stacktrace());
+            assertTrue(processed.get(1).stacktrace().isEmpty());
+        }
+    }
+}
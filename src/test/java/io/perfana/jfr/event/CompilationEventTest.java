@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.ProcessedJfrEvent;
+import jdk.jfr.EventType;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedMethod;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CompilationEventTest {
+
+    @Test
+    void deoptimizationsPerMethod() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        CompilationEvent compilationEvent = new CompilationEvent(processed::add);
+
+        compilationEvent.onEvent(mockDeoptimization("io.perfana.Foo", "bar"));
+        compilationEvent.onEvent(mockDeoptimization("io.perfana.Foo", "bar"));
+        compilationEvent.onEvent(mockDeoptimization("io.perfana.Baz", "qux"));
+
+        compilationEvent.reportDeoptimizations(Instant.now());
+
+        // the report interval can also pass while the events arrive, so sum the points per method
+        Map<String, Long> countPerMethod = processed.stream()
+                .peek(event -> assertEquals("deoptimization", event.measurementName()))
+                .peek(event -> assertEquals("unstable_if", event.tags().get("reason")))
+                .collect(Collectors.groupingBy(event -> event.tags().get("method"),
+                        Collectors.summingLong(event -> event.value().longValue())));
+        assertEquals(Map.of("io.perfana.Foo.bar", 2L, "io.perfana.Baz.qux", 1L), countPerMethod);
+    }
+
+    private static RecordedEvent mockDeoptimization(String className, String methodName) {
+        RecordedEvent eventMock = Mockito.mock(RecordedEvent.class);
+        EventType eventTypeMock = Mockito.mock(EventType.class);
+        Mockito.when(eventTypeMock.getName()).thenReturn(CompilationEvent.JDK_DEOPTIMIZATION);
+        Mockito.when(eventMock.getEventType()).thenReturn(eventTypeMock);
+        Mockito.when(eventMock.getString("reason")).thenReturn("unstable_if");
+        Mockito.when(eventMock.getString("action")).thenReturn("reinterpret");
+
+        RecordedClass recordedClassMock = Mockito.mock(RecordedClass.class);
+        Mockito.when(recordedClassMock.getName()).thenReturn(className);
+        RecordedMethod recordedMethodMock = Mockito.mock(RecordedMethod.class);
+        Mockito.when(recordedMethodMock.getType()).thenReturn(recordedClassMock);
+        Mockito.when(recordedMethodMock.getName()).thenReturn(methodName);
+        Mockito.when(eventMock.getValue("method")).thenReturn(recordedMethodMock);
+        return eventMock;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.ProcessedJfrEvent;
+import jdk.jfr.EventType;
+import jdk.jfr.consumer.RecordedEvent;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ContainerEventTest {
+
+    private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Test
+    void throttledRatioFromDeltas() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        ContainerEvent containerEvent = new ContainerEvent(processed::add);
+
+        containerEvent.onEvent(mockThrottling(START, 100, 10, 50_000_000));
+        assertEquals(0, processed.size(), "first event only sets the baseline");
+
+        containerEvent.onEvent(mockThrottling(START.plusSeconds(1), 110, 15, 80_000_000));
+
+        assertEquals(1, processed.size());
+        ProcessedJfrEvent event = processed.get(0);
+        assertEquals("container-cpu-throttling", event.measurementName());
+        assertEquals(0.5, event.value());
+        assertEquals(10L, event.extraFields().get("cpuElapsedSlices"));
+        assertEquals(5L, event.extraFields().get("cpuThrottledSlices"));
+        assertEquals(30.0, event.extraFields().get("cpuThrottledTime-ms"));
+    }
+
+    private static RecordedEvent mockThrottling(Instant timestamp, long elapsedSlices, long throttledSlices, long throttledTimeNs) {
+        RecordedEvent eventMock = Mockito.mock(RecordedEvent.class);
+        EventType eventTypeMock = Mockito.mock(EventType.class);
+        Mockito.when(eventTypeMock.getName()).thenReturn(ContainerEvent.JDK_CONTAINER_CPU_THROTTLING);
+        Mockito.when(eventMock.getEventType()).thenReturn(eventTypeMock);
+        Mockito.when(eventMock.getStartTime()).thenReturn(timestamp);
+        Mockito.when(eventMock.getLong("cpuElapsedSlices")).thenReturn(elapsedSlices);
+        Mockito.when(eventMock.getLong("cpuThrottledSlices")).thenReturn(throttledSlices);
+        Mockito.when(eventMock.getLong("cpuThrottledTime")).thenReturn(throttledTimeNs);
+        return eventMock;
+    }
+}
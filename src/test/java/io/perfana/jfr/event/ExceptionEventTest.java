@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.ProcessedJfrEvent;
+import jdk.jfr.EventType;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExceptionEventTest {
+
+    private static final String EXCEPTION = "io.perfana.NotFoundException";
+
+    @Test
+    void throwSitesPerSite() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        ExceptionEvent exceptionEvent = new ExceptionEvent(processed::add, true);
+
+        RecordedStackTrace lookup = stackTrace(frame("io.perfana.Repository", "find", 10));
+        RecordedStackTrace load = stackTrace(frame("io.perfana.Loader", "load", 20));
+        exceptionEvent.onEvent(mockThrow(lookup));
+        exceptionEvent.onEvent(mockThrow(lookup));
+        exceptionEvent.onEvent(mockThrow(load));
+
+        exceptionEvent.reportThrowSites();
+
+        assertEquals(2, processed.size(), "one point per throw site");
+        Map<String, Number> countPerSite = processed.stream()
+                .peek(event -> assertEquals(EXCEPTION, event.tags().get("exceptionClass")))
+                .collect(Collectors.toMap(event -> event.tags().get("site"), ProcessedJfrEvent::value));
+        assertEquals(Map.of("io.perfana.Repository.find (line: 10)", 2L, "io.perfana.Loader.load (line: 20)", 1L), countPerSite);
+    }
+
+    @Test
+    void stackTraceOfReusedEvent() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        ExceptionEvent exceptionEvent = new ExceptionEvent(processed::add, true);
+
+        // the stream reuses the recorded event, the stack trace of the site is taken at its first throw
+        RecordedStackTrace load = stackTrace(frame("io.perfana.Loader", "load", 20));
+        RecordedEvent eventMock = mockThrow(stackTrace(frame("io.perfana.Repository", "find", 10)));
+        exceptionEvent.onEvent(eventMock);
+        Mockito.when(eventMock.getStackTrace()).thenReturn(load);
+        exceptionEvent.onEvent(eventMock);
+
+        exceptionEvent.reportThrowSites();
+
+        Map<String, List<String>> stackTracePerSite = processed.stream()
+                .collect(Collectors.toMap(event -> event.tags().get("site"), ProcessedJfrEvent::stacktrace));
+        assertEquals(Map.of(
+                "io.perfana.Repository.find (line: 10)", List.of("io.perfana.Repository.find (line: 10)"),
+                "io.perfana.Loader.load (line: 20)", List.of("io.perfana.Loader.load (line: 20)")), stackTracePerSite);
+    }
+
+    @Test
+    void throwSiteSkipsThrowableConstructorsOnly() {
+        RecordedStackTrace inConstructor = stackTrace(
+                frame("java.lang.Throwable", "<init>", 1),
+                frame("java.lang.Exception", "<init>", 2),
+                frame(EXCEPTION, "<init>", 3),
+                frame("io.perfana.Service", "<init>", 40),
+                frame("io.perfana.Main", "main", 50));
+        assertEquals("io.perfana.Service.<init> (line: 40)", ExceptionEvent.throwSite(inConstructor, EXCEPTION));
+
+        RecordedStackTrace inMethod = stackTrace(
+                frame("java.lang.Throwable", "<init>", 1),
+                frame("java.lang.RuntimeException", "<init>", 2),
+                frame("io.perfana.Service", "call", 60));
+        assertEquals("io.perfana.Service.call (line: 60)", ExceptionEvent.throwSite(inMethod, "java.lang.IllegalStateException"));
+    }
+
+    private static RecordedEvent mockThrow(RecordedStackTrace stackTrace) {
+        RecordedEvent eventMock = Mockito.mock(RecordedEvent.class);
+        EventType eventTypeMock = Mockito.mock(EventType.class);
+        Mockito.when(eventTypeMock.getName()).thenReturn(ExceptionEvent.JDK_JAVA_EXCEPTION_THROW);
+        Mockito.when(eventMock.getEventType()).thenReturn(eventTypeMock);
+        RecordedClass thrownClassMock = Mockito.mock(RecordedClass.class);
+        Mockito.when(thrownClassMock.getName()).thenReturn(EXCEPTION);
+        Mockito.when(eventMock.getClass("thrownClass")).thenReturn(thrownClassMock);
+        Mockito.when(eventMock.getStackTrace()).thenReturn(stackTrace);
+        return eventMock;
+    }
+
+    private static RecordedStackTrace stackTrace(RecordedFrame... frames) {
+        RecordedStackTrace stackTraceMock = Mockito.mock(RecordedStackTrace.class);
+        Mockito.when(stackTraceMock.getFrames()).thenReturn(List.of(frames));
+        return stackTraceMock;
+    }
+
+    private static RecordedFrame frame(String className, String methodName, int line) {
+        RecordedClass classMock = Mockito.mock(RecordedClass.class);
+        Mockito.when(classMock.getName()).thenReturn(className);
+        RecordedMethod methodMock = Mockito.mock(RecordedMethod.class);
+        Mockito.when(methodMock.getType()).thenReturn(classMock);
+        Mockito.when(methodMock.getName()).thenReturn(methodName);
+        RecordedFrame frameMock = Mockito.mock(RecordedFrame.class);
+        Mockito.when(frameMock.getMethod()).thenReturn(methodMock);
+        Mockito.when(frameMock.getLineNumber()).thenReturn(line);
+        return frameMock;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.JfrUtil;
+import io.perfana.jfr.NoopEventProcessor;
+import io.perfana.jfr.ProcessedJfrEvent;
+import jdk.jfr.EventType;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FileIoEventTest {
+
+    @Test
+    void onEvent() {
+        FileIoEvent fileIoEvent = new FileIoEvent(new NoopEventProcessor());
+
+        RecordedEvent eventMock = Mockito.mock(RecordedEvent.class);
+
+        EventType eventTypeMock = Mockito.mock(EventType.class);
+        Mockito.when(eventTypeMock.getName()).thenReturn(FileIoEvent.JDK_FILE_READ);
+        Mockito.when(eventMock.getEventType()).thenReturn(eventTypeMock);
+
+        Mockito.when(eventMock.getString("path")).thenReturn("/var/log/app/out.log");
+        Mockito.when(eventMock.getLong("bytesRead")).thenReturn(-1L);
+        Mockito.when(eventMock.getLong("duration")).thenReturn(20_000_000L);
+
+        assertDoesNotThrow(() -> fileIoEvent.onEvent(eventMock));
+    }
+
+    @Test
+    void slowestKeepsValuesOfReusedEvent() {
+        // the stream reuses the recorded event, so the second event is the same object
+        RecordedEvent eventMock = mockFileRead("worker-1", "io.perfana.Store", "load", 20_000_000L);
+
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        FileIoEvent fileIoEvent = new FileIoEvent(processed::add);
+        fileIoEvent.onEvent(eventMock);
+        mockThreadAndFrame(eventMock, "worker-2", "io.perfana.Cache", "get");
+        Mockito.when(eventMock.getLong("duration")).thenReturn(15_000_000L);
+        fileIoEvent.onEvent(eventMock);
+
+        fileIoEvent.reportSlowest(Instant.now());
+
+        List<ProcessedJfrEvent> reported = processed.stream()
+                .filter(event -> "file-io-slowest".equals(event.measurementName()))
+                .toList();
+        assertEquals(1, reported.size());
+        ProcessedJfrEvent slowest = reported.get(0);
+        assertEquals(20_000_000L, slowest.value());
+        assertEquals("worker-1", slowest.extraFields().get("thread"));
+        assertEquals(List.of("io.perfana.Store.load (line: 42)"), slowest.stacktrace());
+    }
+
+    private static RecordedEvent mockFileRead(String thread, String frameClass, String frameMethod, long durationNs) {
+        RecordedEvent eventMock = Mockito.mock(RecordedEvent.class);
+        EventType eventTypeMock = Mockito.mock(EventType.class);
+        Mockito.when(eventTypeMock.getName()).thenReturn(FileIoEvent.JDK_FILE_READ);
+        Mockito.when(eventMock.getEventType()).thenReturn(eventTypeMock);
+        Mockito.when(eventMock.getString("path")).thenReturn("/var/log/app/out.log");
+        Mockito.when(eventMock.getLong("bytesRead")).thenReturn(100L);
+        Mockito.when(eventMock.getLong("duration")).thenReturn(durationNs);
+        mockThreadAndFrame(eventMock, thread, frameClass, frameMethod);
+        return eventMock;
+    }
+
+    private static void mockThreadAndFrame(RecordedEvent eventMock, String thread, String frameClass, String frameMethod) {
+        RecordedThread threadMock = Mockito.mock(RecordedThread.class);
+        Mockito.when(threadMock.getJavaName()).thenReturn(thread);
+        Mockito.when(eventMock.getThread()).thenReturn(threadMock);
+
+        RecordedClass classMock = Mockito.mock(RecordedClass.class);
+        Mockito.when(classMock.getName()).thenReturn(frameClass);
+        RecordedMethod methodMock = Mockito.mock(RecordedMethod.class);
+        Mockito.when(methodMock.getType()).thenReturn(classMock);
+        Mockito.when(methodMock.getName()).thenReturn(frameMethod);
+        RecordedFrame frameMock = Mockito.mock(RecordedFrame.class);
+        Mockito.when(frameMock.getMethod()).thenReturn(methodMock);
+        Mockito.when(frameMock.getLineNumber()).thenReturn(42);
+        RecordedStackTrace stackTraceMock = Mockito.mock(RecordedStackTrace.class);
+        Mockito.when(stackTraceMock.getFrames()).thenReturn(List.of(frameMock));
+        Mockito.when(eventMock.getStackTrace()).thenReturn(stackTraceMock);
+    }
+
+    @Test
+    void normalizePath() {
+        assertEquals("/var/log/app-N", FileIoEvent.normalizePath("/var/log/app-12/2024/out.log", 3));
+        assertEquals("/var/log", FileIoEvent.normalizePath("/var/log/out.log", 3));
+        assertEquals("/", FileIoEvent.normalizePath("/out.log", 3));
+        assertEquals(".", FileIoEvent.normalizePath("out.log", 3));
+        assertEquals("C:/data", FileIoEvent.normalizePath("C:\\data\\file.txt", 3));
+        assertEquals("<unknown>", FileIoEvent.normalizePath(null, 3));
+    }
+
+    @Test
+    void replaceDigits() {
+        assertEquals("pool-N-thread-N", JfrUtil.replaceDigits("pool-3-thread-17"));
+        assertEquals("main", JfrUtil.replaceDigits("main"));
+        assertEquals("N", JfrUtil.replaceDigits("2024"));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.ProcessedJfrEvent;
+import jdk.jfr.Event;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedEventTest {
+
+    @Name("io.perfana.jfr.test.Order")
+    static class OrderEvent extends Event {
+        String region;
+        long amount;
+        int items;
+    }
+
+    @Test
+    void parseMappings() {
+        Properties properties = new Properties();
+        properties.setProperty("orders.event", "io.perfana.jfr.test.Order");
+        properties.setProperty("orders.measurement", "orders");
+        properties.setProperty("orders.field", "amount");
+        properties.setProperty("orders.fields", "items, duration");
+        properties.setProperty("orders.tags", "region");
+        properties.setProperty("orders.threshold", "PT0.01S");
+
+        List<EventMapping> mappings = EventMapping.parse(properties);
+
+        assertEquals(1, mappings.size());
+        EventMapping mapping = mappings.get(0);
+        assertEquals("io.perfana.jfr.test.Order", mapping.eventName());
+        assertEquals(List.of("items", "duration"), mapping.extraFields());
+        assertEquals(List.of("region"), mapping.tags());
+        assertNull(mapping.period());
+        assertEquals(10, mapping.threshold().toMillis());
+    }
+
+    @Test
+    void parseMappingsWithoutMeasurement() {
+        Properties properties = new Properties();
+        properties.setProperty("orders.event", "io.perfana.jfr.test.Order");
+        assertThrows(RuntimeException.class, () -> EventMapping.parse(properties));
+    }
+
+    @Test
+    void mapCustomEvent() throws Exception {
+        EventMapping mapping = new EventMapping("io.perfana.jfr.test.Order", "orders", "amount",
+                List.of("items", "duration", "missing"), List.of("region"), null, null, null);
+
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        MappedEvent mappedEvent = new MappedEvent(processed::add, mapping);
+        for (RecordedEvent event : recordOrders()) {
+            mappedEvent.onEvent(event);
+        }
+
+        assertEquals(2, processed.size());
+        ProcessedJfrEvent first = processed.get(0);
+        assertEquals("orders", first.measurementName());
+        assertEquals("amount", first.field());
+        assertEquals(42L, first.value());
+        assertEquals("EU", first.tags().get("region"));
+        assertEquals(3L, first.extraFields().get("items"));
+        assertInstanceOf(Double.class, first.extraFields().get("duration"));
+        assertFalse(first.extraFields().containsKey("missing"));
+        assertEquals(MappedEvent.UNKNOWN_VALUE, processed.get(1).tags().get("region"));
+    }
+
+    @Test
+    void countEventsWithoutField() throws Exception {
+        EventMapping mapping = new EventMapping("io.perfana.jfr.test.Order", "orders", null,
+                List.of(), List.of(), null, null, null);
+
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        MappedEvent mappedEvent = new MappedEvent(processed::add, mapping);
+        for (RecordedEvent event : recordOrders()) {
+            mappedEvent.onEvent(event);
+        }
+
+        assertEquals(2, processed.size());
+        assertEquals("count", processed.get(0).field());
+        assertEquals(1, processed.get(0).value());
+    }
+
+    private static List<RecordedEvent> recordOrders() throws Exception {
+        Path file = Files.createTempFile("orders", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(OrderEvent.class);
+            recording.start();
+
+            OrderEvent order = new OrderEvent();
+            order.region = "EU";
+            order.amount = 42;
+            order.items = 3;
+            order.commit();
+
+            OrderEvent orderWithoutRegion = new OrderEvent();
+            orderWithoutRegion.amount = 7;
+            orderWithoutRegion.commit();
+
+            recording.stop();
+            recording.dump(file);
+        }
+        try {
+            return RecordingFile.readAllEvents(file).stream()
+                    .filter(e -> e.getEventType().getName().equals("io.perfana.jfr.test.Order"))
+                    .toList();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
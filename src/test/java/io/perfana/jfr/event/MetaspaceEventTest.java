@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.ProcessedJfrEvent;
+import jdk.jfr.EventType;
+import jdk.jfr.consumer.RecordedClassLoader;
+import jdk.jfr.consumer.RecordedEvent;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetaspaceEventTest {
+
+    @Test
+    void directBufferStatistics() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        MetaspaceEvent metaspaceEvent = new MetaspaceEvent(processed::add, Duration.ofSeconds(10), Duration.ofSeconds(5));
+
+        RecordedEvent eventMock = mockEvent(MetaspaceEvent.JDK_DIRECT_BUFFER_STATISTICS);
+        Mockito.when(eventMock.getLong("count")).thenReturn(3L);
+        Mockito.when(eventMock.getLong("totalCapacity")).thenReturn(4096L);
+        Mockito.when(eventMock.getLong("maxCapacity")).thenReturn(8192L);
+        Mockito.when(eventMock.getLong("memoryUsed")).thenReturn(2048L);
+
+        metaspaceEvent.onEvent(eventMock);
+
+        assertEquals(1, processed.size());
+        ProcessedJfrEvent event = processed.get(0);
+        assertEquals("direct-buffers", event.measurementName());
+        assertEquals("memoryUsed", event.field());
+        assertEquals(2048L, event.value());
+        assertEquals(Map.of("count", 3L, "totalCapacity", 4096L, "maxCapacity", 8192L), event.extraFields());
+    }
+
+    @Test
+    void metaspaceOutOfMemory() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        MetaspaceEvent metaspaceEvent = new MetaspaceEvent(processed::add, Duration.ofSeconds(10), Duration.ofSeconds(5));
+
+        RecordedClassLoader classLoaderMock = Mockito.mock(RecordedClassLoader.class);
+        Mockito.when(classLoaderMock.getName()).thenReturn("app");
+
+        RecordedEvent eventMock = mockEvent(MetaspaceEvent.JDK_METASPACE_OOM);
+        Mockito.when(eventMock.getValue("classLoader")).thenReturn(classLoaderMock);
+        Mockito.when(eventMock.getLong("size")).thenReturn(1024L);
+        Mockito.when(eventMock.getString("metadataType")).thenReturn("Class");
+        Mockito.when(eventMock.getString("metaspaceObjectType")).thenReturn("ConstMethod");
+
+        metaspaceEvent.onEvent(eventMock);
+
+        assertEquals(1, processed.size());
+        ProcessedJfrEvent event = processed.get(0);
+        assertEquals("metaspace-oom", event.measurementName());
+        assertEquals("size", event.field());
+        assertEquals(1024L, event.value());
+        assertEquals(Map.of("classLoader", "app", "metadataType", "Class", "metaspaceObjectType", "ConstMethod"), event.extraFields());
+        assertTrue(event.stacktrace().isEmpty(), "no stack trace recorded");
+    }
+
+    @Test
+    void metaspaceSummaryOnlyAfterGc() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        MetaspaceEvent metaspaceEvent = new MetaspaceEvent(processed::add, Duration.ofSeconds(10), Duration.ofSeconds(5));
+
+        RecordedEvent beforeGc = mockEvent(MetaspaceEvent.JDK_METASPACE_SUMMARY);
+        Mockito.when(beforeGc.getString("when")).thenReturn("Before GC");
+        metaspaceEvent.onEvent(beforeGc);
+
+        RecordedEvent afterGc = mockEvent(MetaspaceEvent.JDK_METASPACE_SUMMARY);
+        Mockito.when(afterGc.getString("when")).thenReturn("After GC");
+        Mockito.when(afterGc.getLong("metaspace.used")).thenReturn(100_000L);
+        metaspaceEvent.onEvent(afterGc);
+
+        assertEquals(1, processed.size());
+        assertEquals("metaspace", processed.get(0).measurementName());
+        assertEquals(100_000L, processed.get(0).value());
+    }
+
+    @Test
+    void bootstrapClassLoaderName() {
+        assertEquals("bootstrap", MetaspaceEvent.classLoaderName(null));
+    }
+
+    private static RecordedEvent mockEvent(String name) {
+        RecordedEvent eventMock = Mockito.mock(RecordedEvent.class);
+        EventType eventTypeMock = Mockito.mock(EventType.class);
+        Mockito.when(eventTypeMock.getName()).thenReturn(name);
+        Mockito.when(eventMock.getEventType()).thenReturn(eventTypeMock);
+        Mockito.when(eventMock.getStartTime()).thenReturn(Instant.now());
+        return eventMock;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.ProcessedJfrEvent;
+import jdk.jfr.EventType;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedObject;
+import jdk.jfr.consumer.RecordedStackTrace;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OldObjectSampleEventTest {
+
+    @Test
+    void leakCandidatesPerAllocationSite() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        OldObjectSampleEvent oldObjectSampleEvent = new OldObjectSampleEvent(processed::add, Duration.ofMinutes(1), Duration.ofMillis(100));
+
+        oldObjectSampleEvent.onEvent(mockSample("[B", "io.perfana.Cache", "put", 10));
+        oldObjectSampleEvent.onEvent(mockSample("[B", "io.perfana.Cache", "put", 10));
+        oldObjectSampleEvent.onEvent(mockSample("[B", "io.perfana.Buffer", "grow", 20));
+
+        oldObjectSampleEvent.reportLeakCandidates();
+
+        assertEquals(2, processed.size(), "one point per allocation site");
+        Map<String, Number> countPerSite = processed.stream()
+                .peek(event -> assertEquals("byte[]", event.tags().get("objectClass")))
+                .collect(Collectors.toMap(event -> event.tags().get("allocationSite"), ProcessedJfrEvent::value));
+        assertEquals(Map.of("io.perfana.Cache.put (line: 10)", 2L, "io.perfana.Buffer.grow (line: 20)", 1L), countPerSite);
+    }
+
+    @Test
+    void valuesOfReusedEventReportedOnStreamClose() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        OldObjectSampleEvent oldObjectSampleEvent = new OldObjectSampleEvent(processed::add, Duration.ofMinutes(1), Duration.ofMillis(100));
+
+        // the stream reuses the recorded event, the gc root is taken from the first sample
+        RecordedEvent eventMock = mockSample("[B", "io.perfana.Cache", "put", 10);
+        RecordedObject rootMock = Mockito.mock(RecordedObject.class);
+        Mockito.when(rootMock.getString("system")).thenReturn("Threads");
+        Mockito.when(rootMock.getString("type")).thenReturn("Stack Variable");
+        Mockito.when(eventMock.getValue("root")).thenReturn(rootMock);
+        oldObjectSampleEvent.onEvent(eventMock);
+        Mockito.when(eventMock.getValue("root")).thenReturn(null);
+        oldObjectSampleEvent.onEvent(eventMock);
+
+        assertEquals(0, processed.size(), "burst is not reported before the next burst");
+        oldObjectSampleEvent.onStreamClose();
+
+        assertEquals(1, processed.size());
+        ProcessedJfrEvent candidate = processed.get(0);
+        assertEquals(2L, candidate.value());
+        assertEquals("Threads/Stack Variable", candidate.extraFields().get("gcRoot"));
+        assertEquals(List.of("io.perfana.Cache.put (line: 10)"), candidate.stacktrace());
+    }
+
+    private static RecordedEvent mockSample(String className, String siteClass, String siteMethod, int line) {
+        RecordedEvent eventMock = Mockito.mock(RecordedEvent.class);
+        EventType eventTypeMock = Mockito.mock(EventType.class);
+        Mockito.when(eventTypeMock.getName()).thenReturn(OldObjectSampleEvent.JDK_OLD_OBJECT_SAMPLE);
+        Mockito.when(eventMock.getEventType()).thenReturn(eventTypeMock);
+
+        RecordedClass objectClassMock = Mockito.mock(RecordedClass.class);
+        Mockito.when(objectClassMock.getName()).thenReturn(className);
+        Mockito.when(eventMock.getValue("object.type")).thenReturn(objectClassMock);
+        Mockito.when(eventMock.getDuration("objectAge")).thenReturn(Duration.ofSeconds(30));
+        Mockito.when(eventMock.getLong("lastKnownHeapUsage")).thenReturn(1_000_000L);
+
+        RecordedClass siteClassMock = Mockito.mock(RecordedClass.class);
+        Mockito.when(siteClassMock.getName()).thenReturn(siteClass);
+        RecordedMethod methodMock = Mockito.mock(RecordedMethod.class);
+        Mockito.when(methodMock.getType()).thenReturn(siteClassMock);
+        Mockito.when(methodMock.getName()).thenReturn(siteMethod);
+        RecordedFrame frameMock = Mockito.mock(RecordedFrame.class);
+        Mockito.when(frameMock.getMethod()).thenReturn(methodMock);
+        Mockito.when(frameMock.getLineNumber()).thenReturn(line);
+        RecordedStackTrace stackTraceMock = Mockito.mock(RecordedStackTrace.class);
+        Mockito.when(stackTraceMock.getFrames()).thenReturn(List.of(frameMock));
+        Mockito.when(eventMock.getStackTrace()).thenReturn(stackTraceMock);
+        return eventMock;
+    }
+}
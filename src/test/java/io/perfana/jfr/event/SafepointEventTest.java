@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.event;
+
+import io.perfana.jfr.ProcessedJfrEvent;
+import jdk.jfr.EventType;
+import jdk.jfr.consumer.RecordedEvent;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SafepointEventTest {
+
+    private static final Instant BEGIN = Instant.parse("2024-01-01T00:00:00Z");
+
+    @Test
+    void correlateVmOperationAfterEnd() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        SafepointEvent safepointEvent = new SafepointEvent(processed::add);
+
+        safepointEvent.onEvent(mockEvent(SafepointEvent.JDK_SAFEPOINT_BEGIN, 1, Duration.ZERO));
+        safepointEvent.onEvent(mockEvent(SafepointEvent.JDK_SAFEPOINT_STATE_SYNCHRONIZATION, 1, Duration.ofMillis(3)));
+        safepointEvent.onEvent(mockEvent(SafepointEvent.JDK_SAFEPOINT_END, 1, Duration.ofMillis(10)));
+        assertEquals(0, processed.size(), "wait for vm operation");
+
+        RecordedEvent operation = mockEvent(SafepointEvent.JDK_EXECUTE_VM_OPERATION, 1, Duration.ofMillis(6));
+        Mockito.when(operation.getString("operation")).thenReturn("G1CollectForAllocation");
+        safepointEvent.onEvent(operation);
+
+        assertEquals(1, processed.size());
+        ProcessedJfrEvent event = processed.get(0);
+        assertEquals("safepoint", event.measurementName());
+        assertEquals("G1CollectForAllocation", event.tags().get("operation"));
+        assertEquals(10.0, event.value());
+        assertEquals(3.0, event.extraFields().get("ttsp-ms"));
+        assertEquals(6.0, event.extraFields().get("operation-ms"));
+    }
+
+    @Test
+    void ignoreVmOperationWithoutSafepoint() {
+        List<ProcessedJfrEvent> processed = new ArrayList<>();
+        SafepointEvent safepointEvent = new SafepointEvent(processed::add);
+
+        RecordedEvent operation = mockEvent(SafepointEvent.JDK_EXECUTE_VM_OPERATION, 0, Duration.ofMillis(6));
+        Mockito.when(operation.getBoolean("safepoint")).thenReturn(false);
+        safepointEvent.onEvent(operation);
+
+        assertEquals(0, processed.size());
+    }
+
+    private static RecordedEvent mockEvent(String name, long safepointId, Duration duration) {
+        RecordedEvent eventMock = Mockito.mock(RecordedEvent.class);
+        EventType eventTypeMock = Mockito.mock(EventType.class);
+        Mockito.when(eventTypeMock.getName()).thenReturn(name);
+        Mockito.when(eventMock.getEventType()).thenReturn(eventTypeMock);
+        Mockito.when(eventMock.getLong("safepointId")).thenReturn(safepointId);
+        Mockito.when(eventMock.getBoolean("safepoint")).thenReturn(true);
+        Mockito.when(eventMock.getStartTime()).thenReturn(BEGIN);
+        Mockito.when(eventMock.getEndTime()).thenReturn(BEGIN.plus(duration));
+        Mockito.when(eventMock.getDuration()).thenReturn(duration);
+        return eventMock;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final CircuitBreaker breaker = new CircuitBreaker(3, 5_000, 20_000, now::get);
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        assertFalse(breaker.onFailure());
+        assertFalse(breaker.onFailure());
+        breaker.onSuccess();
+        assertFalse(breaker.onFailure());
+        assertFalse(breaker.onFailure());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.onFailure(), "third consecutive failure opens");
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    void halfOpenAllowsOneProbe() {
+        open();
+        now.addAndGet(5_000);
+        assertTrue(breaker.allowRequest(), "probe after open time");
+        assertTrue(breaker.isProbing());
+        assertFalse(breaker.allowRequest(), "only one probe at a time");
+
+        assertTrue(breaker.onSuccess(), "recovered");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.onSuccess());
+    }
+
+    @Test
+    void failedProbeDoublesOpenTime() {
+        open();
+        for (long expectedOpenMs : new long[]{10_000, 20_000, 20_000}) {
+            now.addAndGet(breaker.openMs());
+            assertTrue(breaker.allowRequest());
+            assertFalse(breaker.onFailure());
+            assertEquals(expectedOpenMs, breaker.openMs());
+            now.addAndGet(expectedOpenMs - 1);
+            assertFalse(breaker.allowRequest());
+            now.addAndGet(-(expectedOpenMs - 1));
+        }
+        now.addAndGet(breaker.openMs());
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(5_000, breaker.openMs(), "open time is reset when closed");
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InfluxPartialWriteTest {
+
+    @Test
+    void droppedLines() {
+        assertEquals(2, InfluxPartialWrite.droppedLines(
+                "{\"error\":\"partial write: unable to parse 'cpu-load value=\\\"x': missing tag key dropped=2\"}"));
+        assertEquals(5, InfluxPartialWrite.droppedLines(
+                "{\"code\":\"invalid\",\"message\":\"partial write error (5 accepted): 5 out of 10 points rejected\"}"));
+        assertEquals(2, InfluxPartialWrite.droppedLines(
+                "{\"error\":\"partial write of line protocol occurred\",\"data\":[" +
+                        "{\"original_line\":\"a\",\"line_number\":2,\"error_message\":\"x\"}," +
+                        "{\"original_line\":\"b\",\"line_number\":7,\"error_message\":\"y\"}]}"));
+    }
+
+    @Test
+    void notPartial() {
+        assertEquals(-1, InfluxPartialWrite.droppedLines("{\"error\":\"unable to parse 'x': invalid field format\"}"));
+        assertEquals(-1, InfluxPartialWrite.droppedLines("partial write"));
+        assertEquals(-1, InfluxPartialWrite.droppedLines(null));
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.influx;
+
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.jfr.ProcessedJfrEvent;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InfluxWriterFileTest {
+
+    @Test
+    void writeRollingFilesAndImport(@TempDir Path directory) throws Exception {
+        Instant timestamp = Instant.parse("2024-01-01T00:00:00Z");
+        // a small maximum size starts a new file for each batch
+        try (InfluxWriterFile writer = new InfluxWriterFile(directory, Map.of("service", "afterburner"), true, 100, Duration.ofHours(1), true)) {
+            for (int i = 0; i < 2_500; i++) {
+                writer.writeMetricPoint(ProcessedJfrEvent.of(timestamp, "cpu-load", "machineTotal", i));
+            }
+        }
+        List<Path> files = InfluxImporter.findFiles(directory);
+        assertEquals(3, files.size(), files.toString());
+        assertTrue(files.get(0).toString().endsWith(".lp.gz"));
+
+        List<String> lines = new CopyOnWriteArrayList<>();
+        HttpServer influx = startInflux(lines);
+        try {
+            InfluxImporter.Result result = new InfluxImporter(config(influx)).importPath(directory);
+
+            assertEquals(new InfluxImporter.Result(3, 2_500, 0), result);
+        } finally {
+            influx.stop(0);
+        }
+        assertEquals(2_500, lines.size());
+        assertTrue(lines.contains("cpu-load,service=afterburner machineTotal=42 1704067200000000000"), lines.get(0));
+    }
+
+    @Test
+    void importTruncatedFileUpToLastCompleteLine(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve(InfluxWriterFile.FILE_PREFIX + "truncated" + InfluxWriterFile.FILE_SUFFIX + InfluxWriterFile.GZIP_SUFFIX);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(compressed), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 8_000; i++) {
+                writer.write("cpu-load machineTotal=" + i * 7919 % 10_007 + " " + (1704067200000000000L + i) + "\n");
+            }
+        }
+        byte[] bytes = compressed.toByteArray();
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+
+        List<String> lines = new CopyOnWriteArrayList<>();
+        HttpServer influx = startInflux(lines);
+        InfluxImporter.Result result;
+        try {
+            result = new InfluxImporter(config(influx)).importPath(file);
+        } finally {
+            influx.stop(0);
+        }
+        assertTrue(result.importedLines() > 0, "lines before the cut are imported, also when less than a batch");
+        assertTrue(result.importedLines() < 8_000);
+        assertEquals(result.importedLines(), lines.size());
+        assertTrue(lines.stream().allMatch(line -> line.matches("cpu-load machineTotal=\\d+ \\d{19}")), "only complete lines");
+    }
+
+    @Test
+    void importPlainTruncatedFileWithoutPartialLine(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve(InfluxWriterFile.FILE_PREFIX + "truncated" + InfluxWriterFile.FILE_SUFFIX);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3_000; i++) {
+            text.append("cpu-load machineTotal=").append(i * 7919 % 10_007).append(' ').append(1704067200000000000L + i).append('\n');
+        }
+        // cut off in the middle of a write
+        text.append("cpu-load machineTot");
+        Files.writeString(file, text);
+
+        List<String> lines = new CopyOnWriteArrayList<>();
+        HttpServer influx = startInflux(lines);
+        InfluxImporter.Result result;
+        try {
+            result = new InfluxImporter(config(influx)).importPath(file);
+        } finally {
+            influx.stop(0);
+        }
+        assertEquals(3_000, result.importedLines());
+        assertEquals(0, result.failedLines());
+        assertEquals(3_000, lines.size());
+        assertTrue(lines.stream().allMatch(line -> line.matches("cpu-load machineTotal=\\d+ \\d{19}")), "only complete lines");
+    }
+
+    private static HttpServer startInflux(List<String> lines) throws IOException {
+        HttpServer influx = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        influx.createContext("/write", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                lines.addAll(List.of(new String(body.readAllBytes(), StandardCharsets.UTF_8).split("\n")));
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        influx.start();
+        return influx;
+    }
+
+    private static InfluxWriterConfig config(HttpServer influx) {
+        return new InfluxWriterConfig("http://localhost:" + influx.getAddress().getPort(),
+                "jfr", "", "", "autogen", Map.of(), true);
+    }
+}
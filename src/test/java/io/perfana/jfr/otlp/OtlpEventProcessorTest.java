@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.otlp;
+
+import com.sun.net.httpserver.HttpServer;
+import io.perfana.jfr.ExporterTelemetry;
+import io.perfana.jfr.ProcessedJfrEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OtlpEventProcessorTest {
+
+    @Test
+    void sendToStubReceiver() throws Exception {
+        List<byte[]> requests = new CopyOnWriteArrayList<>();
+        List<String> contentEncodings = new CopyOnWriteArrayList<>();
+        HttpServer receiver = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        receiver.createContext("/v1/metrics", exchange -> {
+            contentEncodings.add(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            try (InputStream body = new GZIPInputStream(exchange.getRequestBody())) {
+                requests.add(body.readAllBytes());
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        receiver.start();
+        try {
+            String endpoint = "http://localhost:" + receiver.getAddress().getPort();
+            try (OtlpEventProcessor processor = new OtlpEventProcessor(endpoint, Map.of("service", "afterburner"), true)) {
+                processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "cpu-load", "machineTotal", 0.5, Map.of("jvmUser", 0.2)));
+                processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "safepoint", Map.of("operation", "G1Pause"), "duration-ms", 3.0));
+                processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "safepoint", Map.of("operation", "G1Pause"), "duration-ms", 30.0));
+            }
+        } finally {
+            receiver.stop(0);
+        }
+
+        assertEquals(1, requests.size());
+        assertEquals("gzip", contentEncodings.get(0));
+
+        // ExportMetricsServiceRequest -> ResourceMetrics -> ScopeMetrics -> Metric
+        Message resourceMetrics = Message.parse(requests.get(0)).message(1);
+        List<String> resourceAttributes = resourceMetrics.message(1).messages(1).stream().map(kv -> kv.string(1)).toList();
+        assertEquals(List.of("service", "service.name"), resourceAttributes);
+
+        Message scopeMetrics = resourceMetrics.message(2);
+        assertEquals("io.perfana.jfr", scopeMetrics.message(1).string(1));
+        Map<String, Message> metrics = new java.util.HashMap<>();
+        scopeMetrics.messages(2).forEach(metric -> metrics.put(metric.string(1), metric));
+
+        assertEquals(Double.doubleToRawLongBits(0.5), metrics.get("jfr.cpu-load.machineTotal").message(5).message(1).fixed64(4));
+        assertEquals(Double.doubleToRawLongBits(0.2), metrics.get("jfr.cpu-load.jvmUser").message(5).message(1).fixed64(4));
+        assertEquals(2, metrics.get("jfr.safepoint.duration-ms").message(5).messages(1).size());
+
+        Message eventCount = metrics.get("jfr.safepoint.events").message(7);
+        assertEquals(2L, eventCount.message(1).fixed64(6));
+        assertEquals(1L, eventCount.varint(2), "delta temporality");
+
+        Message histogramPoint = metrics.get("jfr.safepoint.duration-ms.histogram").message(10).message(1);
+        assertEquals("operation", histogramPoint.message(1).string(1));
+        assertEquals(2L, histogramPoint.fixed64(4));
+        assertEquals(Double.doubleToRawLongBits(33.0), histogramPoint.fixed64(5));
+        assertEquals(ExponentialHistogram.bucketIndex(3.0), (int) zigzag(histogramPoint.message(8).varint(1)));
+    }
+
+    @Test
+    void slowCollectorDoesNotBlockEvents() throws Exception {
+        List<Long> requestTimes = new CopyOnWriteArrayList<>();
+        HttpServer receiver = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        receiver.createContext("/v1/metrics", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            requestTimes.add(System.currentTimeMillis());
+            try {
+                Thread.sleep(1_500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        receiver.start();
+        try {
+            long dropped = ExporterTelemetry.global().getDroppedPoints();
+            String endpoint = "http://localhost:" + receiver.getAddress().getPort();
+            try (OtlpEventProcessor processor = new OtlpEventProcessor(endpoint, Map.of(), false)) {
+                long start = System.nanoTime();
+                // two full batches: the first is in flight while the second is flushed
+                for (int i = 0; i < 2_000; i++) {
+                    processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "cpu-load", "machineTotal", i));
+                }
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                assertTrue(elapsedMs < 1_000, "events are not blocked by the slow collector: " + elapsedMs + " ms");
+                assertEquals(1_000, ExporterTelemetry.global().getDroppedPoints() - dropped, "second batch dropped");
+            }
+            assertEquals(1, requestTimes.size(), "close waits for the request in flight");
+        } finally {
+            receiver.stop(0);
+        }
+    }
+
+    @Test
+    void bucketIndexBoundaries() {
+        // bucket i holds (base^i, base^(i+1)], powers of two are upper bounds
+        assertEquals(-1, ExponentialHistogram.bucketIndex(1.0));
+        assertEquals(0, ExponentialHistogram.bucketIndex(1.01));
+        assertEquals(7, ExponentialHistogram.bucketIndex(2.0));
+        assertEquals(-9, ExponentialHistogram.bucketIndex(0.5));
+    }
+
+    @Test
+    void nestedMessageLengths() {
+        ProtobufWriter writer = new ProtobufWriter(4);
+        writer.startMessage(1);
+        writer.string(1, "x".repeat(200));
+        writer.startMessage(2);
+        writer.string(1, "é€");
+        writer.endMessage();
+        writer.endMessage();
+
+        byte[] bytes = java.util.Arrays.copyOf(writer.buffer(), writer.size());
+        Message outer = Message.parse(bytes).message(1);
+        assertEquals("x".repeat(200), outer.string(1));
+        assertEquals("é€", outer.message(2).string(1));
+    }
+
+    private static long zigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Generic protobuf reader, enough to check the encoded requests.
+     */
+    private record Message(List<long[]> numbers, List<Object[]> lengthDelimited) {
+
+        static Message parse(byte[] bytes) {
+            List<long[]> numbers = new ArrayList<>();
+            List<Object[]> lengthDelimited = new ArrayList<>();
+            int[] position = {0};
+            while (position[0] < bytes.length) {
+                long tag = readVarint(bytes, position);
+                int field = (int) (tag >>> 3);
+                switch ((int) (tag & 7)) {
+                    case 0 -> numbers.add(new long[] { field, readVarint(bytes, position) });
+                    case 1 -> {
+                        long value = 0;
+                        for (int i = 0; i < 8; i++) {
+                            value |= (bytes[position[0]++] & 0xFFL) << (8 * i);
+                        }
+                        numbers.add(new long[] { field, value });
+                    }
+                    case 2 -> {
+                        int length = (int) readVarint(bytes, position);
+                        byte[] value = java.util.Arrays.copyOfRange(bytes, position[0], position[0] + length);
+                        position[0] += length;
+                        lengthDelimited.add(new Object[] { field, value });
+                    }
+                    default -> throw new IllegalStateException("Unexpected wire type in tag " + tag);
+                }
+            }
+            return new Message(numbers, lengthDelimited);
+        }
+
+        private static long readVarint(byte[] bytes, int[] position) {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position[0]++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        List<Message> messages(int field) {
+            return lengthDelimited.stream()
+                    .filter(entry -> (int) entry[0] == field)
+                    .map(entry -> parse((byte[]) entry[1]))
+                    .toList();
+        }
+
+        Message message(int field) {
+            List<Message> messages = messages(field);
+            assertFalse(messages.isEmpty(), "no field " + field);
+            return messages.get(0);
+        }
+
+        String string(int field) {
+            return lengthDelimited.stream()
+                    .filter(entry -> (int) entry[0] == field)
+                    .map(entry -> new String((byte[]) entry[1], StandardCharsets.UTF_8))
+                    .findFirst().orElseThrow();
+        }
+
+        long varint(int field) {
+            return fixed64(field);
+        }
+
+        long fixed64(int field) {
+            return numbers.stream().filter(entry -> entry[0] == field).findFirst().orElseThrow()[1];
+        }
+    }
+}
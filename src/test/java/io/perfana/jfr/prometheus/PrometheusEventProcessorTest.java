@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.prometheus;
+
+import io.perfana.jfr.ExporterTelemetry;
+import io.perfana.jfr.ProcessedJfrEvent;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrometheusEventProcessorTest {
+
+    @Test
+    void scrapeLatestValues() throws Exception {
+        long pointsWritten = ExporterTelemetry.global().getPointsWritten();
+        try (PrometheusEventProcessor processor = new PrometheusEventProcessor(0, Map.of("service", "afterburner"))) {
+            processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "cpu-load", "machineTotal", 0.25, Map.of("jvmUser", 0.1)));
+            processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "cpu-load", "machineTotal", 0.5, Map.of("jvmUser", 0.2)));
+            processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "safepoint", Map.of("operation", "G1 \"Pause\""), "duration-ms", 3.0));
+
+            HttpClient client = HttpClient.newHttpClient();
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + processor.getPort() + "/metrics")).build();
+            String body = client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+            // a second scrape reuses the buffers and gives the same output
+            assertEquals(body, client.send(request, HttpResponse.BodyHandlers.ofString()).body());
+
+            assertTrue(body.contains("# TYPE jfr_cpu_load_machineTotal gauge\n"), body);
+            assertTrue(body.contains("jfr_cpu_load_machineTotal{service=\"afterburner\"} 0.5\n"), body);
+            assertTrue(body.contains("jfr_cpu_load_jvmUser{service=\"afterburner\"} 0.2\n"), body);
+            assertTrue(body.contains("jfr_cpu_load_events_total{service=\"afterburner\"} 2\n"), body);
+            assertTrue(body.contains("jfr_safepoint_duration_ms_histogram_bucket{operation=\"G1 \\\"Pause\\\"\",service=\"afterburner\",le=\"5\"} 1\n"), body);
+            assertTrue(body.contains("jfr_safepoint_duration_ms_histogram_count{operation=\"G1 \\\"Pause\\\"\",service=\"afterburner\"} 1\n"), body);
+
+            // the scrapes are recorded after the response is sent
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (ExporterTelemetry.global().getPointsWritten() == pointsWritten && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(ExporterTelemetry.global().getPointsWritten() > pointsWritten, "scrapes count as points written");
+        }
+    }
+
+    @Test
+    void expiredSeriesAreRemoved() {
+        AtomicLong now = new AtomicLong(0);
+        PrometheusRegistry registry = new PrometheusRegistry(2, 1_000, now::get);
+        registry.setGauge("thread_cpu", "thread=\"a\"", 1);
+        registry.setGauge("thread_cpu", "thread=\"b\"", 1);
+        registry.setGauge("thread_cpu", "thread=\"c\"", 1);
+        assertEquals(2, registry.getSeriesCount(), "series are bounded");
+
+        now.set(2_000);
+        registry.setGauge("thread_cpu", "thread=\"b\"", 2);
+        StringBuilder text = new StringBuilder();
+        registry.render(text);
+
+        assertEquals(1, registry.getSeriesCount());
+        assertFalse(text.toString().contains("thread=\"a\""), text.toString());
+        assertTrue(text.toString().contains("thread_cpu{thread=\"b\"} 2\n"), text.toString());
+        assertTrue(text.toString().contains("jfr_exporter_dropped_samples_total 1\n"), text.toString());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 Peter Paul Bakker - Perfana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.perfana.jfr.statsd;
+
+import io.perfana.jfr.ExporterTelemetry;
+import io.perfana.jfr.ProcessedJfrEvent;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatsdEventProcessorTest {
+
+    @Test
+    void coalesceLinesIntoPackets() throws Exception {
+        try (DatagramChannel receiver = DatagramChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+            int port = ((InetSocketAddress) receiver.getLocalAddress()).getPort();
+            long pointsWritten = ExporterTelemetry.global().getPointsWritten();
+
+            try (StatsdEventProcessor processor = new StatsdEventProcessor("localhost", port, Map.of("service", "afterburner"), true, 200)) {
+                processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "cpu-load", "machineTotal", 0.5, Map.of("jvmUser", 0.25)));
+                processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "safepoint", Map.of("operation", "G1 Pause"), "duration-ms", 3));
+                processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "monitor", "duration-ns", 1.5e9));
+            }
+
+            List<String> packets = new ArrayList<>();
+            ByteBuffer buffer = ByteBuffer.allocate(2048);
+            receiver.configureBlocking(false);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (System.currentTimeMillis() < deadline && String.join("\n", packets).split("\n").length < 7) {
+                buffer.clear();
+                if (receiver.receive(buffer) != null) {
+                    buffer.flip();
+                    packets.add(StandardCharsets.UTF_8.decode(buffer).toString());
+                } else {
+                    Thread.sleep(10);
+                }
+            }
+
+            assertEquals(7, ExporterTelemetry.global().getPointsWritten() - pointsWritten, "each line is a point");
+            assertTrue(packets.size() > 1, "lines are split over packets: " + packets);
+            packets.forEach(packet -> assertTrue(packet.getBytes(StandardCharsets.UTF_8).length <= 200, packet));
+
+            List<String> lines = List.of(String.join("\n", packets).split("\n"));
+            assertEquals(List.of(
+                    "jfr.cpu-load.events:1|c|#service:afterburner",
+                    "jfr.cpu-load.machineTotal:0.5|g|#service:afterburner",
+                    "jfr.cpu-load.jvmUser:0.25|g|#service:afterburner",
+                    "jfr.safepoint.events:1|c|#service:afterburner,operation:G1_Pause",
+                    "jfr.safepoint.duration-ms:3|ms|#service:afterburner,operation:G1_Pause",
+                    "jfr.monitor.events:1|c|#service:afterburner",
+                    "jfr.monitor.duration-ns:1500000000|h|#service:afterburner"), lines);
+        }
+    }
+
+    @Test
+    void sendOldPacketWithoutNewEvents() throws Exception {
+        try (DatagramChannel receiver = DatagramChannel.open().bind(new InetSocketAddress("localhost", 0))) {
+            int port = ((InetSocketAddress) receiver.getLocalAddress()).getPort();
+
+            try (StatsdEventProcessor processor = new StatsdEventProcessor("localhost", port, Map.of(), true)) {
+                processor.processEvent(ProcessedJfrEvent.of(Instant.now(), "gc", "duration-ms", 12));
+
+                // no close and no next event: the background flush sends the packet
+                ByteBuffer buffer = ByteBuffer.allocate(2048);
+                receiver.configureBlocking(false);
+                long deadline = System.currentTimeMillis() + 5_000;
+                while (System.currentTimeMillis() < deadline && receiver.receive(buffer) == null) {
+                    Thread.sleep(10);
+                }
+                buffer.flip();
+                assertEquals("jfr.gc.events:1|c\njfr.gc.duration-ms:12|ms", StandardCharsets.UTF_8.decode(buffer).toString());
+            }
+        }
+    }
+
+    @Test
+    void formatValueWithoutExponent() {
+        assertEquals("42", StatsdEventProcessor.formatValue(42.0));
+        assertEquals("0.000012", StatsdEventProcessor.formatValue(0.000012));
+    }
+}